@@ -0,0 +1,86 @@
+package tv.xrm.jfilter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import tv.xrm.jfilter.Spec.OverlappingBehaviour;
+
+/**
+ * A feed of records filtered with one spec: copyTree() in a loop against the batch API.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchBenchmark {
+
+    private static final long SEED = 4711;
+
+    @Param({ "1000" })
+    public int records;
+
+    private List<JsonNode> feed;
+
+    private List<Node> nodes;
+
+    private CompiledFilter filter;
+
+    private ParallelOptions options;
+
+    @Setup
+    public void setUp() {
+        feed = new ArrayList<>();
+        for (final JsonNode record : Workloads.document(records, 3, 8, 4, SEED).get("records")) {
+            feed.add(record);
+        }
+        nodes = Spec.spec(OverlappingBehaviour.UNION, Workloads.specs(2, 8, 0.5, 0.2, SEED)).toNodes();
+        filter = CompiledFilter.compile(nodes);
+        options = new ParallelOptions();
+    }
+
+    @Benchmark
+    public List<JsonNode> copyTreeLoopFromNodes() {
+        final List<JsonNode> copies = new ArrayList<>();
+        for (final JsonNode record : feed) {
+            copies.add(FilteredTreeCopier.copyTree(record, nodes));
+        }
+        return copies;
+    }
+
+    @Benchmark
+    public List<JsonNode> copyTreeLoop() {
+        final List<JsonNode> copies = new ArrayList<>();
+        for (final JsonNode record : feed) {
+            copies.add(FilteredTreeCopier.copyTree(record, filter));
+        }
+        return copies;
+    }
+
+    @Benchmark
+    public List<JsonNode> copyAll() {
+        return FilteredTreeCopier.copyAll(feed, filter);
+    }
+
+    @Benchmark
+    public List<JsonNode> copyAllParallel() {
+        return FilteredTreeCopier.copyAll(feed, filter, options);
+    }
+
+}
@@ -0,0 +1,91 @@
+package tv.xrm.jfilter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * One document filtered for several subscribers, each picking a few fields: copyTree() per filter against copyTrees(),
+ * with a FanOut made per call or reused. Paths through wildcards make each copyTree() look at all fields of a level.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FanOutBenchmark {
+
+    private static final long SEED = 4711;
+
+    @Param({ "2", "8", "32" })
+    public int filters;
+
+    // share of subscriber paths going through a wildcard
+    @Param({ "0.0", "0.5" })
+    public double wildcardDensity;
+
+    private JsonNode document;
+
+    private List<CompiledFilter> compiled;
+
+    private FanOut fanOut;
+
+    @Setup
+    public void setUp() {
+        document = Workloads.document(200, 3, 8, 4, SEED);
+        final Random random = new Random(SEED);
+        compiled = new ArrayList<>();
+        for (int i = 0; i < filters; i++) {
+            compiled.add(Spec.spec(subscription(random)).compile());
+        }
+        fanOut = new FanOut(compiled);
+    }
+
+    /**
+     * A few scalar fields of each record, as a subscriber would pick them: small copies of a large document.
+     */
+    private String[] subscription(final Random random) {
+        final String[] paths = new String[3];
+        for (int i = 0; i < paths.length; i++) {
+            final String level = random.nextDouble() < wildcardDensity ? Spec.WILDCARD : "f0";
+            paths[i] = "records." + (i == 0 ? "" : level + ".") + "f" + (2 + random.nextInt(6));
+        }
+        return paths;
+    }
+
+    @Benchmark
+    public List<JsonNode> copyTreeLoop() {
+        final List<JsonNode> copies = new ArrayList<>();
+        for (final CompiledFilter filter : compiled) {
+            copies.add(FilteredTreeCopier.copyTree(document, filter));
+        }
+        return copies;
+    }
+
+    @Benchmark
+    public List<JsonNode> copyTrees() {
+        return FilteredTreeCopier.copyTrees(document, compiled);
+    }
+
+    @Benchmark
+    public List<JsonNode> copyTreesReused() {
+        return FilteredTreeCopier.copyTrees(document, fanOut);
+    }
+
+}
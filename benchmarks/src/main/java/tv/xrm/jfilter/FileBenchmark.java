@@ -0,0 +1,91 @@
+package tv.xrm.jfilter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import tv.xrm.jfilter.Spec.OverlappingBehaviour;
+
+/**
+ * Filtering a JSON file with copyFile() against just parsing it, i.e. the overhead of filtering over raw parse speed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileBenchmark {
+
+    private static final long SEED = 4711;
+
+    @Param({ "10000" })
+    public int records;
+
+    @Param({ "0.1", "0.5" })
+    public double selectivity;
+
+    private Path file;
+
+    private CompiledFilter filter;
+
+    private final JsonFactory factory = new JsonFactory();
+
+    private final OutputStream discard = new OutputStream() {
+        @Override
+        public void write(final int b) {
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) {
+        }
+    };
+
+    @Setup
+    public void setUp() throws IOException {
+        file = Files.createTempFile("jsontreefilter", ".json");
+        new ObjectMapper().writeValue(file.toFile(), Workloads.document(records, 3, 8, 4, SEED));
+        filter = Spec.spec(OverlappingBehaviour.UNION, Workloads.specs(3, 8, selectivity, 0.0, SEED)).compile();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.delete(file);
+    }
+
+    @Benchmark
+    public int parse() throws IOException {
+        int tokens = 0;
+        try (JsonParser parser = factory.createParser(file.toFile())) {
+            while (parser.nextToken() != null) {
+                tokens++;
+            }
+        }
+        return tokens;
+    }
+
+    @Benchmark
+    public long copyFile() throws IOException {
+        return FilteredStreamCopier.copyFile(file, filter, discard);
+    }
+
+}
@@ -0,0 +1,108 @@
+package tv.xrm.jfilter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import tv.xrm.jfilter.Spec.OverlappingBehaviour;
+
+/**
+ * NDJSON filtering with FilteredLinesCopier for several pool sizes. Besides the time per run, the "mbPerCore" counter
+ * reports input megabytes per second and pool thread, i.e. how well throughput scales with cores.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LinesBenchmark {
+
+    private static final long SEED = 4711;
+
+    @Param({ "20000" })
+    public int records;
+
+    @Param({ "1", "2", "4" })
+    public int threads;
+
+    private byte[] input;
+
+    private CompiledFilter filter;
+
+    private ForkJoinPool pool;
+
+    private ParallelOptions options;
+
+    private final OutputStream discard = new OutputStream() {
+        @Override
+        public void write(final int b) {
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) {
+        }
+    };
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        // input megabytes per pool thread, counted per run; JMH turns this into a rate
+        public double mbPerCore;
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        final ObjectMapper mapper = new ObjectMapper();
+        final ByteArrayOutputStream lines = new ByteArrayOutputStream();
+        for (final JsonNode record : Workloads.document(records, 3, 8, 4, SEED).get("records")) {
+            lines.write(mapper.writeValueAsBytes(record));
+            lines.write('\n');
+        }
+        input = lines.toByteArray();
+        // specs for the records document, applied to single records
+        final List<String> specs = new ArrayList<>();
+        for (final String spec : Workloads.specs(3, 8, 0.3, 0.0, SEED)) {
+            specs.add(spec.substring("records.".length()));
+        }
+        filter = Spec.spec(OverlappingBehaviour.UNION, specs).compile();
+        pool = new ForkJoinPool(threads);
+        options = new ParallelOptions(pool, ParallelOptions.DEFAULT_THRESHOLD);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public long copyLines(final Counters counters) throws IOException {
+        final long lines = FilteredLinesCopier.copyLines(new ByteArrayInputStream(input), filter, discard, options);
+        counters.mbPerCore += input.length / (1024.0 * 1024.0) / threads;
+        return lines;
+    }
+
+}
@@ -0,0 +1,63 @@
+package tv.xrm.jfilter;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import tv.xrm.jfilter.Spec.OverlappingBehaviour;
+
+/**
+ * Sequential against fork/join copying of bulk documents (one large array of records).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParallelBenchmark {
+
+    private static final long SEED = 4711;
+
+    @Param({ "100000" })
+    public int records;
+
+    @Param({ "256", "1024", "8192" })
+    public int threshold;
+
+    private JsonNode tree;
+
+    private CompiledFilter filter;
+
+    private ParallelOptions options;
+
+    @Setup
+    public void setUp() {
+        tree = Workloads.document(records, 2, 8, 4, SEED);
+        filter = Spec.spec(OverlappingBehaviour.UNION, Workloads.specs(2, 8, 0.5, 0.0, SEED)).compile();
+        options = new ParallelOptions(threshold);
+    }
+
+    @Benchmark
+    public JsonNode copyTree() {
+        return FilteredTreeCopier.copyTree(tree, filter);
+    }
+
+    @Benchmark
+    public JsonNode copyTreeParallel() {
+        return FilteredTreeCopier.copyTree(tree, filter, options);
+    }
+
+}
@@ -0,0 +1,164 @@
+package tv.xrm.jfilter;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+/**
+ * Serializing a subset of domain objects: valueToTree(), copyTree() and writing the copy against writing the objects
+ * through SpecPropertyFilter.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PojoBenchmark {
+
+    private static final long SEED = 4711;
+
+    @Param({ "narrow", "wide" })
+    public String selectivity;
+
+    private final ObjectMapper plain = new ObjectMapper();
+
+    private final ObjectMapper filtering = SpecPropertyFilter.configure(new ObjectMapper());
+
+    private List<Customer> customers;
+
+    private CompiledFilter filter;
+
+    private ObjectWriter writer;
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(SEED);
+        customers = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            customers.add(new Customer(i, random));
+        }
+        filter = (selectivity.equals("narrow") ? Spec.spec("id", "address.city")
+                : Spec.spec("id", "name", "address", "orders.total", "attributes.*")).compile();
+        writer = SpecPropertyFilter.writer(filtering, filter);
+    }
+
+    @Benchmark
+    public String treeThenCopy() throws JsonProcessingException {
+        return plain.writeValueAsString(FilteredTreeCopier.copyTree(plain.valueToTree(customers), filter));
+    }
+
+    @Benchmark
+    public String propertyFilter() throws JsonProcessingException {
+        return writer.writeValueAsString(customers);
+    }
+
+    @Benchmark
+    public String unfiltered() throws JsonProcessingException {
+        return plain.writeValueAsString(customers);
+    }
+
+    public static final class Customer {
+        private final long id;
+        private final String name;
+        private final Address address;
+        private final List<Order> orders = new ArrayList<>();
+        private final Map<String, Object> attributes = new LinkedHashMap<>();
+
+        Customer(final long id, final Random random) {
+            this.id = id;
+            this.name = "customer" + random.nextInt(100000);
+            this.address = new Address("street" + random.nextInt(1000), "city" + random.nextInt(100));
+            for (int i = 0; i < 10; i++) {
+                orders.add(new Order(random));
+            }
+            for (int i = 0; i < 5; i++) {
+                attributes.put("a" + i, random.nextInt(1000));
+            }
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Address getAddress() {
+            return address;
+        }
+
+        public List<Order> getOrders() {
+            return orders;
+        }
+
+        public Map<String, Object> getAttributes() {
+            return attributes;
+        }
+    }
+
+    public static final class Address {
+        private final String street;
+        private final String city;
+
+        Address(final String street, final String city) {
+            this.street = street;
+            this.city = city;
+        }
+
+        public String getStreet() {
+            return street;
+        }
+
+        public String getCity() {
+            return city;
+        }
+    }
+
+    public static final class Order {
+        private final String number;
+        private final double total;
+        private final List<String> items = new ArrayList<>();
+
+        Order(final Random random) {
+            this.number = Long.toHexString(random.nextLong());
+            this.total = random.nextInt(100000) / 100.0;
+            for (int i = 0; i < 3; i++) {
+                items.add("item" + random.nextInt(500));
+            }
+        }
+
+        public String getNumber() {
+            return number;
+        }
+
+        public double getTotal() {
+            return total;
+        }
+
+        public List<String> getItems() {
+            return items;
+        }
+    }
+
+}
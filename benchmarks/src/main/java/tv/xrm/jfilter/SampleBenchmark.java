@@ -0,0 +1,51 @@
+package tv.xrm.jfilter;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * The former PerformanceTest: the whole "glossary" of the big sample file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SampleBenchmark {
+
+    private final JsonNode tree = TestUtil.readSampleJson("bigsample.json");
+
+    private final List<Node> spec = Arrays.asList(new Node("glossary"));
+
+    private final CompiledFilter filter = CompiledFilter.compile(spec);
+
+    @Benchmark
+    public JsonNode copyBigSample() {
+        return FilteredTreeCopier.copyTree(tree, spec);
+    }
+
+    @Benchmark
+    public JsonNode copyBigSampleCompiled() {
+        return FilteredTreeCopier.copyTree(tree, filter);
+    }
+
+    @Benchmark
+    public JsonNode shadowBigSample() {
+        return FilteredTreeCopier.shadowTree(tree, filter);
+    }
+
+}
@@ -0,0 +1,90 @@
+package tv.xrm.jfilter;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import tv.xrm.jfilter.Spec.OverlappingBehaviour;
+
+/**
+ * Parsing textual specs and turning them into nodes and compiled filters.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SpecBenchmark {
+
+    @Param({ "10", "1000" })
+    public int paths;
+
+    @Param({ "0.0", "0.2" })
+    public double wildcardDensity;
+
+    @Param({ "UNION", "INTERSECTION" })
+    public OverlappingBehaviour behaviour;
+
+    private List<String> specs;
+
+    private Spec spec;
+
+    @Setup
+    public void setUp() {
+        specs = Workloads.randomPaths(paths, 5, wildcardDensity, 4711);
+        spec = Spec.spec(behaviour, specs);
+    }
+
+    @Benchmark
+    public void parse(final Blackhole blackhole) {
+        for (String s : specs) {
+            blackhole.consume(SpecParser.tokens(s));
+        }
+    }
+
+    @Benchmark
+    public void parseLegacy(final Blackhole blackhole) {
+        for (String s : specs) {
+            blackhole.consume(LegacySpecParser.tokens(s));
+        }
+    }
+
+    @Benchmark
+    public Spec build() {
+        return Spec.spec(behaviour, specs);
+    }
+
+    // toNodes() and compile() of Spec keep their results, so these make new ones each time
+
+    @Benchmark
+    public List<Node> toNodes() {
+        return spec.makeNodes();
+    }
+
+    @Benchmark
+    public CompiledFilter compile() {
+        return CompiledFilter.compile(spec.makeNodes());
+    }
+
+    /**
+     * A spec shared by request threads, as it's read most of the time: no locks, no conversion.
+     */
+    @Benchmark
+    public CompiledFilter compileShared() {
+        return spec.compile();
+    }
+
+}
@@ -0,0 +1,151 @@
+package tv.xrm.jfilter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import tv.xrm.jfilter.Spec.OverlappingBehaviour;
+
+/**
+ * Filtering generated documents of varying shape with generated specs of varying selectivity.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TreeFilterBenchmark {
+
+    private static final long SEED = 4711;
+
+    @Param({ "100" })
+    public int records;
+
+    @Param({ "2", "5" })
+    public int depth;
+
+    @Param({ "8" })
+    public int width;
+
+    @Param({ "1", "50" })
+    public int fanout;
+
+    @Param({ "0.1", "0.5", "1.0" })
+    public double selectivity;
+
+    @Param({ "0.0", "0.3" })
+    public double wildcardDensity;
+
+    private JsonNode tree;
+
+    private byte[] json;
+
+    private List<Node> nodes;
+
+    private CompiledFilter filter;
+
+    private final JsonFactory factory = new JsonFactory();
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final ResultCache resultCache = new ResultCache(64 << 20);
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    private final IJsonObjectCallback callback = new IJsonObjectCallback() {
+        @Override
+        public void postProcessObjectNode(final ObjectNode newNode, final ObjectNode existingNode,
+                final List<String> currentPath) {
+            if (currentPath.size() == 1) {
+                newNode.put("depth", currentPath.size());
+            }
+        }
+    };
+
+    @Setup
+    public void setUp() throws IOException {
+        tree = Workloads.document(records, depth, width, fanout, SEED);
+        json = mapper.writeValueAsBytes(tree);
+        nodes = Spec.spec(OverlappingBehaviour.UNION, Workloads.specs(depth, width, selectivity, wildcardDensity, SEED)).toNodes();
+        filter = CompiledFilter.compile(nodes);
+    }
+
+    @Benchmark
+    public JsonNode copyTree() {
+        return FilteredTreeCopier.copyTree(tree, filter);
+    }
+
+    @Benchmark
+    public JsonNode copyTreeFromNodes() {
+        return FilteredTreeCopier.copyTree(tree, nodes);
+    }
+
+    @Benchmark
+    public JsonNode copyTreeWithCallback() {
+        return FilteredTreeCopier.copyTree(tree, filter, callback);
+    }
+
+    @Benchmark
+    public JsonNode shadowTree() {
+        return FilteredTreeCopier.shadowTree(tree, filter);
+    }
+
+    @Benchmark
+    public JsonNode cachedResult() {
+        return resultCache.get(SEED, tree, filter);
+    }
+
+    @Benchmark
+    public JsonNode shareTree() {
+        return FilteredTreeCopier.shareTree(tree, filter);
+    }
+
+    @Benchmark
+    public byte[] copyTreeAndWrite() throws IOException {
+        return mapper.writeValueAsBytes(FilteredTreeCopier.copyTree(tree, filter));
+    }
+
+    @Benchmark
+    public byte[] writeFilteredAsBytes() {
+        return FilteredTreeCopier.writeFilteredAsBytes(tree, filter);
+    }
+
+    @Benchmark
+    public int writeFiltered() throws IOException {
+        out.reset();
+        FilteredTreeCopier.writeFiltered(tree, filter, out);
+        return out.size();
+    }
+
+    @Benchmark
+    public int copyStream() throws IOException {
+        out.reset();
+        try (JsonParser parser = factory.createParser(json);
+                JsonGenerator generator = factory.createGenerator(out)) {
+            FilteredStreamCopier.copyStream(parser, filter, generator);
+        }
+        return out.size();
+    }
+
+}
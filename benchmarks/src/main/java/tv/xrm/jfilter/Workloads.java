@@ -0,0 +1,130 @@
+package tv.xrm.jfilter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Deterministic generated inputs. Documents are an array of records under "records"; each record has width fields
+ * f0..fn, where f0 is a nested record (down to the given depth), f1 an array of fanout flat records and the rest are
+ * scalars. Specs select a share of the fields on each level, optionally using wildcards.
+ */
+final class Workloads {
+
+    private static final JsonNodeFactory FACTORY = JsonNodeFactory.instance;
+
+    private Workloads() {
+    }
+
+    static JsonNode document(final int records, final int depth, final int width, final int fanout, final long seed) {
+        final Random random = new Random(seed);
+        final ObjectNode root = FACTORY.objectNode();
+        final ArrayNode array = root.putArray("records");
+        for (int i = 0; i < records; i++) {
+            array.add(record(random, depth, width, fanout));
+        }
+        return root;
+    }
+
+    private static ObjectNode record(final Random random, final int depth, final int width, final int fanout) {
+        final ObjectNode record = FACTORY.objectNode();
+        for (int i = 0; i < width; i++) {
+            final String name = "f" + i;
+            if (i == 0 && depth > 0) {
+                record.set(name, record(random, depth - 1, width, fanout));
+            } else if (i == 1 && depth > 0) {
+                final ArrayNode array = record.putArray(name);
+                for (int j = 0; j < fanout; j++) {
+                    array.add(record(random, 0, width, fanout));
+                }
+            } else {
+                switch (i % 4) {
+                case 0:
+                    record.put(name, random.nextLong());
+                    break;
+                case 1:
+                    record.put(name, random.nextBoolean());
+                    break;
+                case 2:
+                    record.put(name, random.nextDouble());
+                    break;
+                default:
+                    record.put(name, Long.toString(random.nextLong(), 36));
+                    break;
+                }
+            }
+        }
+        return record;
+    }
+
+    /**
+     * Specs matching the structure of document(); selectivity is the share of fields selected per level (at least one),
+     * wildcardDensity the probability of a level being selected by wildcard rather than names.
+     */
+    static List<String> specs(final int depth, final int width, final double selectivity,
+            final double wildcardDensity, final long seed) {
+        final List<String> specs = new ArrayList<>();
+        collectSpecs(new Random(seed), "records", depth, width, selectivity, wildcardDensity, specs);
+        return specs;
+    }
+
+    private static void collectSpecs(final Random random, final String prefix, final int depth, final int width,
+            final double selectivity, final double wildcardDensity, final List<String> specs) {
+        final boolean wildcard = random.nextDouble() < wildcardDensity;
+        final List<Integer> fields = new ArrayList<>(width);
+        for (int i = 0; i < width; i++) {
+            fields.add(i);
+        }
+        Collections.shuffle(fields, random);
+        final int selected = Math.max(1, (int) Math.round(selectivity * width));
+
+        for (int i = 0; i < selected; i++) {
+            final int field = fields.get(i);
+            final String path = prefix + "." + (wildcard ? Spec.WILDCARD : "f" + field);
+            if (depth > 0 && (field == 0 || field == 1)) {
+                collectSpecs(random, path, field == 0 ? depth - 1 : 0, width, selectivity, wildcardDensity, specs);
+            } else {
+                specs.add(path);
+            }
+            if (wildcard && depth > 0) {
+                // one wildcard covers all fields of the level; go down once more for the nested ones
+                collectSpecs(random, path, depth - 1, width, selectivity, wildcardDensity, specs);
+                break;
+            } else if (wildcard) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Random dotted paths over a small vocabulary, as they'd be received from clients.
+     */
+    static List<String> randomPaths(final int count, final int maxDepth, final double wildcardDensity,
+            final long seed) {
+        final Random random = new Random(seed);
+        final List<String> paths = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final StringBuilder b = new StringBuilder();
+            final int depth = 1 + random.nextInt(maxDepth);
+            for (int j = 0; j < depth; j++) {
+                if (j > 0) {
+                    b.append(Spec.SEPARATOR);
+                }
+                if (random.nextDouble() < wildcardDensity) {
+                    b.append(Spec.WILDCARD);
+                } else {
+                    b.append("field").append(random.nextInt(20));
+                }
+            }
+            paths.add(b.toString());
+        }
+        return paths;
+    }
+
+}
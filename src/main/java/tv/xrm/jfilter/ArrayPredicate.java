@@ -0,0 +1,496 @@
+package tv.xrm.jfilter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Selects array elements by their content, e.g. "status=='OPEN' && qty>1" (the text of "[?...]" in a spec).
+ * Comparisons are ==, !=, &lt;, &lt;=, &gt; and &gt;= between a field (a dotted path below the element, or "@" for the
+ * element itself) and a literal: a string in single quotes, a number, true, false or null. A field on its own checks
+ * that it exists. && binds more tightly than ||, and both stop at the first operand that decides the outcome.
+ * <p/>
+ * Compiled once: numbers are compared as primitives and strings as they are in the tree, without conversions. A
+ * comparison with a missing field, or one of a different type (except for !=), is false.
+ */
+final class ArrayPredicate extends ArraySelector {
+
+    private static final String SELF = "@";
+
+    private final Condition condition;
+
+    private ArrayPredicate(final Condition condition) {
+        this.condition = condition;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the text isn't a valid predicate
+     */
+    static ArrayPredicate parse(final String text) {
+        final Parser parser = new Parser(text);
+        final Condition condition = parser.or();
+        parser.skipSpace();
+        if (parser.position < text.length()) {
+            throw parser.error("unexpected input");
+        }
+        return new ArrayPredicate(condition);
+    }
+
+    @Override
+    boolean needsSize() {
+        return false;
+    }
+
+    @Override
+    boolean needsValue() {
+        return true;
+    }
+
+    @Override
+    int next(final int from, final int size) {
+        return size >= 0 && from >= size ? -1 : from;
+    }
+
+    @Override
+    boolean selects(final int index, final int size, final JsonNode element) {
+        return condition.test(element);
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        return o instanceof ArrayPredicate && toString().equals(o.toString());
+    }
+
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "[?" + condition + "]";
+    }
+
+    private abstract static class Condition {
+        abstract boolean test(JsonNode element);
+    }
+
+    private static final class Or extends Condition {
+        private final Condition[] operands;
+
+        private Or(final List<Condition> operands) {
+            this.operands = operands.toArray(new Condition[operands.size()]);
+        }
+
+        @Override
+        boolean test(final JsonNode element) {
+            for (final Condition operand : operands) {
+                if (operand.test(element)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            return join(operands, " || ");
+        }
+    }
+
+    private static final class And extends Condition {
+        private final Condition[] operands;
+
+        private And(final List<Condition> operands) {
+            this.operands = operands.toArray(new Condition[operands.size()]);
+        }
+
+        @Override
+        boolean test(final JsonNode element) {
+            for (final Condition operand : operands) {
+                if (!operand.test(element)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return join(operands, " && ");
+        }
+    }
+
+    private static String join(final Condition[] operands, final String separator) {
+        final StringBuilder b = new StringBuilder();
+        for (final Condition operand : operands) {
+            if (b.length() > 0) {
+                b.append(separator);
+            }
+            b.append(operand);
+        }
+        return b.toString();
+    }
+
+    /**
+     * Field below the element; no names means the element itself.
+     */
+    private static final class Field {
+        private final String[] names;
+
+        private Field(final List<String> names) {
+            this.names = names.toArray(new String[names.size()]);
+        }
+
+        /**
+         * @return null if missing
+         */
+        private JsonNode resolve(final JsonNode element) {
+            JsonNode value = element;
+            for (int i = 0; i < names.length && value != null; i++) {
+                value = value.isObject() ? value.get(names[i]) : null;
+            }
+            return value;
+        }
+
+        @Override
+        public String toString() {
+            if (names.length == 0) {
+                return SELF;
+            }
+            final StringBuilder b = new StringBuilder();
+            for (final String name : names) {
+                b.append(b.length() > 0 ? "." : "").append(name);
+            }
+            return b.toString();
+        }
+    }
+
+    private static final class Exists extends Condition {
+        private final Field field;
+
+        private Exists(final Field field) {
+            this.field = field;
+        }
+
+        @Override
+        boolean test(final JsonNode element) {
+            return field.resolve(element) != null;
+        }
+
+        @Override
+        public String toString() {
+            return field.toString();
+        }
+    }
+
+    private enum Operator {
+        EQ("=="), NE("!="), LE("<="), GE(">="), LT("<"), GT(">");
+
+        private final String symbol;
+
+        Operator(final String symbol) {
+            this.symbol = symbol;
+        }
+
+        /**
+         * @param comparison result of comparing the value with the literal
+         */
+        private boolean holds(final int comparison) {
+            switch (this) {
+            case EQ:
+                return comparison == 0;
+            case NE:
+                return comparison != 0;
+            case LT:
+                return comparison < 0;
+            case LE:
+                return comparison <= 0;
+            case GT:
+                return comparison > 0;
+            default:
+                return comparison >= 0;
+            }
+        }
+
+        private boolean isEquality() {
+            return this == EQ || this == NE;
+        }
+    }
+
+    private abstract static class Comparison extends Condition {
+        private final Field field;
+        final Operator operator;
+
+        private Comparison(final Field field, final Operator operator) {
+            this.field = field;
+            this.operator = operator;
+        }
+
+        @Override
+        final boolean test(final JsonNode element) {
+            final JsonNode value = field.resolve(element);
+            if (value == null) {
+                return false;
+            }
+            if (!applies(value)) {
+                // different types are unequal, and not ordered
+                return operator == Operator.NE;
+            }
+            return operator.holds(compare(value));
+        }
+
+        abstract boolean applies(JsonNode value);
+
+        abstract int compare(JsonNode value);
+
+        abstract String literal();
+
+        @Override
+        public final String toString() {
+            return field + operator.symbol + literal();
+        }
+    }
+
+    private static final class StringComparison extends Comparison {
+        private final String literal;
+
+        private StringComparison(final Field field, final Operator operator, final String literal) {
+            super(field, operator);
+            this.literal = literal;
+        }
+
+        @Override
+        boolean applies(final JsonNode value) {
+            return value.isTextual();
+        }
+
+        @Override
+        int compare(final JsonNode value) {
+            // the tree's own string, no conversion
+            return value.textValue().compareTo(literal);
+        }
+
+        @Override
+        String literal() {
+            return "'" + literal + "'";
+        }
+    }
+
+    private static final class NumberComparison extends Comparison {
+        private final double literal;
+        // integral literals are compared exactly with integral values
+        private final boolean integral;
+        private final long longLiteral;
+        private final String text;
+
+        private NumberComparison(final Field field, final Operator operator, final String text) {
+            super(field, operator);
+            this.text = text;
+            this.literal = Double.parseDouble(text);
+            long l = 0;
+            boolean isLong;
+            try {
+                l = Long.parseLong(text);
+                isLong = true;
+            } catch (NumberFormatException e) {
+                isLong = false;
+            }
+            this.integral = isLong;
+            this.longLiteral = l;
+        }
+
+        @Override
+        boolean applies(final JsonNode value) {
+            return value.isNumber();
+        }
+
+        @Override
+        int compare(final JsonNode value) {
+            if (integral && value.isIntegralNumber() && value.canConvertToLong()) {
+                final long l = value.longValue();
+                return l < longLiteral ? -1 : (l > longLiteral ? 1 : 0);
+            }
+            final double d = value.doubleValue();
+            return d < literal ? -1 : (d > literal ? 1 : 0);
+        }
+
+        @Override
+        String literal() {
+            return text;
+        }
+    }
+
+    private static final class BooleanComparison extends Comparison {
+        private final boolean literal;
+
+        private BooleanComparison(final Field field, final Operator operator, final boolean literal) {
+            super(field, operator);
+            this.literal = literal;
+        }
+
+        @Override
+        boolean applies(final JsonNode value) {
+            return value.isBoolean() && operator.isEquality();
+        }
+
+        @Override
+        int compare(final JsonNode value) {
+            return value.booleanValue() == literal ? 0 : 1;
+        }
+
+        @Override
+        String literal() {
+            return String.valueOf(literal);
+        }
+    }
+
+    private static final class NullComparison extends Comparison {
+        private NullComparison(final Field field, final Operator operator) {
+            super(field, operator);
+        }
+
+        @Override
+        boolean applies(final JsonNode value) {
+            return value.isNull() && operator.isEquality();
+        }
+
+        @Override
+        int compare(final JsonNode value) {
+            return 0;
+        }
+
+        @Override
+        String literal() {
+            return "null";
+        }
+    }
+
+    /**
+     * Recursive descent over the predicate text.
+     */
+    private static final class Parser {
+        private final String text;
+        private int position;
+
+        private Parser(final String text) {
+            this.text = text;
+            this.position = text.startsWith("?") ? 1 : 0;
+        }
+
+        private Condition or() {
+            final List<Condition> operands = new ArrayList<>(2);
+            operands.add(and());
+            while (accept("||")) {
+                operands.add(and());
+            }
+            return operands.size() == 1 ? operands.get(0) : new Or(operands);
+        }
+
+        private Condition and() {
+            final List<Condition> operands = new ArrayList<>(2);
+            operands.add(condition());
+            while (accept("&&")) {
+                operands.add(condition());
+            }
+            return operands.size() == 1 ? operands.get(0) : new And(operands);
+        }
+
+        private Condition condition() {
+            final Field field = field();
+            for (final Operator operator : Operator.values()) {
+                if (accept(operator.symbol)) {
+                    return comparison(field, operator);
+                }
+            }
+            return new Exists(field);
+        }
+
+        private Field field() {
+            skipSpace();
+            final List<String> names = new ArrayList<>(1);
+            if (text.startsWith(SELF, position)) {
+                position += SELF.length();
+                if (position >= text.length() || text.charAt(position) != '.') {
+                    return new Field(names);
+                }
+                position++;
+            }
+            do {
+                final int start = position;
+                while (position < text.length() && isNameChar(text.charAt(position))) {
+                    position++;
+                }
+                if (position == start) {
+                    throw error("field name expected");
+                }
+                names.add(text.substring(start, position));
+            } while (accept("."));
+            return new Field(names);
+        }
+
+        private Comparison comparison(final Field field, final Operator operator) {
+            skipSpace();
+            if (position >= text.length()) {
+                throw error("value expected");
+            }
+            if (text.charAt(position) == '\'') {
+                final int close = text.indexOf('\'', position + 1);
+                if (close < 0) {
+                    throw error("unclosed quote");
+                }
+                final String literal = text.substring(position + 1, close);
+                position = close + 1;
+                return new StringComparison(field, operator, literal);
+            }
+            final int start = position;
+            while (position < text.length() && isLiteralChar(text.charAt(position))) {
+                position++;
+            }
+            final String literal = text.substring(start, position);
+            switch (literal) {
+            case "true":
+            case "false":
+                return new BooleanComparison(field, operator, Boolean.parseBoolean(literal));
+            case "null":
+                return new NullComparison(field, operator);
+            default:
+                try {
+                    return new NumberComparison(field, operator, literal);
+                } catch (NumberFormatException e) {
+                    throw error("invalid value \"" + literal + "\"");
+                }
+            }
+        }
+
+        private boolean accept(final String symbol) {
+            skipSpace();
+            if (text.startsWith(symbol, position)) {
+                position += symbol.length();
+                return true;
+            }
+            return false;
+        }
+
+        private void skipSpace() {
+            while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+                position++;
+            }
+        }
+
+        private static boolean isNameChar(final char c) {
+            return Character.isLetterOrDigit(c) || c == '_' || c == '-' || c == '$';
+        }
+
+        private static boolean isLiteralChar(final char c) {
+            return Character.isLetterOrDigit(c) || c == '-' || c == '+' || c == '.';
+        }
+
+        private IllegalArgumentException error(final String problem) {
+            return new IllegalArgumentException("invalid array selector predicate: " + problem + " at position "
+                    + position + " in \"" + text + "\"");
+        }
+    }
+
+}
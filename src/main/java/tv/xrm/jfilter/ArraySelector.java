@@ -0,0 +1,157 @@
+package tv.xrm.jfilter;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Selects elements of an array value by position: a single index or a slice (start inclusive, end exclusive), where
+ * negative positions count from the end, as in "items[0:10]" or "history[-1]"; or by content, as in
+ * "orders[?status=='OPEN']". With a selector, a node applies to the selected elements of an array only, not to other
+ * kinds of values.
+ *
+ * @see tv.xrm.jfilter.Node#Node(String, ArraySelector, java.util.List)
+ */
+public abstract class ArraySelector {
+
+    ArraySelector() {
+    }
+
+    /**
+     * The element at the given position; -1 is the last one.
+     */
+    public static ArraySelector index(final int index) {
+        if (index == Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("index out of range: " + index);
+        }
+        return new Range(index, index == -1 ? null : Integer.valueOf(index + 1), true);
+    }
+
+    /**
+     * Elements from start (inclusive) to end (exclusive); null means from the beginning or to the end, respectively.
+     */
+    public static ArraySelector slice(final Integer start, final Integer end) {
+        return new Range(start == null ? 0 : start.intValue(), end, false);
+    }
+
+    /**
+     * Elements for which the given predicate holds, e.g. "status=='OPEN' && qty>1" or "discount" (it exists).
+     *
+     * @throws IllegalArgumentException if the predicate is invalid
+     * @see tv.xrm.jfilter.ArrayPredicate
+     */
+    public static ArraySelector where(final String predicate) {
+        return ArrayPredicate.parse(predicate);
+    }
+
+    /**
+     * Parse the text between the brackets of a selector: "3", "-1", "0:10", ":5", "2:" or a predicate after "?".
+     *
+     * @throws IllegalArgumentException if the text isn't a valid selector
+     */
+    static ArraySelector parse(final String text) {
+        if (text.startsWith("?")) {
+            return ArrayPredicate.parse(text);
+        }
+        try {
+            final int colon = text.indexOf(':');
+            if (colon < 0) {
+                return index(Integer.parseInt(text.trim()));
+            }
+            return slice(position(text.substring(0, colon)), position(text.substring(colon + 1)));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid array selector: [" + text + "]", e);
+        }
+    }
+
+    private static Integer position(final String text) {
+        final String trimmed = text.trim();
+        return trimmed.isEmpty() ? null : Integer.valueOf(trimmed);
+    }
+
+    /**
+     * @return true if positions can only be resolved knowing the size of the array
+     */
+    abstract boolean needsSize();
+
+    /**
+     * @return true if elements can only be selected by looking at them
+     */
+    boolean needsValue() {
+        return false;
+    }
+
+    /**
+     * @param size size of the array, or -1 if unknown (only allowed if !needsSize())
+     * @return the first position from the given one on that may be selected, or -1
+     */
+    abstract int next(int from, int size);
+
+    /**
+     * @param size size of the array, or -1 if unknown (only allowed if !needsSize())
+     * @param element the element, or null if not at hand (only allowed if !needsValue())
+     */
+    abstract boolean selects(int index, int size, JsonNode element);
+
+    /**
+     * Position range. Negative positions are relative to the end; resolved positions are clamped to the array.
+     */
+    private static final class Range extends ArraySelector {
+        private final int start;
+        // null: to the end
+        private final Integer end;
+        private final boolean index;
+
+        private Range(final int start, final Integer end, final boolean index) {
+            this.start = start;
+            this.end = end;
+            this.index = index;
+        }
+
+        @Override
+        boolean needsSize() {
+            return start < 0 || (end != null && end.intValue() < 0);
+        }
+
+        @Override
+        int next(final int from, final int size) {
+            final int first = Math.max(from, resolve(start, size));
+            final int last = end == null ? size : resolve(end.intValue(), size);
+            if (last >= 0 && first >= last) {
+                return -1;
+            }
+            return size >= 0 && first >= size ? -1 : first;
+        }
+
+        @Override
+        boolean selects(final int index, final int size, final JsonNode element) {
+            return next(index, size) == index;
+        }
+
+        private static int resolve(final int position, final int size) {
+            return position >= 0 ? position : Math.max(0, size + position);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof Range)) {
+                return false;
+            }
+            final Range other = (Range) o;
+            return start == other.start && (end == null ? other.end == null : end.equals(other.end))
+                    && index == other.index;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * start + (end == null ? -1 : end.intValue()) + (index ? 7 : 0);
+        }
+
+        @Override
+        public String toString() {
+            if (index) {
+                return "[" + start + "]";
+            }
+            return "[" + (start == 0 ? "" : String.valueOf(start)) + ":" + (end == null ? "" : end.toString()) + "]";
+        }
+    }
+
+}
@@ -0,0 +1,346 @@
+package tv.xrm.jfilter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+import tv.xrm.jfilter.CompiledFilter.ElementSelection;
+import tv.xrm.jfilter.CompiledFilter.Match;
+
+/**
+ * Push-style counterpart of FilteredStreamCopier, for input that arrives in chunks (e.g. on an event loop): bytes are
+ * fed to Jackson's non-blocking parser, and the selected branches are written to a generator as soon as their tokens
+ * are complete; the generator is flushed after each chunk. Nothing blocks, and no input is held beyond partial tokens,
+ * so memory use per stream is constant for a given nesting depth. As with FilteredStreamCopier, the exceptions are
+ * arrays with selectors counting from the end, elements tested by predicates and fields with transforms, which are
+ * buffered one at a time.
+ * <p/>
+ * Not thread-safe: chunks of one stream must be fed one after the other.
+ *
+ * <pre>
+ * AsyncStreamCopier copier = new AsyncStreamCopier(filter, out);
+ * copier.feed(chunk, 0, chunk.length); // for each chunk
+ * copier.endOfInput();
+ * </pre>
+ *
+ * @see tv.xrm.jfilter.FilteredStreamCopier
+ */
+public final class AsyncStreamCopier implements Closeable {
+
+    // only for buffered arrays and elements
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    // direct buffers are fed through an array of at most this size
+    private static final int COPY_SIZE = 8192;
+
+    private final Match rootMatch;
+    private final JsonParser parser;
+    private final ByteArrayFeeder feeder;
+    private final JsonGenerator generator;
+    // false: the generator is the caller's
+    private final boolean ownGenerator;
+
+    private final Deque<Match> stack = new ArrayDeque<>();
+    // position of the next element, per array level with selectors
+    private int[] positions = new int[8];
+
+    // match for the value following a field name; null if the value is skipped
+    private Match fieldMatch;
+    private boolean afterFieldName;
+
+    // levels left of a value being skipped or copied fully
+    private int skipDepth;
+    private int copyDepth;
+
+    // value read into memory before it can be filtered
+    private TokenBuffer buffer;
+    private int bufferDepth;
+    private Match bufferMatch;
+    // position of a buffered element, or -1 for a buffered array or field
+    private int bufferPosition;
+    // name of a buffered field; null if it's not a field
+    private String bufferName;
+
+    private byte[] copy;
+    private long values;
+
+    /**
+     * Write filtered values to the given generator, which isn't closed by close().
+     */
+    public AsyncStreamCopier(final CompiledFilter filter, final JsonGenerator generator) throws IOException {
+        this(filter, generator, false);
+    }
+
+    /**
+     * Write filtered values to the given stream as UTF-8 JSON; the stream is flushed after each chunk, but not closed.
+     */
+    public AsyncStreamCopier(final CompiledFilter filter, final OutputStream out) throws IOException {
+        this(filter, FilteredTreeWriter.FACTORY.createGenerator(out), true);
+    }
+
+    private AsyncStreamCopier(final CompiledFilter filter, final JsonGenerator generator, final boolean ownGenerator)
+            throws IOException {
+        this.rootMatch = filter.rootMatch();
+        this.parser = FilteredTreeWriter.FACTORY.createNonBlockingByteArrayParser();
+        this.feeder = (ByteArrayFeeder) parser.getNonBlockingInputFeeder();
+        this.generator = generator;
+        this.ownGenerator = ownGenerator;
+    }
+
+    /**
+     * Filter the next chunk of input. The array isn't referenced afterwards, so it may be reused for the next chunk.
+     */
+    public void feed(final byte[] data, final int offset, final int length) throws IOException {
+        feeder.feedInput(data, offset, offset + length);
+        drain();
+        generator.flush();
+    }
+
+    /**
+     * Filter the remaining bytes of the buffer as the next chunk of input; the buffer's position is moved to its limit.
+     */
+    public void feed(final ByteBuffer data) throws IOException {
+        if (data.hasArray()) {
+            feeder.feedInput(data.array(), data.arrayOffset() + data.position(), data.arrayOffset() + data.limit());
+            data.position(data.limit());
+            drain();
+        } else {
+            if (copy == null) {
+                copy = new byte[COPY_SIZE];
+            }
+            while (data.hasRemaining()) {
+                final int n = Math.min(copy.length, data.remaining());
+                data.get(copy, 0, n);
+                feeder.feedInput(copy, 0, n);
+                drain();
+            }
+        }
+        generator.flush();
+    }
+
+    /**
+     * Signal that there's no more input, and complete the output.
+     *
+     * @throws JsonParseException if the input ends within a value
+     */
+    public void endOfInput() throws IOException {
+        feeder.endOfInput();
+        drain();
+        if (!stack.isEmpty() || skipDepth > 0 || copyDepth > 0 || buffer != null || afterFieldName) {
+            throw new JsonParseException(parser, "Unexpected end-of-input while filtering");
+        }
+        generator.flush();
+    }
+
+    /**
+     * @return number of root-level values written so far
+     */
+    public long getValueCount() {
+        return values;
+    }
+
+    /**
+     * Release the parser (and the generator, if writing to a stream).
+     */
+    @Override
+    public void close() throws IOException {
+        parser.close();
+        if (ownGenerator) {
+            generator.close();
+        }
+    }
+
+    private void drain() throws IOException {
+        JsonToken token;
+        while ((token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+            if (skipDepth > 0) {
+                skipDepth += depthChange(token);
+            } else if (copyDepth > 0) {
+                generator.copyCurrentEvent(parser);
+                copyDepth += depthChange(token);
+                if (copyDepth == 0) {
+                    valueDone();
+                }
+            } else if (buffer != null) {
+                buffer.copyCurrentEvent(parser);
+                bufferDepth += depthChange(token);
+                if (bufferDepth == 0) {
+                    writeBuffered();
+                }
+            } else {
+                filter(token);
+            }
+        }
+    }
+
+    private void filter(final JsonToken token) throws IOException {
+        switch (token) {
+        case END_OBJECT:
+            generator.writeEndObject();
+            stack.pop();
+            valueDone();
+            break;
+        case END_ARRAY:
+            generator.writeEndArray();
+            positions[stack.size() - 1] = 0;
+            stack.pop();
+            valueDone();
+            break;
+        case FIELD_NAME:
+            fieldMatch = stack.peek().getFilter().match(parser.getCurrentName());
+            afterFieldName = true;
+            break;
+        default:
+            if (afterFieldName) {
+                afterFieldName = false;
+                filterField(token);
+            } else if (stack.isEmpty()) {
+                // the root value is treated like a child of a wildcard, just as in FilteredTreeCopier
+                if (token.isStructStart()) {
+                    startContainer(token, rootMatch);
+                } else {
+                    generator.copyCurrentEvent(parser);
+                    values++;
+                }
+            } else {
+                filterElement(token);
+            }
+            break;
+        }
+    }
+
+    private void filterField(final JsonToken token) throws IOException {
+        final Match match = fieldMatch;
+        if (match == null) {
+            skip(token);
+        } else if (match.getTransform() != null) {
+            // transforms work on trees
+            bufferName = parser.getCurrentName();
+            startBuffer(token, match, -1);
+        } else if (token.isStructStart()) {
+            generator.writeFieldName(parser.getCurrentName());
+            startContainer(token, match);
+        } else if (match.keepsScalar()) {
+            generator.writeFieldName(parser.getCurrentName());
+            generator.copyCurrentEvent(parser);
+        }
+    }
+
+    private void filterElement(final JsonToken token) throws IOException {
+        final Match match = stack.peek();
+        final ElementSelection selection = match.getSelection();
+        if (selection == null) {
+            copyElement(token, match);
+            return;
+        }
+        final int position = positions[stack.size() - 1]++;
+        if (selection.needsValue()) {
+            startBuffer(token, match, position);
+        } else if (selection.next(position, -1) == position) {
+            final Match elementMatch = selection.match(position, -1, null);
+            if (elementMatch == null) {
+                skip(token);
+            } else {
+                copyElement(token, elementMatch);
+            }
+        } else {
+            skip(token);
+        }
+    }
+
+    private void copyElement(final JsonToken token, final Match match) throws IOException {
+        if (token.isStructStart()) {
+            startContainer(token, match);
+        } else if (token != JsonToken.VALUE_NULL && match.keepsElementScalars()) {
+            generator.copyCurrentEvent(parser);
+        }
+    }
+
+    private void startContainer(final JsonToken token, final Match match) throws IOException {
+        if (token == JsonToken.START_OBJECT) {
+            if (match.getFilter().copiesAll()) {
+                // no further names - copy fully
+                generator.copyCurrentEvent(parser);
+                copyDepth = 1;
+                return;
+            }
+            generator.writeStartObject();
+        } else {
+            if (match.getSelection() != null && match.getSelection().needsSize()) {
+                // positions relative to the end: the array has to be read before anything is selected
+                startBuffer(token, match, -1);
+                return;
+            }
+            generator.writeStartArray();
+        }
+        stack.push(match);
+        if (stack.size() > positions.length) {
+            positions = Arrays.copyOf(positions, positions.length * 2);
+        }
+    }
+
+    private void skip(final JsonToken token) {
+        if (token.isStructStart()) {
+            skipDepth = 1;
+        }
+    }
+
+    private void startBuffer(final JsonToken token, final Match match, final int position) throws IOException {
+        buffer = new TokenBuffer(MAPPER, false);
+        buffer.copyCurrentEvent(parser);
+        bufferMatch = match;
+        bufferPosition = position;
+        bufferDepth = depthChange(token);
+        if (bufferDepth == 0) {
+            writeBuffered();
+        }
+    }
+
+    private void writeBuffered() throws IOException {
+        final JsonNode value;
+        try (JsonParser bufferParser = buffer.asParser()) {
+            value = MAPPER.<JsonNode> readTree(bufferParser);
+        }
+        buffer = null;
+        if (bufferName != null) {
+            FilteredTreeWriter.writeField(bufferName, value, bufferMatch, generator, null);
+            bufferName = null;
+        } else if (bufferPosition < 0) {
+            FilteredTreeWriter.write(value, bufferMatch, false, generator, null);
+            valueDone();
+        } else if (value != null && !value.isNull()) {
+            final Match elementMatch = bufferMatch.getSelection().match(bufferPosition, -1, value);
+            if (elementMatch != null) {
+                FilteredTreeWriter.write(value, elementMatch, true, generator, null);
+            }
+        }
+        bufferMatch = null;
+    }
+
+    private void valueDone() {
+        if (stack.isEmpty()) {
+            values++;
+        }
+    }
+
+    private static int depthChange(final JsonToken token) {
+        if (token.isStructStart()) {
+            return 1;
+        }
+        return token.isStructEnd() ? -1 : 0;
+    }
+
+}
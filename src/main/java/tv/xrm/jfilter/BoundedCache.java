@@ -0,0 +1,115 @@
+package tv.xrm.jfilter;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Small thread-safe LRU map, bounded by a maximum number of entries or by a maximum total weight of the values.
+ * Eviction is counted, lookups aren't; callers keep their own statistics where needed.
+ */
+final class BoundedCache<K, V> {
+
+    /**
+     * Weight of a value, e.g. its estimated memory use; must not change while the value is cached.
+     */
+    interface Weigher<V> {
+        long weigh(V value);
+    }
+
+    private final int maximumSize;
+
+    private final long maximumWeight;
+
+    // null: entries are counted
+    private final Weigher<V> weigher;
+
+    private final LinkedHashMap<K, Weighted<V>> map = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long weight;
+
+    private long evictions;
+
+    BoundedCache(final int maximumSize) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("maximumSize must be positive");
+        }
+        this.maximumSize = maximumSize;
+        this.maximumWeight = Long.MAX_VALUE;
+        this.weigher = null;
+    }
+
+    BoundedCache(final long maximumWeight, final Weigher<V> weigher) {
+        if (maximumWeight < 1) {
+            throw new IllegalArgumentException("maximumWeight must be positive");
+        }
+        this.maximumSize = Integer.MAX_VALUE;
+        this.maximumWeight = maximumWeight;
+        this.weigher = weigher;
+    }
+
+    synchronized V get(final K key) {
+        final Weighted<V> entry = map.get(key);
+        return entry == null ? null : entry.value;
+    }
+
+    /**
+     * A value heavier than the maximum weight isn't kept at all.
+     *
+     * @return the value already present for the key, if any (which is then kept), otherwise the given value
+     */
+    V putIfAbsent(final K key, final V value) {
+        // weighed outside the lock
+        final long valueWeight = weigher == null ? 1 : weigher.weigh(value);
+        synchronized (this) {
+            final Weighted<V> existing = map.get(key);
+            if (existing != null) {
+                return existing.value;
+            }
+            if (valueWeight > maximumWeight) {
+                return value;
+            }
+            map.put(key, new Weighted<>(value, valueWeight));
+            weight += valueWeight;
+            evict();
+            return value;
+        }
+    }
+
+    private void evict() {
+        final Iterator<Weighted<V>> eldest = map.values().iterator();
+        while (map.size() > maximumSize || weight > maximumWeight) {
+            weight -= eldest.next().weight;
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    synchronized int size() {
+        return map.size();
+    }
+
+    synchronized long weight() {
+        return weight;
+    }
+
+    synchronized long evictionCount() {
+        return evictions;
+    }
+
+    synchronized void clear() {
+        map.clear();
+        weight = 0;
+    }
+
+    private static final class Weighted<V> {
+        private final V value;
+        private final long weight;
+
+        private Weighted(final V value, final long weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+}
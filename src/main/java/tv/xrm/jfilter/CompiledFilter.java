@@ -0,0 +1,600 @@
+package tv.xrm.jfilter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Immutable, pre-processed form of a sub-tree specification. Wildcards and named children are classified up front and
+ * field names are looked up by hash, so applying the filter doesn't involve walking node lists. Instances are
+ * thread-safe and meant to be created once and reused.
+ * <p/>
+ * A specification with recursive wildcards is compiled into a deterministic automaton instead (see FilterAutomaton):
+ * each state is a CompiledFilter, and states may lead back to each other.
+ * <p/>
+ * Nodes with array selectors are compiled into an ElementSelection of the field's Match: which selectors apply to an
+ * element determines how it's treated, and positions that no selector picks are never visited if nothing else applies
+ * to the array.
+ * <p/>
+ * A field's transform, if any, is part of its Match: that of the last candidate node with one.
+ *
+ * @see tv.xrm.jfilter.Spec#compile()
+ * @see tv.xrm.jfilter.FilteredTreeCopier
+ */
+public final class CompiledFilter {
+
+    private static final String[] NO_NAMES = new String[0];
+
+    private static final Match[] NO_MATCHES = new Match[0];
+
+    static final CompiledFilter COPY_ALL = new CompiledFilter(NO_NAMES, NO_MATCHES, null, NO_NAMES);
+
+    // what's selected below a value that only has array selectors applied to it, if it's not an array
+    static final CompiledFilter NOTHING = new CompiledFilter(NO_NAMES, NO_MATCHES, null, NO_NAMES);
+
+    // array selectors applying to the same field; as each combination has its own outcome, there can't be too many
+    static final int MAX_SELECTORS = 8;
+
+    // what a level with nothing but excluding nodes selects
+    private static final Node EVERYTHING = new Node(FilteredTreeCopier.WILDCARD);
+
+    // marks excluded names in matchesByName, so that the wildcard doesn't apply to them
+    private static final Match EXCLUDED = new Match(null, false, false);
+
+    private final String[] names;
+    private final Match[] namedMatches;
+    private final Map<String, Match> matchesByName;
+    private final Match wildcardMatch;
+    private final String[] excludedNames;
+    private final Match rootMatch;
+    private final boolean transforms;
+
+    CompiledFilter(final String[] names, final Match[] namedMatches, final Match wildcardMatch,
+            final String[] excludedNames) {
+        this(names, namedMatches, wildcardMatch, excludedNames, transforms(namedMatches, wildcardMatch));
+    }
+
+    /**
+     * @param transforms whether a transform applies anywhere below; automaton states know it only as a whole
+     */
+    CompiledFilter(final String[] names, final Match[] namedMatches, final Match wildcardMatch,
+            final String[] excludedNames, final boolean transforms) {
+        this.names = names;
+        this.transforms = transforms;
+        this.namedMatches = namedMatches;
+        this.wildcardMatch = wildcardMatch;
+        this.excludedNames = excludedNames;
+
+        final Map<String, Match> byName = new HashMap<>((names.length + excludedNames.length) * 2);
+        for (int i = 0; i < names.length; i++) {
+            byName.put(names[i], namedMatches[i]);
+        }
+        for (final String name : excludedNames) {
+            byName.put(name, EXCLUDED);
+        }
+        this.matchesByName = byName;
+
+        // the root value is treated like a child of a wildcard
+        this.rootMatch = new Match(this, true, true);
+    }
+
+    /**
+     * Compile a hierarchical specification: a tree of field names. The nodes are not referenced afterwards.
+     */
+    public static CompiledFilter compile(final List<Node> nameNodes) {
+        if (FilterAutomaton.isRecursive(nameNodes)) {
+            return FilterAutomaton.compile(nameNodes);
+        }
+        return compile(nameNodes, new IdentityHashMap<Node, CompiledFilter>());
+    }
+
+    private static CompiledFilter compile(final List<Node> nNodes, final Map<Node, CompiledFilter> compiled) {
+        if (nNodes.isEmpty()) {
+            return COPY_ALL;
+        }
+
+        final Map<String, List<Node>> candidatesByName = new LinkedHashMap<>();
+        final List<Node> wildcards = new ArrayList<>();
+        final Map<String, List<Node>> exclusionsByName = new HashMap<>();
+        final List<Node> wildcardExclusions = new ArrayList<>();
+        for (final Node node : nNodes) {
+            final String name = node.getName();
+            if (node.isExcluded()) {
+                if (isWildcard(name)) {
+                    wildcardExclusions.add(node);
+                } else {
+                    candidates(exclusionsByName, name, Collections.<Node> emptyList()).add(node);
+                }
+            } else if (isWildcard(name)) {
+                wildcards.add(node);
+                // a wildcard is a candidate for every name seen so far, too
+                for (List<Node> candidates : candidatesByName.values()) {
+                    candidates.add(node);
+                }
+            } else {
+                // wildcards seen before this name apply to it as well
+                candidates(candidatesByName, name, wildcards).add(node);
+            }
+        }
+
+        if (candidatesByName.isEmpty() && wildcards.isEmpty()) {
+            // nothing but exclusions
+            wildcards.add(EVERYTHING);
+        }
+        if (!wildcards.isEmpty()) {
+            // names that are only excluded in parts are otherwise selected by the wildcard
+            for (final String name : exclusionsByName.keySet()) {
+                candidates(candidatesByName, name, wildcards);
+            }
+        }
+
+        final List<String> names = new ArrayList<>(candidatesByName.size());
+        final List<Match> namedMatches = new ArrayList<>(candidatesByName.size());
+        final List<String> excludedNames = new ArrayList<>();
+        for (final Map.Entry<String, List<Node>> candidates : candidatesByName.entrySet()) {
+            final Match match = match(candidates.getValue(),
+                    exclusions(exclusionsByName.get(candidates.getKey()), wildcardExclusions), compiled);
+            if (match == null) {
+                excludedNames.add(candidates.getKey());
+            } else {
+                names.add(candidates.getKey());
+                namedMatches.add(match);
+            }
+        }
+        final Match wildcardMatch = wildcards.isEmpty() ? null : match(wildcards, wildcardExclusions, compiled);
+
+        return new CompiledFilter(names.toArray(new String[names.size()]),
+                namedMatches.toArray(new Match[namedMatches.size()]), wildcardMatch,
+                excludedNames.toArray(new String[excludedNames.size()]));
+    }
+
+    private static boolean transforms(final Match[] namedMatches, final Match wildcardMatch) {
+        for (final Match match : namedMatches) {
+            if (match.transforms()) {
+                return true;
+            }
+        }
+        return wildcardMatch != null && wildcardMatch.transforms();
+    }
+
+    private static List<Node> candidates(final Map<String, List<Node>> candidatesByName, final String name,
+            final List<Node> initial) {
+        List<Node> candidates = candidatesByName.get(name);
+        if (candidates == null) {
+            candidates = new ArrayList<>(initial);
+            candidatesByName.put(name, candidates);
+        }
+        return candidates;
+    }
+
+    private static List<Node> exclusions(final List<Node> byName, final List<Node> byWildcard) {
+        if (byName == null) {
+            return byWildcard;
+        }
+        final List<Node> exclusions = new ArrayList<>(byName);
+        exclusions.addAll(byWildcard);
+        return exclusions;
+    }
+
+    /**
+     * @return null if excluded
+     */
+    private static Match match(final List<Node> candidates, final List<Node> exclusions,
+            final Map<Node, CompiledFilter> compiled) {
+        for (final Node exclusion : exclusions) {
+            if (exclusion.getChildren().isEmpty()) {
+                return null;
+            }
+        }
+
+        // same resolution as the original node list walk: the last candidate determines what's below a container,
+        // while a scalar is kept if any candidate would have kept it; a transform isn't lost to a later candidate
+        boolean keepScalar = false;
+        Node last = null;
+        FieldTransform transform = null;
+        final List<Node> selecting = new ArrayList<>();
+        for (final Node candidate : candidates) {
+            if (candidate.getSelector() != null) {
+                selecting.add(candidate);
+            } else {
+                keepScalar |= isWildcard(candidate.getName()) || candidate.getChildren().isEmpty();
+                last = candidate;
+                if (candidate.getTransform() != null) {
+                    transform = candidate.getTransform();
+                }
+            }
+        }
+
+        final Match whole = last == null ? null
+                : new Match(filter(last, exclusions, compiled), isWildcard(last.getName()), keepScalar, null,
+                        transform);
+        if (selecting.isEmpty()) {
+            return whole;
+        }
+
+        // elements: the last candidate that applies to them, as above
+        final ArraySelector[] selectors = new ArraySelector[selecting.size()];
+        for (int i = 0; i < selectors.length; i++) {
+            selectors[i] = selecting.get(i).getSelector();
+        }
+        final Match[] elementMatches = new Match[ElementSelection.combinations(selectors.length)];
+        for (int mask = 0; mask < elementMatches.length; mask++) {
+            Node applying = null;
+            for (final Node candidate : candidates) {
+                final int s = selecting.indexOf(candidate);
+                if (s < 0 || (mask & (1 << s)) != 0) {
+                    applying = candidate;
+                }
+            }
+            if (applying == last) {
+                elementMatches[mask] = whole;
+            } else if (applying != null) {
+                elementMatches[mask] = new Match(filter(applying, exclusions, compiled),
+                        isWildcard(applying.getName()), false);
+            }
+        }
+        final Node named = last != null ? last : selecting.get(selecting.size() - 1);
+        return new Match(whole != null ? whole.getFilter() : NOTHING, isWildcard(named.getName()), keepScalar,
+                new ElementSelection(selectors, elementMatches), transform);
+    }
+
+    private static CompiledFilter filter(final Node node, final List<Node> exclusions,
+            final Map<Node, CompiledFilter> compiled) {
+        if (exclusions.isEmpty()) {
+            CompiledFilter filter = compiled.get(node);
+            if (filter == null) {
+                filter = compile(node.getChildren(), compiled);
+                compiled.put(node, filter);
+            }
+            return filter;
+        }
+        // exclusions further down are applied to whatever the node selects below
+        final List<Node> below = new ArrayList<>(node.getChildren());
+        for (final Node exclusion : exclusions) {
+            below.addAll(exclusion.getChildren());
+        }
+        return compile(below, compiled);
+    }
+
+    private static boolean isWildcard(final String name) {
+        return name.equals(FilteredTreeCopier.WILDCARD);
+    }
+
+    /**
+     * @return true if there are no further names, i.e. everything below is selected
+     */
+    boolean copiesAll() {
+        return this == COPY_ALL;
+    }
+
+    boolean hasWildcard() {
+        return wildcardMatch != null;
+    }
+
+    /**
+     * @return true if fields are transformed somewhere in or below this filter
+     */
+    boolean hasTransforms() {
+        return transforms;
+    }
+
+    /**
+     * @throws UnsupportedOperationException if the filter has transforms
+     */
+    void checkNoTransforms(final String operation) {
+        if (transforms) {
+            throw new UnsupportedOperationException("field transforms aren't supported by " + operation);
+        }
+    }
+
+    /**
+     * @throws UnsupportedOperationException if array selectors apply somewhere in or below the filter
+     */
+    void checkNoSelections(final String operation) {
+        if (hasSelections(Collections.newSetFromMap(new IdentityHashMap<CompiledFilter, Boolean>()))) {
+            throw new UnsupportedOperationException("array selectors aren't supported by " + operation);
+        }
+    }
+
+    private boolean hasSelections(final Set<CompiledFilter> visited) {
+        // automaton states may lead back to each other
+        if (!visited.add(this)) {
+            return false;
+        }
+        for (final Match match : namedMatches) {
+            if (match.hasSelections(visited)) {
+                return true;
+            }
+        }
+        return wildcardMatch != null && wildcardMatch.hasSelections(visited);
+    }
+
+    /**
+     * Names of specifically selected fields, in specification order. Not to be modified.
+     */
+    String[] names() {
+        return names;
+    }
+
+    /**
+     * Names of fields excluded from the wildcard. Not to be modified.
+     */
+    String[] excludedNames() {
+        return excludedNames;
+    }
+
+    Match namedMatch(final int index) {
+        return namedMatches[index];
+    }
+
+    /**
+     * @return how to proceed with a field of the given name, or null if the field isn't selected
+     */
+    Match match(final String name) {
+        final Match match = matchesByName.get(name);
+        if (match == null) {
+            return wildcardMatch;
+        }
+        return match == EXCLUDED ? null : match;
+    }
+
+    Match rootMatch() {
+        return rootMatch;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder b = new StringBuilder();
+        append(b, Collections.newSetFromMap(new IdentityHashMap<CompiledFilter, Boolean>()));
+        return b.toString();
+    }
+
+    private void append(final StringBuilder b, final Set<CompiledFilter> enclosing) {
+        if (!enclosing.add(this)) {
+            // automaton state leading back to an enclosing one
+            b.append("(...)");
+            return;
+        }
+        final int start = b.length();
+        b.append('(');
+        for (int i = 0; i < names.length; i++) {
+            if (i > 0) {
+                b.append(' ');
+            }
+            b.append('\'').append(names[i]).append('\'');
+            namedMatches[i].append(b, enclosing);
+        }
+        for (final String name : excludedNames) {
+            b.append(b.length() > start + 1 ? " " : "").append("!'").append(name).append('\'');
+        }
+        if (wildcardMatch != null) {
+            b.append(b.length() > start + 1 ? " " : "").append(Spec.WILDCARD);
+            wildcardMatch.append(b, enclosing);
+        }
+        b.append(')');
+        enclosing.remove(this);
+    }
+
+    /**
+     * Outcome of selecting a value: the filter for what's below it and how scalars are treated, and, if array selectors
+     * apply, how the elements of an array are selected.
+     */
+    static final class Match {
+        private final CompiledFilter filter;
+        // automaton transitions refer to states by index, so that states can lead back to each other
+        private final CompiledFilter[] states;
+        private final int state;
+        private final boolean wildcard;
+        private final boolean keepScalar;
+        // null: each element of an array is treated like the array
+        private final ElementSelection selection;
+        // null: the field is copied as it is
+        private final FieldTransform transform;
+
+        Match(final CompiledFilter filter, final boolean wildcard, final boolean keepScalar) {
+            this(filter, null, -1, wildcard, keepScalar, null, null);
+        }
+
+        Match(final CompiledFilter filter, final boolean wildcard, final boolean keepScalar,
+                final ElementSelection selection) {
+            this(filter, null, -1, wildcard, keepScalar, selection, null);
+        }
+
+        Match(final CompiledFilter filter, final boolean wildcard, final boolean keepScalar,
+                final ElementSelection selection, final FieldTransform transform) {
+            this(filter, null, -1, wildcard, keepScalar, selection, transform);
+        }
+
+        Match(final CompiledFilter[] states, final int state, final boolean wildcard, final boolean keepScalar,
+                final ElementSelection selection, final FieldTransform transform) {
+            this(null, states, state, wildcard, keepScalar, selection, transform);
+        }
+
+        private Match(final CompiledFilter filter, final CompiledFilter[] states, final int state,
+                final boolean wildcard, final boolean keepScalar, final ElementSelection selection,
+                final FieldTransform transform) {
+            this.filter = filter;
+            this.states = states;
+            this.state = state;
+            this.wildcard = wildcard;
+            this.keepScalar = keepScalar;
+            this.selection = selection;
+            this.transform = transform;
+        }
+
+        CompiledFilter getFilter() {
+            return filter != null ? filter : states[state];
+        }
+
+        /**
+         * @return how elements of an array are selected, or null if they're all treated like the array itself
+         */
+        ElementSelection getSelection() {
+            return selection;
+        }
+
+        /**
+         * @return true if selected by wildcard rather than by name
+         */
+        boolean isWildcard() {
+            return wildcard;
+        }
+
+        /**
+         * @return the transform of a field selected with this match, or null
+         */
+        FieldTransform getTransform() {
+            return transform;
+        }
+
+        /**
+         * @return true if this match or any below it (not counting automaton states) transforms fields
+         */
+        private boolean transforms() {
+            if (transform != null || (filter != null && filter.transforms)) {
+                return true;
+            }
+            if (selection != null) {
+                for (final Match element : selection.matches) {
+                    if (element != null && element.transforms()) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        private boolean hasSelections(final Set<CompiledFilter> visited) {
+            return selection != null || getFilter().hasSelections(visited);
+        }
+
+        /**
+         * @return true if a scalar selected directly (as a field value) is kept
+         */
+        boolean keepsScalar() {
+            return keepScalar;
+        }
+
+        /**
+         * @return true if scalar elements of a selected array are kept
+         */
+        boolean keepsElementScalars() {
+            return wildcard || getFilter().copiesAll();
+        }
+
+        private void append(final StringBuilder b, final Set<CompiledFilter> enclosing) {
+            if (transform != null) {
+                b.append("->").append(transform);
+            }
+            getFilter().append(b, enclosing);
+            if (selection != null) {
+                for (int i = 0; i < selection.selectors.length; i++) {
+                    final Match selected = selection.matches[1 << i];
+                    b.append(selection.selectors[i]);
+                    if (selected == null) {
+                        b.append("()");
+                    } else {
+                        selected.getFilter().append(b, enclosing);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder b = new StringBuilder();
+            append(b, Collections.newSetFromMap(new IdentityHashMap<CompiledFilter, Boolean>()));
+            return b.toString();
+        }
+    }
+
+    /**
+     * Selection of array elements by a few selectors: each combination of selectors that pick an element has its own
+     * outcome, so an element is matched by evaluating the selectors once. Elements rejected by all selectors are
+     * dropped before anything is done with them (unless something applies to the whole array).
+     */
+    static final class ElementSelection {
+        private final ArraySelector[] selectors;
+        // by bit mask of the selectors picking an element; null: element dropped
+        private final Match[] matches;
+        private final boolean needsSize;
+        private final boolean needsValue;
+
+        ElementSelection(final ArraySelector[] selectors, final Match[] matches) {
+            this.selectors = selectors;
+            this.matches = matches;
+            boolean sized = false;
+            boolean valued = false;
+            for (final ArraySelector selector : selectors) {
+                sized |= selector.needsSize();
+                valued |= selector.needsValue();
+            }
+            this.needsSize = sized;
+            this.needsValue = valued;
+        }
+
+        static int combinations(final int selectors) {
+            if (selectors > MAX_SELECTORS) {
+                throw new IllegalArgumentException("more than " + MAX_SELECTORS
+                        + " array selectors for the same field");
+            }
+            return 1 << selectors;
+        }
+
+        /**
+         * @return true if elements can only be selected knowing the size of the array
+         */
+        boolean needsSize() {
+            return needsSize;
+        }
+
+        /**
+         * @return true if elements can only be selected by looking at them
+         */
+        boolean needsValue() {
+            return needsValue;
+        }
+
+        /**
+         * @param size size of the array, or -1 if unknown (only allowed if !needsSize())
+         * @return the first position from the given one on that may be selected, or -1 if there's none
+         */
+        int next(final int from, final int size) {
+            if (matches[0] != null) {
+                // elements no selector picks are selected, too
+                return size < 0 || from < size ? from : -1;
+            }
+            int next = -1;
+            for (final ArraySelector selector : selectors) {
+                final int candidate = selector.next(from, size);
+                if (candidate >= 0 && (next < 0 || candidate < next)) {
+                    next = candidate;
+                }
+            }
+            return next;
+        }
+
+        /**
+         * @param size size of the array, or -1 if unknown (only allowed if !needsSize())
+         * @param element the element, or null if not at hand (only allowed if !needsValue())
+         * @return how to proceed with the element at the given position, or null if it isn't selected
+         */
+        Match match(final int index, final int size, final JsonNode element) {
+            int mask = 0;
+            for (int i = 0; i < selectors.length; i++) {
+                if (selectors[i].selects(index, size, element)) {
+                    mask |= 1 << i;
+                }
+            }
+            return matches[mask];
+        }
+    }
+
+}
@@ -0,0 +1,54 @@
+package tv.xrm.jfilter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Several compiled filters applied together, e.g. one per subscriber to a stream of events: copyTrees() makes a copy
+ * per filter in one walk of the tree. Which filters want a field is worked out once per field name and position in
+ * the specifications, not per node, and remembered here, so an instance should be reused for as long as the set of
+ * filters doesn't change. Instances are thread-safe.
+ *
+ * @see tv.xrm.jfilter.FilteredTreeCopier#copyTrees(com.fasterxml.jackson.databind.JsonNode, FanOut)
+ */
+public final class FanOut {
+
+    private final List<CompiledFilter> filters;
+
+    private final MultiTreeCopier.Route root;
+
+    public FanOut(final List<CompiledFilter> filters) {
+        this.filters = Collections.unmodifiableList(new ArrayList<>(filters));
+        final int[] parents = new int[filters.size()];
+        final CompiledFilter.Match[] matches = new CompiledFilter.Match[filters.size()];
+        for (int i = 0; i < parents.length; i++) {
+            parents[i] = i;
+            matches[i] = filters.get(i).rootMatch();
+        }
+        this.root = new MultiTreeCopier.Route(parents, matches);
+    }
+
+    public FanOut(final CompiledFilter... filters) {
+        this(Arrays.asList(filters));
+    }
+
+    public List<CompiledFilter> getFilters() {
+        return filters;
+    }
+
+    public int size() {
+        return filters.size();
+    }
+
+    MultiTreeCopier.Route root() {
+        return root;
+    }
+
+    @Override
+    public String toString() {
+        return "FanOut" + filters;
+    }
+
+}
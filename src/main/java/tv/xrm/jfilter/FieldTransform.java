@@ -0,0 +1,307 @@
+package tv.xrm.jfilter;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.TextNode;
+
+/**
+ * Change to a selected field, made while filtering, e.g. "user.email -> redact", "payload -> truncate(1024)" or
+ * "id -> rename(uid)". A transform applies to the field's value as selected (i.e. after filtering below it), and only
+ * where the field is selected by the path it's attached to; the original tree isn't changed.
+ *
+ * @see tv.xrm.jfilter.Node#transformed(String, FieldTransform, java.util.List)
+ */
+public abstract class FieldTransform {
+
+    /**
+     * Replacement for redacted values.
+     */
+    public static final String REDACTED = "***";
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final ThreadLocal<MessageDigest> DIGEST = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                // every JVM has SHA-256
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    FieldTransform() {
+    }
+
+    /**
+     * The value is replaced by the string REDACTED, whatever it is.
+     */
+    public static FieldTransform redact() {
+        return Redact.INSTANCE;
+    }
+
+    /**
+     * The value is replaced by the SHA-256 hash (hex) of its JSON, so that equal values can still be told apart from
+     * different ones (a string "1" from the number 1, too).
+     * <p/>
+     * The hash isn't keyed: where values can be guessed (e-mail addresses, phone numbers, small ids), hashing
+     * candidates reverses it. Use hmac() with a secret key for those.
+     */
+    public static FieldTransform hash() {
+        return Hash.INSTANCE;
+    }
+
+    /**
+     * The value is replaced by the HMAC-SHA256 (hex) of its JSON with the given key, so that equal values can be told
+     * apart from different ones by whoever gets the output, but only those who have the key can find out which value
+     * gives which hash. Not available in spec strings, so the key isn't written into them.
+     *
+     * @param key secret key; copied
+     */
+    public static FieldTransform hmac(final byte[] key) {
+        if (key == null || key.length == 0) {
+            throw new IllegalArgumentException("an HMAC needs a key");
+        }
+        return new Hmac(key);
+    }
+
+    /**
+     * Strings are cut to at most the given number of characters, arrays to at most that many elements; other values
+     * are left as they are.
+     */
+    public static FieldTransform truncate(final int maxLength) {
+        if (maxLength < 0) {
+            throw new IllegalArgumentException("negative length: " + maxLength);
+        }
+        return new Truncate(maxLength);
+    }
+
+    /**
+     * The field gets the given name instead; if there's a field of that name already, the last one set wins.
+     */
+    public static FieldTransform rename(final String name) {
+        if (name == null || name.isEmpty()) {
+            throw new IllegalArgumentException("a field can't be renamed to nothing");
+        }
+        return new Rename(name);
+    }
+
+    /**
+     * Parse a transform as written after "->" in a spec: "redact", "hash", "truncate(1024)" or "rename(uid)" (a name in
+     * single quotes is taken literally).
+     *
+     * @throws IllegalArgumentException if the text isn't a valid transform
+     */
+    static FieldTransform parse(final String text) {
+        final String trimmed = text.trim();
+        final int open = trimmed.indexOf('(');
+        if (open < 0) {
+            if (trimmed.equals(Redact.NAME)) {
+                return redact();
+            }
+            if (trimmed.equals(Hash.NAME)) {
+                return hash();
+            }
+        } else if (trimmed.endsWith(")")) {
+            final String function = trimmed.substring(0, open).trim();
+            final String argument = trimmed.substring(open + 1, trimmed.length() - 1).trim();
+            if (function.equals(Truncate.NAME)) {
+                try {
+                    return truncate(Integer.parseInt(argument));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("invalid transform: " + text, e);
+                }
+            }
+            if (function.equals(Rename.NAME)) {
+                final boolean quoted = argument.length() > 1 && argument.startsWith("'") && argument.endsWith("'");
+                return rename(quoted ? argument.substring(1, argument.length() - 1) : argument);
+            }
+        }
+        throw new IllegalArgumentException("invalid transform: " + text);
+    }
+
+    /**
+     * @return the name the field gets
+     */
+    String name(final String name) {
+        return name;
+    }
+
+    /**
+     * @param value the selected value; not to be modified
+     * @return the value the field gets
+     */
+    abstract JsonNode apply(JsonNode value);
+
+    private static JsonNode hex(final byte[] bytes) {
+        final char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[2 * i] = HEX[(bytes[i] >> 4) & 0xf];
+            hex[2 * i + 1] = HEX[bytes[i] & 0xf];
+        }
+        return TextNode.valueOf(new String(hex));
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        return o instanceof FieldTransform && toString().equals(o.toString());
+    }
+
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+
+    private static final class Redact extends FieldTransform {
+        private static final String NAME = "redact";
+        private static final FieldTransform INSTANCE = new Redact();
+        private static final JsonNode VALUE = TextNode.valueOf(REDACTED);
+
+        @Override
+        JsonNode apply(final JsonNode value) {
+            return VALUE;
+        }
+
+        @Override
+        public String toString() {
+            return NAME;
+        }
+    }
+
+    private static final class Hash extends FieldTransform {
+        private static final String NAME = "hash";
+        private static final FieldTransform INSTANCE = new Hash();
+
+        @Override
+        JsonNode apply(final JsonNode value) {
+            return hex(DIGEST.get().digest(value.toString().getBytes(StandardCharsets.UTF_8)));
+        }
+
+        @Override
+        public String toString() {
+            return NAME;
+        }
+    }
+
+    private static final class Hmac extends FieldTransform {
+        private static final String ALGORITHM = "HmacSHA256";
+        private final SecretKeySpec key;
+        // a Mac isn't thread-safe
+        private final ThreadLocal<Mac> mac = new ThreadLocal<Mac>() {
+            @Override
+            protected Mac initialValue() {
+                try {
+                    final Mac instance = Mac.getInstance(ALGORITHM);
+                    instance.init(key);
+                    return instance;
+                } catch (GeneralSecurityException e) {
+                    // every JVM has HmacSHA256
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+
+        private Hmac(final byte[] key) {
+            this.key = new SecretKeySpec(key, ALGORITHM);
+        }
+
+        @Override
+        JsonNode apply(final JsonNode value) {
+            return hex(mac.get().doFinal(value.toString().getBytes(StandardCharsets.UTF_8)));
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            return o instanceof Hmac && Arrays.equals(key.getEncoded(), ((Hmac) o).key.getEncoded());
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(key.getEncoded());
+        }
+
+        /**
+         * Without the key, which isn't to be logged.
+         */
+        @Override
+        public String toString() {
+            return "hmac";
+        }
+    }
+
+    private static final class Truncate extends FieldTransform {
+        private static final String NAME = "truncate";
+        private final int maxLength;
+
+        private Truncate(final int maxLength) {
+            this.maxLength = maxLength;
+        }
+
+        @Override
+        JsonNode apply(final JsonNode value) {
+            if (value.isTextual()) {
+                final String text = value.textValue();
+                if (text.length() <= maxLength) {
+                    return value;
+                }
+                int end = maxLength;
+                if (end > 0 && Character.isHighSurrogate(text.charAt(end - 1))) {
+                    // don't split a character
+                    end--;
+                }
+                return TextNode.valueOf(text.substring(0, end));
+            }
+            if (value.isArray() && value.size() > maxLength) {
+                final ArrayNode truncated = JsonNodeFactory.instance.arrayNode(maxLength);
+                for (int i = 0; i < maxLength; i++) {
+                    truncated.add(value.get(i));
+                }
+                return truncated;
+            }
+            return value;
+        }
+
+        @Override
+        public String toString() {
+            return NAME + "(" + maxLength + ")";
+        }
+    }
+
+    private static final class Rename extends FieldTransform {
+        private static final String NAME = "rename";
+        private final String newName;
+
+        private Rename(final String newName) {
+            this.newName = newName;
+        }
+
+        @Override
+        String name(final String name) {
+            return newName;
+        }
+
+        @Override
+        JsonNode apply(final JsonNode value) {
+            return value;
+        }
+
+        @Override
+        public String toString() {
+            final boolean quote = newName.indexOf(')') >= 0 || !newName.trim().equals(newName);
+            return NAME + "(" + (quote ? "'" + newName + "'" : newName) + ")";
+        }
+    }
+
+}
@@ -0,0 +1,587 @@
+package tv.xrm.jfilter;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import tv.xrm.jfilter.CompiledFilter.ElementSelection;
+import tv.xrm.jfilter.CompiledFilter.Match;
+
+/**
+ * Compiles a specification with recursive wildcards into a deterministic automaton over field names. Subset
+ * construction turns sets of what's expected next into CompiledFilter states, so that each field is matched by a
+ * single lookup however many paths and recursive wildcards apply to it.
+ * <p/>
+ * What's expected next is a set of node lists, one for each path the field was reached by, resolved as CompiledFilter
+ * resolves a level: the last node matching a name decides what's below it, a scalar is kept if any of them would keep
+ * it. A recursive wildcard doesn't take part in that: it stays in effect on every level below, with its children
+ * expected as one more list, and whatever the lists select is joined. So a recursive wildcard path that doesn't match
+ * anything doesn't change what the other paths select. Excluding nodes take away from all lists. A scalar is kept if a
+ * path ends at it or it is selected by a single-level wildcard, but not just because a recursive wildcard passes over
+ * it.
+ * <p/>
+ * Nodes with array selectors lead to further states for the elements of an array, one per combination of selectors
+ * picking an element; in each list, the last node that applies to an element decides, as in CompiledFilter.
+ * <p/>
+ * A field gets the transform of the last node with one that it's matched by. Nodes leading to transforms or exclusions
+ * are kept in states that select everything otherwise, so that those fields are still found.
+ */
+final class FilterAutomaton {
+
+    // position for "everything from here on"
+    private static final int ALL = 0;
+
+    // index of the list of top-level nodes
+    private static final int ROOT = 0;
+
+    // outcomes of closing a state
+    private static final int EXCLUDED = 1;
+    private static final int END_OF_PATH = 2;
+
+    private final List<Node> positions = new ArrayList<>();
+    private final Map<Node, Integer> positionsByNode = new IdentityHashMap<>();
+
+    // the top-level nodes, then the children of nodes, as far as they're reached
+    private final List<List<Node>> lists = new ArrayList<>();
+    private final Map<Node, Integer> listsByNode = new IdentityHashMap<>();
+
+    private final List<State> states = new ArrayList<>();
+    private final Map<State, Integer> statesByKey = new HashMap<>();
+
+    private final Map<Node, Boolean> matters = new IdentityHashMap<>();
+    private boolean transforms;
+
+    private FilterAutomaton() {
+        positions.add(null);
+    }
+
+    static boolean isRecursive(final List<Node> nodes) {
+        for (final Node node : nodes) {
+            if (isRecursiveWildcard(node) || isRecursive(node.getChildren())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static CompiledFilter compile(final List<Node> nodes) {
+        return new FilterAutomaton().build(nodes);
+    }
+
+    private CompiledFilter build(final List<Node> nodes) {
+        register(nodes);
+        final State start = new State();
+        start.lists.set(ROOT);
+        close(start);
+        if (isEverything(start)) {
+            return CompiledFilter.COPY_ALL;
+        }
+        state(start);
+
+        // discover all states and their transitions first, as they may refer to each other
+        final List<List<Transition>> transitions = new ArrayList<>();
+        for (int i = 0; i < states.size(); i++) {
+            transitions.add(transitions(states.get(i)));
+        }
+
+        for (final List<Transition> stateTransitions : transitions) {
+            for (final Transition transition : stateTransitions) {
+                transforms |= transition.transform != null;
+            }
+        }
+
+        final CompiledFilter[] filters = new CompiledFilter[states.size()];
+        for (int i = filters.length - 1; i >= 0; i--) {
+            filters[i] = filter(transitions.get(i), filters);
+        }
+        // created last, so that all states are safely published along with it
+        return filter(transitions.get(0), filters);
+    }
+
+    private CompiledFilter filter(final List<Transition> transitions, final CompiledFilter[] filters) {
+        final List<String> names = new ArrayList<>();
+        final List<Match> namedMatches = new ArrayList<>();
+        final List<String> excludedNames = new ArrayList<>();
+        final Transition other = transitions.get(transitions.size() - 1);
+        final Match wildcardMatch = other.match(filters);
+        for (final Transition transition : transitions.subList(0, transitions.size() - 1)) {
+            final Match match = transition.match(filters);
+            if (match != null) {
+                names.add(transition.name);
+                namedMatches.add(match);
+            } else if (wildcardMatch != null) {
+                excludedNames.add(transition.name);
+            }
+        }
+        return new CompiledFilter(names.toArray(new String[names.size()]),
+                namedMatches.toArray(new Match[namedMatches.size()]), wildcardMatch,
+                excludedNames.toArray(new String[excludedNames.size()]), transforms);
+    }
+
+    /**
+     * @return transitions for the names expected in the state, followed by the one for any other name
+     */
+    private List<Transition> transitions(final State state) {
+        final Set<String> names = new LinkedHashSet<>();
+        for (int p = state.nodes.nextSetBit(ALL + 1); p >= 0; p = state.nodes.nextSetBit(p + 1)) {
+            addName(names, positions.get(p));
+        }
+        for (int l = state.lists.nextSetBit(0); l >= 0; l = state.lists.nextSetBit(l + 1)) {
+            for (final Node node : lists.get(l)) {
+                addName(names, node);
+            }
+        }
+
+        final List<Transition> transitions = new ArrayList<>(names.size() + 1);
+        for (final String name : names) {
+            transitions.add(step(state, name));
+        }
+        transitions.add(step(state, null));
+        return transitions;
+    }
+
+    private static void addName(final Set<String> names, final Node node) {
+        if (!isWildcard(node) && !isRecursiveWildcard(node)) {
+            names.add(node.getName());
+        }
+    }
+
+    /**
+     * @param name null for a name that isn't expected by name
+     */
+    private Transition step(final State state, final String name) {
+        final Transition transition = new Transition(name);
+        final State next = new State();
+        // everything from here on makes it a wildcard match, whatever else applies
+        final boolean all = state.nodes.get(ALL);
+        boolean named = false;
+        boolean wildcard = false;
+        // the same for the elements of an array, where lists with array selectors are decided per element
+        boolean wholeNamed = false;
+        boolean wholeWildcard = false;
+
+        for (int p = state.nodes.nextSetBit(0); p >= 0; p = state.nodes.nextSetBit(p + 1)) {
+            if (p == ALL) {
+                next.nodes.set(ALL);
+                transition.keepScalar = true;
+                continue;
+            }
+            final Node node = positions.get(p);
+            if (isRecursiveWildcard(node)) {
+                // still within the recursive wildcard; what may follow it is in the state already
+                next.nodes.set(p);
+            } else if (matches(node, name)) {
+                // excluding node
+                if (node.getChildren().isEmpty()) {
+                    transition.excluded = true;
+                }
+                expect(node.getChildren(), next);
+            }
+        }
+
+        int transformPosition = -1;
+        final List<List<Node>> selecting = new ArrayList<>();
+        for (int l = state.lists.nextSetBit(0); l >= 0; l = state.lists.nextSetBit(l + 1)) {
+            // as in CompiledFilter: the last candidate decides what's below, any of them may keep a scalar
+            final List<Node> candidates = new ArrayList<>();
+            Node last = null;
+            boolean selectors = false;
+            for (final Node node : lists.get(l)) {
+                if (node.isExcluded() || isRecursiveWildcard(node) || !matches(node, name)) {
+                    continue;
+                }
+                candidates.add(node);
+                if (node.getSelector() != null) {
+                    // applies to elements only
+                    selectors = true;
+                    continue;
+                }
+                transition.keepScalar |= isWildcard(node) || node.getChildren().isEmpty();
+                last = node;
+                if (node.getTransform() != null && position(node) > transformPosition) {
+                    transition.transform = node.getTransform();
+                    transformPosition = position(node);
+                }
+            }
+            if (candidates.isEmpty()) {
+                continue;
+            }
+            final Node deciding = last != null ? last : candidates.get(candidates.size() - 1);
+            named |= !isWildcard(deciding);
+            wildcard |= isWildcard(deciding);
+            if (selectors) {
+                selecting.add(candidates);
+            } else {
+                next.lists.set(list(last));
+                wholeNamed |= !isWildcard(last);
+                wholeWildcard |= isWildcard(last);
+            }
+        }
+
+        // what applies to the elements of an array regardless of array selectors
+        final State whole = next.copy();
+        for (final List<Node> candidates : selecting) {
+            final Node last = lastUnselected(candidates);
+            if (last != null) {
+                next.lists.set(list(last));
+            }
+        }
+
+        final int closed = close(next);
+        transition.excluded |= (closed & EXCLUDED) != 0;
+        // a field where a recursive wildcard path ends is kept, whatever it is
+        transition.keepScalar |= (closed & END_OF_PATH) != 0;
+        transition.wildcard = all || wildcard && !named;
+        if (transition.excluded) {
+            return transition;
+        }
+        if (hasInclusions(next)) {
+            transition.everything = isEverything(next);
+            transition.state = transition.everything ? -1 : state(next);
+        }
+        if (!selecting.isEmpty()) {
+            selectElements(transition, whole, all, wholeNamed, wholeWildcard, selecting);
+        }
+        return transition;
+    }
+
+    /**
+     * Determine the states for array elements: what applies to the whole array, joined with what the last node
+     * applying to an element decides in each list with array selectors.
+     */
+    private void selectElements(final Transition transition, final State whole, final boolean all,
+            final boolean wholeNamed, final boolean wholeWildcard, final List<List<Node>> selecting) {
+        final List<ArraySelector> selectors = new ArrayList<>();
+        for (final List<Node> candidates : selecting) {
+            for (final Node node : candidates) {
+                if (node.getSelector() != null) {
+                    selectors.add(node.getSelector());
+                }
+            }
+        }
+        transition.selectors = selectors.toArray(new ArraySelector[selectors.size()]);
+        final int combinations = ElementSelection.combinations(transition.selectors.length);
+        transition.elementStates = new int[combinations];
+        transition.elementWildcards = new boolean[combinations];
+        for (int mask = 0; mask < combinations; mask++) {
+            final State next = whole.copy();
+            boolean named = wholeNamed;
+            boolean wildcard = wholeWildcard;
+            int selector = 0;
+            for (final List<Node> candidates : selecting) {
+                Node applying = null;
+                for (final Node node : candidates) {
+                    if (node.getSelector() == null || (mask & (1 << selector)) != 0) {
+                        applying = node;
+                    }
+                    if (node.getSelector() != null) {
+                        selector++;
+                    }
+                }
+                if (applying != null) {
+                    next.lists.set(list(applying));
+                    named |= !isWildcard(applying);
+                    wildcard |= isWildcard(applying);
+                }
+            }
+            close(next);
+            transition.elementWildcards[mask] = all || wildcard && !named;
+            if (!hasInclusions(next)) {
+                transition.elementStates[mask] = Transition.NONE;
+            } else {
+                transition.elementStates[mask] = isEverything(next) ? Transition.EVERYTHING : state(next);
+            }
+        }
+    }
+
+    private static Node lastUnselected(final List<Node> candidates) {
+        Node last = null;
+        for (final Node node : candidates) {
+            if (node.getSelector() == null) {
+                last = node;
+            }
+        }
+        return last;
+    }
+
+    /**
+     * Add what the lists and recursive wildcards in the state expect on this level, recursively: a list without
+     * inclusions stands for everything (but its exclusions), recursive wildcards and excluding nodes apply on their
+     * own, and the children of a recursive wildcard form a list of their own.
+     *
+     * @return EXCLUDED if an excluding path ends here, END_OF_PATH if a recursive wildcard path does
+     */
+    private int close(final State state) {
+        int closed = 0;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int l = state.lists.nextSetBit(0); l >= 0; l = state.lists.nextSetBit(l + 1)) {
+                final List<Node> nodes = lists.get(l);
+                if (!hasInclusions(nodes)) {
+                    changed |= set(state.nodes, ALL);
+                }
+                for (final Node node : nodes) {
+                    if (node.isExcluded() || isRecursiveWildcard(node)) {
+                        changed |= set(state.nodes, position(node));
+                    }
+                }
+            }
+            for (int p = state.nodes.nextSetBit(ALL + 1); p >= 0; p = state.nodes.nextSetBit(p + 1)) {
+                final Node node = positions.get(p);
+                if (!isRecursiveWildcard(node)) {
+                    continue;
+                }
+                if (node.isExcluded()) {
+                    if (node.getChildren().isEmpty()) {
+                        closed |= EXCLUDED;
+                    }
+                    for (final Node child : node.getChildren()) {
+                        changed |= set(state.nodes, position(child));
+                    }
+                } else {
+                    if (!hasInclusions(node.getChildren())) {
+                        closed |= END_OF_PATH;
+                    }
+                    changed |= set(state.lists, list(node));
+                }
+            }
+        }
+
+        final boolean everything = state.nodes.get(ALL);
+        for (int l = state.lists.nextSetBit(0); l >= 0; l = state.lists.nextSetBit(l + 1)) {
+            // recursive wildcards and excluding nodes are in the state on their own now
+            if (!hasCandidates(lists.get(l)) || everything && !matters(lists.get(l))) {
+                state.lists.clear(l);
+            }
+        }
+        if (everything) {
+            // everything includes anything more specific; only exclusions and transforms still matter
+            for (int p = state.nodes.nextSetBit(ALL + 1); p >= 0; p = state.nodes.nextSetBit(p + 1)) {
+                if (!positions.get(p).isExcluded() && !matters(positions.get(p))) {
+                    state.nodes.clear(p);
+                }
+            }
+        }
+        return closed;
+    }
+
+    private static boolean set(final BitSet set, final int index) {
+        if (set.get(index)) {
+            return false;
+        }
+        set.set(index);
+        return true;
+    }
+
+    private boolean matters(final List<Node> nodes) {
+        for (final Node node : nodes) {
+            if (matters(node)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the node leads to a transform or an exclusion, which selecting everything doesn't cover
+     */
+    private boolean matters(final Node node) {
+        Boolean matters = this.matters.get(node);
+        if (matters == null) {
+            matters = node.getTransform() != null;
+            for (final Node child : node.getChildren()) {
+                matters |= child.isExcluded() || matters(child);
+            }
+            this.matters.put(node, matters);
+        }
+        return matters;
+    }
+
+    private void expect(final List<Node> nodes, final State state) {
+        for (final Node node : nodes) {
+            state.nodes.set(position(node));
+        }
+    }
+
+    private boolean hasInclusions(final State state) {
+        if (state.nodes.get(ALL) || !state.lists.isEmpty()) {
+            return true;
+        }
+        for (int p = state.nodes.nextSetBit(ALL + 1); p >= 0; p = state.nodes.nextSetBit(p + 1)) {
+            if (!positions.get(p).isExcluded()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasInclusions(final List<Node> nodes) {
+        for (final Node node : nodes) {
+            if (!node.isExcluded()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if there are nodes that are resolved as in CompiledFilter
+     */
+    private static boolean hasCandidates(final List<Node> nodes) {
+        for (final Node node : nodes) {
+            if (!node.isExcluded() && !isRecursiveWildcard(node)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isEverything(final State state) {
+        return state.lists.isEmpty() && state.nodes.get(ALL) && state.nodes.cardinality() == 1;
+    }
+
+    private static boolean matches(final Node node, final String name) {
+        return isWildcard(node) || node.getName().equals(name);
+    }
+
+    private int position(final Node node) {
+        Integer position = positionsByNode.get(node);
+        if (position == null) {
+            position = positions.size();
+            positions.add(node);
+            positionsByNode.put(node, position);
+        }
+        return position;
+    }
+
+    /**
+     * @return the index of the node's children
+     */
+    private int list(final Node node) {
+        Integer list = listsByNode.get(node);
+        if (list == null) {
+            list = register(node.getChildren());
+            listsByNode.put(node, list);
+        }
+        return list;
+    }
+
+    private int register(final List<Node> nodes) {
+        // positions in list order, so that the last transform also has the highest position
+        for (final Node node : nodes) {
+            position(node);
+        }
+        lists.add(nodes);
+        return lists.size() - 1;
+    }
+
+    private int state(final State state) {
+        Integer index = statesByKey.get(state);
+        if (index == null) {
+            index = states.size();
+            states.add(state);
+            statesByKey.put(state, index);
+        }
+        return index;
+    }
+
+    private static boolean isWildcard(final Node node) {
+        return node.getName().equals(FilteredTreeCopier.WILDCARD);
+    }
+
+    private static boolean isRecursiveWildcard(final Node node) {
+        return node.getName().equals(FilteredTreeCopier.RECURSIVE_WILDCARD);
+    }
+
+    /**
+     * What's expected next.
+     */
+    private static final class State {
+        // ALL, recursive wildcards and excluding nodes, which apply on their own, by position
+        private final BitSet nodes = new BitSet();
+        // lists of other nodes, each resolved among itself, by index
+        private final BitSet lists = new BitSet();
+
+        private State copy() {
+            final State copy = new State();
+            copy.nodes.or(nodes);
+            copy.lists.or(lists);
+            return copy;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            return o instanceof State && nodes.equals(((State) o).nodes) && lists.equals(((State) o).lists);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * nodes.hashCode() + lists.hashCode();
+        }
+    }
+
+    /**
+     * Where a field name leads.
+     */
+    private static final class Transition {
+        // element states that aren't states
+        private static final int NONE = -1;
+        private static final int EVERYTHING = -2;
+
+        private final String name;
+        private boolean excluded;
+        private boolean keepScalar;
+        private boolean wildcard;
+        private boolean everything;
+        // null: none
+        private FieldTransform transform;
+        // -1: not selected, or everything
+        private int state = -1;
+        // null: no array selectors apply
+        private ArraySelector[] selectors;
+        // by combination of selectors picking an element
+        private int[] elementStates;
+        private boolean[] elementWildcards;
+
+        private Transition(final String name) {
+            this.name = name;
+        }
+
+        /**
+         * @return null if the field isn't selected
+         */
+        private Match match(final CompiledFilter[] filters) {
+            if (excluded) {
+                return null;
+            }
+            final ElementSelection selection = selectors == null ? null : selection(filters);
+            if (everything) {
+                return new Match(CompiledFilter.COPY_ALL, wildcard, keepScalar, selection, transform);
+            }
+            if (state >= 0) {
+                return new Match(filters, state, wildcard, keepScalar, selection, transform);
+            }
+            return selection == null ? null
+                    : new Match(CompiledFilter.NOTHING, wildcard, keepScalar, selection, transform);
+        }
+
+        private ElementSelection selection(final CompiledFilter[] filters) {
+            final Match[] matches = new Match[elementStates.length];
+            for (int i = 0; i < matches.length; i++) {
+                if (elementStates[i] == EVERYTHING) {
+                    matches[i] = new Match(CompiledFilter.COPY_ALL, elementWildcards[i], false);
+                } else if (elementStates[i] != NONE) {
+                    matches[i] = new Match(filters, elementStates[i], elementWildcards[i], false, null, null);
+                }
+            }
+            return new ElementSelection(selectors, matches);
+        }
+    }
+
+}
@@ -0,0 +1,458 @@
+package tv.xrm.jfilter;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonPointer;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.WritableTypeId;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.JsonSerializable;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.BaseJsonNode;
+import com.fasterxml.jackson.databind.node.ContainerNode;
+import com.fasterxml.jackson.databind.node.JsonNodeType;
+import com.fasterxml.jackson.databind.node.MissingNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import tv.xrm.jfilter.CompiledFilter.ElementSelection;
+import tv.xrm.jfilter.CompiledFilter.Match;
+
+/**
+ * Read-only view of an object or array node, showing only what a filter selects. Creating a view is O(1); the filter is
+ * applied whenever the view is accessed or serialized, and views of children are only created when asked for. The
+ * content is the same as that of FilteredTreeCopier.copyTree(), so this is preferable where a filtered tree is only
+ * serialized or looked at in a few places.
+ * <p/>
+ * A view shares everything with the original tree, so changes to the original show through. Scalars are returned as
+ * they are (they're immutable), containers are always wrapped, so the original can't be changed through a view.
+ * <p/>
+ * A view is only equal to another view with the same content, not to an ObjectNode or ArrayNode (which are only equal
+ * to their own kind), so equality stays symmetric. To compare a view with a copy, compare its deepCopy().
+ *
+ * @see tv.xrm.jfilter.FilteredTreeCopier#copyTree(com.fasterxml.jackson.databind.JsonNode, CompiledFilter)
+ */
+public final class FilteredJsonNode extends BaseJsonNode {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JsonNode source;
+
+    // null: shown as is
+    private final Match match;
+
+    // lazily determined: selected field names or element indices
+    private transient volatile String[] selectedNames;
+    private transient volatile int[] selectedIndices;
+
+    private FilteredJsonNode(final JsonNode source, final Match match) {
+        this.source = source;
+        this.match = match;
+    }
+
+    /**
+     * Get a filtered view of the given tree. Scalars are returned as they are.
+     */
+    public static JsonNode view(final JsonNode root, final CompiledFilter filter) {
+        filter.checkNoTransforms("views");
+        return view(root, filter.rootMatch(), false);
+    }
+
+    private static JsonNode view(final JsonNode node, final Match match, final boolean element) {
+        if (match == null) {
+            return node.isContainerNode() ? new FilteredJsonNode(node, null) : node;
+        }
+        if (node.isObject()) {
+            // without further names, the object is shown as is
+            return new FilteredJsonNode(node, match.getFilter().copiesAll() ? null : match);
+        }
+        if (node.isArray()) {
+            return new FilteredJsonNode(node, match);
+        }
+        if (element) {
+            return match.keepsElementScalars() && !node.isNull() ? node : null;
+        }
+        return match.keepsScalar() ? node : null;
+    }
+
+    /**
+     * Read-only view of a whole container.
+     */
+    static FilteredJsonNode readOnly(final JsonNode container) {
+        return new FilteredJsonNode(container, null);
+    }
+
+    private JsonNode child(final JsonNode node, final Match childMatch, final boolean element) {
+        return view(node, childMatch, element);
+    }
+
+    // --- selection
+
+    private String[] selectedNames() {
+        String[] names = selectedNames;
+        if (names == null) {
+            final List<String> selected = new ArrayList<>();
+            final Iterator<Map.Entry<String, JsonNode>> children = source.fields();
+            while (children.hasNext()) {
+                final Map.Entry<String, JsonNode> child = children.next();
+                if (fieldValue(child.getKey(), child.getValue()) != null) {
+                    selected.add(child.getKey());
+                }
+            }
+            names = selected.toArray(new String[selected.size()]);
+            selectedNames = names;
+        }
+        return names;
+    }
+
+    private int[] selectedIndices() {
+        int[] selected = selectedIndices;
+        if (selected == null) {
+            final int n = source.size();
+            selected = new int[n];
+            int count = 0;
+            final ElementSelection selection = match.getSelection();
+            if (selection == null) {
+                for (int i = 0; i < n; i++) {
+                    if (element(i) != null) {
+                        selected[count++] = i;
+                    }
+                }
+            } else {
+                // only the selected positions are looked at
+                for (int i = selection.next(0, n); i >= 0; i = selection.next(i + 1, n)) {
+                    if (element(i) != null) {
+                        selected[count++] = i;
+                    }
+                }
+            }
+            selected = Arrays.copyOf(selected, count);
+            selectedIndices = selected;
+        }
+        return selected;
+    }
+
+    private JsonNode fieldValue(final String name, final JsonNode value) {
+        if (match == null) {
+            return child(value, null, false);
+        }
+        final Match childMatch = match.getFilter().match(name);
+        return childMatch == null ? null : child(value, childMatch, false);
+    }
+
+    private JsonNode element(final int index) {
+        final JsonNode value = source.get(index);
+        if (match == null) {
+            return child(value, null, true);
+        }
+        if (value.isNull()) {
+            return null;
+        }
+        final ElementSelection selection = match.getSelection();
+        if (selection == null) {
+            return child(value, match, true);
+        }
+        final Match elementMatch = selection.match(index, source.size(), value);
+        return elementMatch == null ? null : child(value, elementMatch, true);
+    }
+
+    // --- tree model access
+
+    @Override
+    public JsonNodeType getNodeType() {
+        return source.getNodeType();
+    }
+
+    @Override
+    public JsonToken asToken() {
+        return source.isObject() ? JsonToken.START_OBJECT : JsonToken.START_ARRAY;
+    }
+
+    @Override
+    public String asText() {
+        return "";
+    }
+
+    @Override
+    public int size() {
+        if (source.isObject()) {
+            return match == null ? source.size() : selectedNames().length;
+        }
+        return match == null ? source.size() : selectedIndices().length;
+    }
+
+    @Override
+    public JsonNode get(final String fieldName) {
+        if (!source.isObject()) {
+            return null;
+        }
+        final JsonNode value = source.get(fieldName);
+        return value == null ? null : fieldValue(fieldName, value);
+    }
+
+    @Override
+    public JsonNode get(final int index) {
+        if (!source.isArray() || index < 0) {
+            return null;
+        }
+        if (match == null) {
+            return index < source.size() ? element(index) : null;
+        }
+        final int[] selected = selectedIndices();
+        return index < selected.length ? element(selected[index]) : null;
+    }
+
+    @Override
+    public JsonNode path(final String fieldName) {
+        final JsonNode n = get(fieldName);
+        return n == null ? MissingNode.getInstance() : n;
+    }
+
+    @Override
+    public JsonNode path(final int index) {
+        final JsonNode n = get(index);
+        return n == null ? MissingNode.getInstance() : n;
+    }
+
+    @Override
+    protected JsonNode _at(final JsonPointer ptr) {
+        return source.isObject() ? get(ptr.getMatchingProperty()) : get(ptr.getMatchingIndex());
+    }
+
+    @Override
+    public Iterator<String> fieldNames() {
+        if (!source.isObject()) {
+            return super.fieldNames();
+        }
+        return match == null ? source.fieldNames() : Arrays.asList(selectedNames()).iterator();
+    }
+
+    @Override
+    public Iterator<Map.Entry<String, JsonNode>> fields() {
+        if (!source.isObject()) {
+            return super.fields();
+        }
+        final Iterator<String> names = fieldNames();
+        return new Iterator<Map.Entry<String, JsonNode>>() {
+            @Override
+            public boolean hasNext() {
+                return names.hasNext();
+            }
+
+            @Override
+            public Map.Entry<String, JsonNode> next() {
+                final String name = names.next();
+                return new AbstractMap.SimpleImmutableEntry<>(name, get(name));
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException("read-only view");
+            }
+        };
+    }
+
+    // overrides JsonNode.properties() from Jackson 2.15 on, hence no @Override
+    public Set<Map.Entry<String, JsonNode>> properties() {
+        final Set<Map.Entry<String, JsonNode>> properties = new LinkedHashSet<>();
+        final Iterator<Map.Entry<String, JsonNode>> fields = fields();
+        while (fields.hasNext()) {
+            properties.add(fields.next());
+        }
+        return properties;
+    }
+
+    @Override
+    public Iterator<JsonNode> elements() {
+        if (!source.isArray()) {
+            return super.elements();
+        }
+        return new Iterator<JsonNode>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < size();
+            }
+
+            @Override
+            public JsonNode next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return get(next++);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException("read-only view");
+            }
+        };
+    }
+
+    // --- materialisation
+
+    /**
+     * @return a modifiable copy of the filtered content
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T extends JsonNode> T deepCopy() {
+        return (T) (match == null ? source.deepCopy() : FilteredTreeCopier.copy(source, match, false, null));
+    }
+
+    /**
+     * Copy this level only, for copy-on-write: the result is a modifiable object or array node with the same content,
+     * whose scalars are shared and whose containers are again read-only views.
+     *
+     * @see tv.xrm.jfilter.FilteredTreeCopier#unshare(com.fasterxml.jackson.databind.JsonNode, String...)
+     */
+    public ContainerNode<?> copyLevel() {
+        if (source.isObject()) {
+            final ObjectNode copy = ((ObjectNode) source).objectNode();
+            final Iterator<Map.Entry<String, JsonNode>> fields = fields();
+            while (fields.hasNext()) {
+                final Map.Entry<String, JsonNode> field = fields.next();
+                copy.set(field.getKey(), field.getValue());
+            }
+            return copy;
+        }
+        final ArrayNode copy = ((ArrayNode) source).arrayNode(size());
+        final Iterator<JsonNode> elements = elements();
+        while (elements.hasNext()) {
+            copy.add(elements.next());
+        }
+        return copy;
+    }
+
+    @Override
+    public JsonNode findValue(final String fieldName) {
+        return deepCopy().findValue(fieldName);
+    }
+
+    @Override
+    public JsonNode findParent(final String fieldName) {
+        return deepCopy().findParent(fieldName);
+    }
+
+    @Override
+    public List<JsonNode> findValues(final String fieldName, final List<JsonNode> foundSoFar) {
+        return deepCopy().findValues(fieldName, foundSoFar);
+    }
+
+    @Override
+    public List<String> findValuesAsText(final String fieldName, final List<String> foundSoFar) {
+        return deepCopy().findValuesAsText(fieldName, foundSoFar);
+    }
+
+    @Override
+    public List<JsonNode> findParents(final String fieldName, final List<JsonNode> foundSoFar) {
+        return deepCopy().findParents(fieldName, foundSoFar);
+    }
+
+    // --- serialization
+
+    @Override
+    public void serialize(final JsonGenerator generator, final SerializerProvider provider) throws IOException {
+        if (match == null) {
+            FilteredTreeWriter.writeUnfiltered(source, generator, provider);
+        } else {
+            FilteredTreeWriter.write(source, match, false, generator, provider);
+        }
+    }
+
+    @Override
+    public void serializeWithType(final JsonGenerator generator, final SerializerProvider provider,
+            final TypeSerializer typeSer) throws IOException {
+        final WritableTypeId typeId = typeSer.writeTypePrefix(generator, typeSer.typeId(this, asToken()));
+        if (source.isObject()) {
+            final Iterator<Map.Entry<String, JsonNode>> fields = fields();
+            while (fields.hasNext()) {
+                final Map.Entry<String, JsonNode> field = fields.next();
+                generator.writeFieldName(field.getKey());
+                ((JsonSerializable) field.getValue()).serialize(generator, provider);
+            }
+        } else {
+            final Iterator<JsonNode> elements = elements();
+            while (elements.hasNext()) {
+                ((JsonSerializable) elements.next()).serialize(generator, provider);
+            }
+        }
+        typeSer.writeTypeSuffix(generator, typeId);
+    }
+
+    @Override
+    public String toString() {
+        final StringWriter out = new StringWriter();
+        try (JsonGenerator generator = FilteredTreeWriter.FACTORY.createGenerator(out)) {
+            serialize(generator, null);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toString();
+    }
+
+    // --- comparison among views, with hash codes consistent with ObjectNode and ArrayNode
+
+    @Override
+    public boolean equals(final Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (!(o instanceof FilteredJsonNode)) {
+            return false;
+        }
+        final FilteredJsonNode other = (FilteredJsonNode) o;
+        if (other.getNodeType() != getNodeType() || other.size() != size()) {
+            return false;
+        }
+        if (source.isObject()) {
+            final Iterator<Map.Entry<String, JsonNode>> fields = fields();
+            while (fields.hasNext()) {
+                final Map.Entry<String, JsonNode> field = fields.next();
+                if (!field.getValue().equals(other.get(field.getKey()))) {
+                    return false;
+                }
+            }
+        } else {
+            for (int i = 0, n = size(); i < n; i++) {
+                if (!get(i).equals(other.get(i))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash;
+        if (source.isObject()) {
+            hash = 0;
+            final Iterator<Map.Entry<String, JsonNode>> fields = fields();
+            while (fields.hasNext()) {
+                hash += fields.next().hashCode();
+            }
+        } else {
+            hash = 1;
+            final Iterator<JsonNode> elements = elements();
+            while (elements.hasNext()) {
+                hash = 31 * hash + elements.next().hashCode();
+            }
+        }
+        return hash;
+    }
+
+}
@@ -0,0 +1,280 @@
+package tv.xrm.jfilter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+
+/**
+ * Filters newline-delimited JSON (JSON lines, NDJSON) on several cores: the input is split into chunks at line breaks,
+ * chunks are filtered by pool threads, and the filtered lines are written in input order. Only a few chunks per pool
+ * thread are in memory at a time; reading waits for the oldest chunk to be written, so a slow output holds back the
+ * input. Blank lines are dropped.
+ * <p/>
+ * Can be run from the command line, filtering standard input to standard output:
+ *
+ * <pre>
+ * java tv.xrm.jfilter.FilteredLinesCopier [-i input] [-o output] [-j threads] spec...
+ * </pre>
+ *
+ * @see tv.xrm.jfilter.FilteredStreamCopier
+ */
+public final class FilteredLinesCopier {
+
+    static final int CHUNK_SIZE = 1 << 20;
+
+    // chunks in flight per pool thread
+    private static final int PENDING_PER_THREAD = 2;
+
+    private FilteredLinesCopier() {
+    }
+
+    /**
+     * Filter all lines of the input into the output, using the shared pool. The streams are not closed.
+     *
+     * @return number of lines written
+     */
+    public static long copyLines(final InputStream in, final CompiledFilter filter, final OutputStream out)
+            throws IOException {
+        return copyLines(in, filter, out, new ParallelOptions());
+    }
+
+    /**
+     * Filter all lines of the input into the output, using the pool of the given options (the threshold doesn't apply
+     * here). The streams are not closed.
+     *
+     * @return number of lines written
+     */
+    public static long copyLines(final InputStream in, final CompiledFilter filter, final OutputStream out,
+            final ParallelOptions options) throws IOException {
+        final ForkJoinPool pool = options.getPool();
+        return copyLines(in, filter, out, pool, CHUNK_SIZE, pool.getParallelism() * PENDING_PER_THREAD);
+    }
+
+    /**
+     * Filter all lines of a file into another file.
+     *
+     * @return number of lines written
+     * @see #copyLines(java.io.InputStream, CompiledFilter, java.io.OutputStream, ParallelOptions)
+     */
+    public static long copyLines(final Path source, final CompiledFilter filter, final Path target,
+            final ParallelOptions options) throws IOException {
+        try (InputStream in = Files.newInputStream(source); OutputStream out = Files.newOutputStream(target)) {
+            return copyLines(in, filter, out, options);
+        }
+    }
+
+    static long copyLines(final InputStream in, final CompiledFilter filter, final OutputStream out,
+            final ForkJoinPool pool, final int chunkSize, final int maxPending) throws IOException {
+        final Deque<Future<Chunk>> pending = new ArrayDeque<>();
+        // chunks already written, for reuse
+        final Deque<Chunk> free = new ArrayDeque<>();
+        long lines = 0;
+        try {
+            Chunk chunk = new Chunk(chunkSize);
+            while (true) {
+                final int n = in.read(chunk.input, chunk.length, chunk.input.length - chunk.length);
+                if (n > 0) {
+                    chunk.length += n;
+                    if (chunk.length < chunk.input.length) {
+                        continue;
+                    }
+                }
+
+                final boolean end = n < 0;
+                final int length = chunk.length;
+                final int split = end ? length : lastLineBreak(chunk.input, length) + 1;
+                if (split == 0 && !end) {
+                    // a line longer than a chunk
+                    chunk.input = Arrays.copyOf(chunk.input, chunk.input.length * 2);
+                    continue;
+                }
+                if (split > 0) {
+                    if (pending.size() >= maxPending) {
+                        lines += write(pending.poll(), out, free);
+                    }
+                    chunk.length = split;
+                    pending.add(pool.submit(new ChunkTask(chunk, filter)));
+                }
+                if (end) {
+                    break;
+                }
+
+                final Chunk next = free.isEmpty() ? new Chunk(chunkSize) : free.poll();
+                if (next.input.length < length - split) {
+                    next.input = new byte[length - split];
+                }
+                System.arraycopy(chunk.input, split, next.input, 0, length - split);
+                next.length = length - split;
+                chunk = next;
+            }
+            while (!pending.isEmpty()) {
+                lines += write(pending.poll(), out, free);
+            }
+        } finally {
+            for (final Future<Chunk> future : pending) {
+                future.cancel(false);
+            }
+        }
+        out.flush();
+        return lines;
+    }
+
+    private static int lastLineBreak(final byte[] chunk, final int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            if (chunk[i] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int write(final Future<Chunk> future, final OutputStream out, final Deque<Chunk> free)
+            throws IOException {
+        final Chunk chunk;
+        try {
+            chunk = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while filtering lines", e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+        if (chunk.failure != null) {
+            throw chunk.failure;
+        }
+        chunk.writeTo(out);
+        final int lines = chunk.lines;
+        chunk.recycle();
+        free.add(chunk);
+        return lines;
+    }
+
+    /**
+     * Command line entry point: filters JSON lines from standard input (or the file given with -i) to standard output
+     * (or the file given with -o), with as many threads as processors (or given with -j).
+     */
+    public static void main(final String[] args) throws IOException {
+        String input = null;
+        String output = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        final List<String> specs = new ArrayList<>();
+        final CompiledFilter filter;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if ("-i".equals(args[i]) && i + 1 < args.length) {
+                    input = args[++i];
+                } else if ("-o".equals(args[i]) && i + 1 < args.length) {
+                    output = args[++i];
+                } else if ("-j".equals(args[i]) && i + 1 < args.length) {
+                    threads = Integer.parseInt(args[++i]);
+                    if (threads < 1) {
+                        throw new IllegalArgumentException("at least one thread needed");
+                    }
+                } else {
+                    specs.add(args[i]);
+                }
+            }
+            if (specs.isEmpty()) {
+                throw new IllegalArgumentException("no spec given");
+            }
+            filter = Spec.spec(specs.toArray(new String[specs.size()])).compile();
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("usage: FilteredLinesCopier [-i input] [-o output] [-j threads] spec...");
+            System.exit(2);
+            return;
+        }
+
+        final ParallelOptions options = new ParallelOptions(new ForkJoinPool(threads),
+                ParallelOptions.DEFAULT_THRESHOLD);
+        try (InputStream in = input == null ? System.in : Files.newInputStream(Paths.get(input));
+                OutputStream out = output == null ? System.out : Files.newOutputStream(Paths.get(output))) {
+            copyLines(in, filter, out, options);
+        }
+    }
+
+    /**
+     * Lines read from the input, and their filtered form.
+     */
+    private static final class Chunk extends ByteArrayOutputStream {
+        private byte[] input;
+        private int length;
+        private int lines;
+        // pool tasks can't throw checked exceptions as they are
+        private IOException failure;
+
+        private Chunk(final int size) {
+            super(size / 2);
+            input = new byte[size];
+        }
+
+        private void recycle() {
+            reset();
+            length = 0;
+            lines = 0;
+        }
+    }
+
+    private static final class ChunkTask implements Callable<Chunk> {
+        private final Chunk chunk;
+        private final CompiledFilter filter;
+
+        private ChunkTask(final Chunk chunk, final CompiledFilter filter) {
+            this.chunk = chunk;
+            this.filter = filter;
+        }
+
+        @Override
+        public Chunk call() {
+            try {
+                copyLines();
+            } catch (IOException e) {
+                chunk.failure = e;
+            }
+            return chunk;
+        }
+
+        private void copyLines() throws IOException {
+            try (JsonParser parser = FilteredTreeWriter.FACTORY.createParser(chunk.input, 0, chunk.length);
+                    JsonGenerator generator = FilteredTreeWriter.FACTORY.createGenerator(chunk)) {
+                generator.setRootValueSeparator(null);
+                int lastLine = 0;
+                while (parser.nextToken() != null) {
+                    if (parser.getTokenLocation().getLineNr() <= lastLine) {
+                        throw new JsonParseException(parser, "More than one JSON value on a line");
+                    }
+                    FilteredStreamCopier.copyStream(parser, filter, generator);
+                    generator.writeRaw('\n');
+                    chunk.lines++;
+                    // the line of the last token of the value
+                    lastLine = parser.getTokenLocation().getLineNr();
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,270 @@
+package tv.xrm.jfilter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import tv.xrm.jfilter.CompiledFilter.ElementSelection;
+import tv.xrm.jfilter.CompiledFilter.Match;
+
+/**
+ * Streaming counterpart of FilteredTreeCopier: reads JSON tokens from a Jackson parser and writes only the specified
+ * branches to a generator. No tree model is built; branches that are not selected are skipped on the parser, so memory
+ * use depends on nesting depth rather than document size. The exceptions are arrays with selectors counting from the
+ * end (e.g. "history[-1]"), which are read into memory one at a time, as their size must be known, and elements of
+ * arrays with predicates (e.g. "orders[?status=='OPEN']"), which are read into memory one at a time to be tested, and
+ * fields with transforms, which are read into memory to be transformed.
+ *
+ * @see tv.xrm.jfilter.FilteredTreeCopier
+ */
+public final class FilteredStreamCopier {
+
+    // only for arrays with selectors counting from the end and elements tested by predicates
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private FilteredStreamCopier() {
+    }
+
+    /**
+     * Copy the next JSON value from the parser to the generator, based on a hierarchical specification: a tree of field
+     * names.
+     * <p/>
+     * If the parser is positioned on a value, that value is copied; otherwise the parser is advanced first. Afterwards,
+     * the current token is cleared, so that repeated calls copy a sequence of root-level values. The result is the same
+     * as that of copyTree() on the parsed value, except that fields are written in document order.
+     *
+     * @return false if the parser has no further value
+     * @see tv.xrm.jfilter.FilteredTreeCopier#copyTree(com.fasterxml.jackson.databind.JsonNode, java.util.List)
+     */
+    public static boolean copyStream(final JsonParser parser, final List<Node> nameNodes,
+            final JsonGenerator generator) throws IOException {
+        return copyStream(parser, CompiledFilter.compile(nameNodes), generator);
+    }
+
+    /**
+     * Copy the next JSON value from the parser to the generator, based on a compiled specification.
+     *
+     * @return false if the parser has no further value
+     * @see #copyStream(com.fasterxml.jackson.core.JsonParser, java.util.List, com.fasterxml.jackson.core.JsonGenerator)
+     */
+    public static boolean copyStream(final JsonParser parser, final CompiledFilter filter,
+            final JsonGenerator generator) throws IOException {
+        JsonToken token = parser.getCurrentToken();
+        if (token == null) {
+            token = parser.nextToken();
+            if (token == null) {
+                return false;
+            }
+        }
+
+        copyValue(parser, filter.rootMatch(), generator);
+        parser.clearCurrentToken();
+        return true;
+    }
+
+    /**
+     * Copy all JSON values in a file to another file, based on a compiled specification. The source file is mapped into
+     * memory rather than read through the heap, so files of any size can be filtered, with memory use bounded as for
+     * copyStream(). Root-level values are written separated by a space.
+     *
+     * @return number of root-level values copied
+     * @see #copyStream(com.fasterxml.jackson.core.JsonParser, CompiledFilter, com.fasterxml.jackson.core.JsonGenerator)
+     */
+    public static long copyFile(final Path source, final CompiledFilter filter, final Path target) throws IOException {
+        try (OutputStream out = Files.newOutputStream(target)) {
+            return copyFile(source, filter, out);
+        }
+    }
+
+    /**
+     * Copy all JSON values in a file to a stream as UTF-8 JSON. The stream is flushed but not closed.
+     *
+     * @return number of root-level values copied
+     * @see #copyFile(java.nio.file.Path, CompiledFilter, java.nio.file.Path)
+     */
+    public static long copyFile(final Path source, final CompiledFilter filter, final OutputStream out)
+            throws IOException {
+        try (JsonGenerator generator = FilteredTreeWriter.FACTORY.createGenerator(out)) {
+            return copyFile(source, filter, generator);
+        }
+    }
+
+    /**
+     * Copy all JSON values in a file to a generator, e.g. one that passes the filtered tokens on to other code.
+     *
+     * @return number of root-level values copied
+     * @see #copyFile(java.nio.file.Path, CompiledFilter, java.nio.file.Path)
+     */
+    public static long copyFile(final Path source, final CompiledFilter filter, final JsonGenerator generator)
+            throws IOException {
+        // the channel is closed with the parser, but also if mapping or creating the parser fails
+        try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ);
+                JsonParser parser = FilteredTreeWriter.FACTORY.createParser(new MappedInputStream(channel,
+                        MappedInputStream.WINDOW_SIZE))) {
+            return copyAll(parser, filter, generator);
+        }
+    }
+
+    /**
+     * Copy all JSON values in the remaining bytes of a buffer (e.g. a mapped file region) to a generator. The position
+     * of the buffer isn't changed. Buffers backed by an array are parsed in place.
+     *
+     * @return number of root-level values copied
+     * @see #copyFile(java.nio.file.Path, CompiledFilter, java.nio.file.Path)
+     */
+    public static long copyBuffer(final ByteBuffer source, final CompiledFilter filter, final JsonGenerator generator)
+            throws IOException {
+        final JsonFactory factory = FilteredTreeWriter.FACTORY;
+        try (JsonParser parser = source.hasArray() ? factory.createParser(source.array(), source.arrayOffset()
+                + source.position(), source.remaining()) : factory.createParser(new MappedInputStream(source))) {
+            return copyAll(parser, filter, generator);
+        }
+    }
+
+    private static long copyAll(final JsonParser parser, final CompiledFilter filter, final JsonGenerator generator)
+            throws IOException {
+        long count = 0;
+        while (copyStream(parser, filter, generator)) {
+            count++;
+        }
+        generator.flush();
+        return count;
+    }
+
+    private static void copyValue(final JsonParser parser, final Match rootMatch, final JsonGenerator generator)
+            throws IOException {
+        final Deque<Match> stack = new ArrayDeque<>();
+        // position of the next element, per array level with selectors (reset to 0 when the level ends)
+        int[] positions = new int[8];
+
+        // the root value is treated like a child of a wildcard, just as in FilteredTreeCopier
+        if (!parser.getCurrentToken().isStructStart()) {
+            generator.copyCurrentEvent(parser);
+            return;
+        }
+        startContainer(parser, generator, stack, rootMatch);
+
+        while (!stack.isEmpty()) {
+            final JsonToken token = parser.nextToken();
+            if (token == null) {
+                throw new JsonParseException(parser, "Unexpected end-of-input while filtering");
+            }
+            if (stack.size() > positions.length) {
+                positions = Arrays.copyOf(positions, positions.length * 2);
+            }
+            final Match match = stack.peek();
+            switch (token) {
+            case END_OBJECT:
+                generator.writeEndObject();
+                stack.pop();
+                break;
+            case END_ARRAY:
+                generator.writeEndArray();
+                positions[stack.size() - 1] = 0;
+                stack.pop();
+                break;
+            case FIELD_NAME:
+                copyField(parser, generator, stack, match.getFilter());
+                break;
+            default:
+                final ElementSelection selection = match.getSelection();
+                if (selection == null) {
+                    copyElement(parser, generator, stack, match, token);
+                } else if (selection.needsValue()) {
+                    copySelectedElement(parser, generator, selection, positions[stack.size() - 1]++);
+                } else {
+                    final int position = positions[stack.size() - 1]++;
+                    final Match elementMatch = selection.next(position, -1) == position
+                            ? selection.match(position, -1, null) : null;
+                    if (elementMatch == null) {
+                        parser.skipChildren();
+                    } else {
+                        copyElement(parser, generator, stack, elementMatch, token);
+                    }
+                }
+                break;
+            }
+        }
+    }
+
+    private static void copyField(final JsonParser parser, final JsonGenerator generator, final Deque<Match> stack,
+            final CompiledFilter filter) throws IOException {
+        final String name = parser.getCurrentName();
+        final JsonToken valueToken = parser.nextToken();
+        final Match match = filter.match(name);
+
+        if (match == null) {
+            parser.skipChildren();
+        } else if (match.getTransform() != null) {
+            // transforms work on trees: the value is read into memory (on its own)
+            FilteredTreeWriter.writeField(name, MAPPER.<JsonNode> readTree(parser), match, generator, null);
+        } else if (valueToken.isStructStart()) {
+            generator.writeFieldName(name);
+            startContainer(parser, generator, stack, match);
+        } else if (match.keepsScalar()) {
+            generator.writeFieldName(name);
+            generator.copyCurrentEvent(parser);
+        }
+    }
+
+    private static void copyElement(final JsonParser parser, final JsonGenerator generator, final Deque<Match> stack,
+            final Match match, final JsonToken token) throws IOException {
+        if (token.isStructStart()) {
+            startContainer(parser, generator, stack, match);
+        } else if (token != JsonToken.VALUE_NULL && match.keepsElementScalars()) {
+            generator.copyCurrentEvent(parser);
+        }
+    }
+
+    /**
+     * Select an element by its content: it's read into memory (on its own), and written if selected.
+     */
+    private static void copySelectedElement(final JsonParser parser, final JsonGenerator generator,
+            final ElementSelection selection, final int position) throws IOException {
+        final JsonNode element = MAPPER.readTree(parser);
+        if (element == null || element.isNull()) {
+            return;
+        }
+        final Match elementMatch = selection.match(position, -1, element);
+        if (elementMatch != null) {
+            FilteredTreeWriter.write(element, elementMatch, true, generator, null);
+        }
+    }
+
+    private static void startContainer(final JsonParser parser, final JsonGenerator generator,
+            final Deque<Match> stack, final Match match) throws IOException {
+        if (parser.getCurrentToken() == JsonToken.START_OBJECT) {
+            if (match.getFilter().copiesAll()) {
+                // no further names - copy fully
+                generator.copyCurrentStructure(parser);
+                return;
+            }
+            generator.writeStartObject();
+        } else {
+            if (match.getSelection() != null && match.getSelection().needsSize()) {
+                // positions relative to the end: the array has to be read before anything is selected
+                FilteredTreeWriter.write(MAPPER.<JsonNode> readTree(parser), match, false, generator, null);
+                return;
+            }
+            generator.writeStartArray();
+        }
+        stack.push(match);
+    }
+
+}
@@ -1,22 +1,38 @@
 package tv.xrm.jfilter;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ContainerNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
+import tv.xrm.jfilter.CompiledFilter.ElementSelection;
+import tv.xrm.jfilter.CompiledFilter.Match;
+
 /**
  * Given a Jackson Tree Model, copies a sub-tree from it based on a simple specification of object field names. The
- * sub-tree always starts at the root, so it's basically a pruned copy. Trivial wildcards are supported.
+ * sub-tree always starts at the root, so it's basically a pruned copy. Wildcards for single levels and recursive
+ * wildcards for any number of levels are supported, as are array selectors (only selected elements are visited).
  */
 public final class FilteredTreeCopier {
 
     public static final String WILDCARD = "";
 
+    /**
+     * Node name for any number of levels (including none), e.g. ** then id: fields called id at any depth.
+     */
+    public static final String RECURSIVE_WILDCARD = "**";
+
     private FilteredTreeCopier() {
     }
 
@@ -27,7 +43,7 @@ public final class FilteredTreeCopier {
      * (unless they are immutable).
      */
     public static JsonNode copyTree(final JsonNode root, final List<Node> nameNodes) {
-        return copyOrShadow(root, nameNodes, true, new LinkedList<String>(), null, true);
+        return copyTree(root, CompiledFilter.compile(nameNodes));
     }
 
     /**
@@ -39,7 +55,7 @@ public final class FilteredTreeCopier {
      */
     public static JsonNode copyTree(final JsonNode root, final List<Node> nameNodes,
             final IJsonObjectCallback objectModifierCallback) {
-        return copyOrShadow(root, nameNodes, true, new LinkedList<String>(), objectModifierCallback, true);
+        return copyTree(root, CompiledFilter.compile(nameNodes), objectModifierCallback);
     }
 
     /**
@@ -52,84 +68,616 @@ public final class FilteredTreeCopier {
      * @see tv.xrm.jfilter.FilteredTreeCopier#copyTree(com.fasterxml.jackson.databind.JsonNode, java.util.List)
      */
     public static JsonNode shadowTree(final JsonNode root, final List<Node> nameNodes) {
-        return copyOrShadow(root, nameNodes, false, new LinkedList<String>(), null, true);
+        return shadowTree(root, CompiledFilter.compile(nameNodes));
+    }
+
+    /**
+     * Copy a sub-tree from the given tree, based on a compiled specification. Preferable to passing nodes if the same
+     * specification is applied repeatedly.
+     *
+     * @see tv.xrm.jfilter.FilteredTreeCopier#copyTree(com.fasterxml.jackson.databind.JsonNode, java.util.List)
+     */
+    public static JsonNode copyTree(final JsonNode root, final CompiledFilter filter) {
+        return copy(root, filter.rootMatch(), false, null);
+    }
+
+    /**
+     * Copy a sub-tree from the given tree, based on a compiled specification, with custom post processing of object
+     * nodes.
+     *
+     * @see tv.xrm.jfilter.FilteredTreeCopier#copyTree(com.fasterxml.jackson.databind.JsonNode, java.util.List,
+     *      IJsonObjectCallback)
+     */
+    public static JsonNode copyTree(final JsonNode root, final CompiledFilter filter,
+            final IJsonObjectCallback objectModifierCallback) {
+        if (objectModifierCallback == null) {
+            return copy(root, filter.rootMatch(), false, null);
+        }
+        return copy(root, filter.rootMatch(), false, null, new PathStack(), objectModifierCallback);
+    }
+
+    /**
+     * Shadow a sub-tree from the given tree, based on a compiled specification.
+     *
+     * @see tv.xrm.jfilter.FilteredTreeCopier#shadowTree(com.fasterxml.jackson.databind.JsonNode, java.util.List)
+     */
+    public static JsonNode shadowTree(final JsonNode root, final CompiledFilter filter) {
+        return shadow(root, filter.rootMatch(), false);
+    }
+
+    /**
+     * Copy a sub-tree from the given tree, based on a compiled specification, splitting large arrays and wide objects
+     * into fork/join tasks. The result is the same as that of copyTree(), including the order of elements and fields.
+     *
+     * @see tv.xrm.jfilter.ParallelOptions
+     */
+    public static JsonNode copyTree(final JsonNode root, final CompiledFilter filter, final ParallelOptions options) {
+        return ParallelTreeCopier.copyOrShadow(root, filter, true, null, options);
+    }
+
+    /**
+     * Copy a sub-tree from the given tree in parallel, based on a hierarchical specification: a tree of field names.
+     *
+     * @see #copyTree(com.fasterxml.jackson.databind.JsonNode, CompiledFilter, ParallelOptions)
+     */
+    public static JsonNode copyTree(final JsonNode root, final List<Node> nameNodes, final ParallelOptions options) {
+        return copyTree(root, CompiledFilter.compile(nameNodes), options);
+    }
+
+    /**
+     * Copy a sub-tree from the given tree in parallel, with custom post processing of object nodes.
+     * <p/>
+     * The callback may be invoked concurrently from pool threads (for different objects), so it must be thread-safe.
+     * An object is post-processed after all of its children, and the path passed along belongs to that invocation only.
+     *
+     * @see #copyTree(com.fasterxml.jackson.databind.JsonNode, CompiledFilter, ParallelOptions)
+     */
+    public static JsonNode copyTree(final JsonNode root, final CompiledFilter filter,
+            final IJsonObjectCallback objectModifierCallback, final ParallelOptions options) {
+        return ParallelTreeCopier.copyOrShadow(root, filter, true, objectModifierCallback, options);
+    }
+
+    /**
+     * Share a sub-tree from the given tree, based on a compiled specification: a middle ground between copyTree() and
+     * shadowTree(). Containers that the filter cuts down are new, as with shadowTree(); branches that are selected in
+     * full aren't copied but shared as read-only views (FilteredJsonNode), so neither tree can be changed through the
+     * other, and threads may read the original while the result is used. The original mustn't be changed, though, as
+     * changes show through.
+     * <p/>
+     * The new containers can be changed as usual. To change something within a shared branch, unshare() the path to
+     * it, which copies just the levels along that path.
+     * <p/>
+     * As the shared branches are views, the result is not equal to that of copyTree() (in either order) where anything
+     * is shared; its deepCopy() is.
+     *
+     * @see #unshare(com.fasterxml.jackson.databind.JsonNode, String...)
+     */
+    public static JsonNode shareTree(final JsonNode root, final CompiledFilter filter) {
+        final JsonNode shared = share(root, filter.rootMatch(), false);
+        // the root can't be replaced by the caller, so it's never a view
+        return shared instanceof FilteredJsonNode ? ((FilteredJsonNode) shared).copyLevel() : shared;
+    }
+
+    /**
+     * Share a sub-tree from the given tree, based on a hierarchical specification: a tree of field names.
+     *
+     * @see #shareTree(com.fasterxml.jackson.databind.JsonNode, CompiledFilter)
+     */
+    public static JsonNode shareTree(final JsonNode root, final List<Node> nameNodes) {
+        return shareTree(root, CompiledFilter.compile(nameNodes));
+    }
+
+    /**
+     * Make the container at the given path of a shareTree() result modifiable, copying only the levels along the path
+     * that are still shared: each read-only view on the way is replaced in its parent by a copy of its level.
+     *
+     * @param path field names, or element indexes within arrays
+     * @return the modifiable container at the path
+     * @throws IllegalArgumentException if the path doesn't lead to a container, or the root isn't modifiable
+     */
+    public static ContainerNode<?> unshare(final JsonNode sharedRoot, final String... path) {
+        if (!(sharedRoot instanceof ObjectNode || sharedRoot instanceof ArrayNode)) {
+            throw new IllegalArgumentException("not a modifiable container: " + sharedRoot.getNodeType());
+        }
+        ContainerNode<?> node = (ContainerNode<?>) sharedRoot;
+        for (int i = 0; i < path.length; i++) {
+            final int index = node.isArray() ? parseIndex(path[i]) : -1;
+            final JsonNode child = node.isArray() ? node.get(index) : node.get(path[i]);
+            if (child == null || !child.isContainerNode()) {
+                throw new IllegalArgumentException("no container at " + Arrays.asList(path).subList(0, i + 1));
+            }
+            if (child instanceof FilteredJsonNode) {
+                final ContainerNode<?> copy = ((FilteredJsonNode) child).copyLevel();
+                if (node.isArray()) {
+                    ((ArrayNode) node).set(index, copy);
+                } else {
+                    ((ObjectNode) node).set(path[i], copy);
+                }
+                node = copy;
+            } else {
+                node = (ContainerNode<?>) child;
+            }
+        }
+        return node;
+    }
+
+    private static int parseIndex(final String text) {
+        try {
+            return Integer.parseInt(text);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("not an array index: " + text, e);
+        }
+    }
+
+    /**
+     * Shadow a sub-tree from the given tree in parallel.
+     *
+     * @see #copyTree(com.fasterxml.jackson.databind.JsonNode, CompiledFilter, ParallelOptions)
+     * @see #shadowTree(com.fasterxml.jackson.databind.JsonNode, java.util.List)
+     */
+    public static JsonNode shadowTree(final JsonNode root, final CompiledFilter filter, final ParallelOptions options) {
+        return ParallelTreeCopier.copyOrShadow(root, filter, false, null, options);
+    }
+
+    /**
+     * Write the sub-tree selected from the given tree straight to a generator, based on a compiled specification. The
+     * output is the same as that of writing the result of copyTree(), but no copy is built, so nothing is allocated
+     * for it. POJO nodes are written with the generator's codec.
+     *
+     * @see tv.xrm.jfilter.FilteredTreeCopier#copyTree(com.fasterxml.jackson.databind.JsonNode, CompiledFilter)
+     */
+    public static void writeFiltered(final JsonNode root, final CompiledFilter filter, final JsonGenerator generator)
+            throws IOException {
+        FilteredTreeWriter.write(root, filter.rootMatch(), false, generator, null);
+    }
+
+    /**
+     * Write the sub-tree selected from the given tree straight to a generator, based on a hierarchical specification: a
+     * tree of field names.
+     *
+     * @see #writeFiltered(com.fasterxml.jackson.databind.JsonNode, CompiledFilter, JsonGenerator)
+     */
+    public static void writeFiltered(final JsonNode root, final List<Node> nameNodes, final JsonGenerator generator)
+            throws IOException {
+        writeFiltered(root, CompiledFilter.compile(nameNodes), generator);
+    }
+
+    /**
+     * Write the sub-tree selected from the given tree to a stream as UTF-8 JSON. The stream is flushed but not closed,
+     * so that pooled streams and buffers can be reused.
+     *
+     * @see #writeFiltered(com.fasterxml.jackson.databind.JsonNode, CompiledFilter, JsonGenerator)
+     */
+    public static void writeFiltered(final JsonNode root, final CompiledFilter filter, final OutputStream out)
+            throws IOException {
+        try (JsonGenerator generator = FilteredTreeWriter.FACTORY.createGenerator(out)) {
+            writeFiltered(root, filter, generator);
+        }
+    }
+
+    /**
+     * Write the sub-tree selected from the given tree as UTF-8 JSON bytes. The output buffer is kept per thread and
+     * reused, so only the returned array is allocated for the output.
+     *
+     * @see #writeFiltered(com.fasterxml.jackson.databind.JsonNode, CompiledFilter, JsonGenerator)
+     */
+    public static byte[] writeFilteredAsBytes(final JsonNode root, final CompiledFilter filter) {
+        try {
+            return FilteredTreeWriter.writeAsBytes(root, filter.rootMatch());
+        } catch (IOException e) {
+            // nothing to fail in memory, except for POJOs that can't be serialized
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Copy sub-trees from one tree with many compiled specifications (e.g. one per subscriber to an event), walking the
+     * tree only once: each node is visited once and added to all copies that select it, so the cost depends on the size
+     * of the tree plus that of the copies rather than on the number of filters. Scalars are shared between the copies
+     * (they're immutable). Fields may be added in a different order than by copyTree().
+     *
+     * @return one copy per filter, in the same order; null where a filter selects nothing from a scalar
+     * @see #copyTree(com.fasterxml.jackson.databind.JsonNode, CompiledFilter)
+     */
+    public static List<JsonNode> copyTrees(final JsonNode root, final FanOut fanOut) {
+        return Arrays.asList(MultiTreeCopier.copy(root, fanOut));
+    }
+
+    /**
+     * Copy sub-trees from one tree with many compiled specifications, walking the tree only once. When the same filters
+     * are applied to many trees, a FanOut made once is cheaper.
+     *
+     * @see #copyTrees(com.fasterxml.jackson.databind.JsonNode, FanOut)
+     */
+    public static List<JsonNode> copyTrees(final JsonNode root, final List<CompiledFilter> filters) {
+        return copyTrees(root, new FanOut(filters));
+    }
+
+    /**
+     * Copy sub-trees from many trees, based on the same compiled specification. The result has one copy per tree, in
+     * the same order, just as from copyTree() in a loop. Against copyTree() with a node list per tree, the filter is
+     * compiled only once; with a callback, one path stack serves the whole batch.
+     *
+     * @see tv.xrm.jfilter.FilteredTreeCopier#copyTree(com.fasterxml.jackson.databind.JsonNode, CompiledFilter)
+     */
+    public static List<JsonNode> copyAll(final Iterable<? extends JsonNode> roots, final CompiledFilter filter) {
+        return copyAll(roots, filter, (JsonNodeFactory) null);
+    }
+
+    /**
+     * Copy sub-trees from many trees, based on the same hierarchical specification: a tree of field names.
+     *
+     * @see #copyAll(Iterable, CompiledFilter)
+     */
+    public static List<JsonNode> copyAll(final Iterable<? extends JsonNode> roots, final List<Node> nameNodes) {
+        return copyAll(roots, CompiledFilter.compile(nameNodes));
+    }
+
+    /**
+     * Copy sub-trees from many trees, creating all objects and arrays of the copies with the given factory (rather than
+     * with those of the originals).
+     *
+     * @see #copyAll(Iterable, CompiledFilter)
+     */
+    public static List<JsonNode> copyAll(final Iterable<? extends JsonNode> roots, final CompiledFilter filter,
+            final JsonNodeFactory factory) {
+        final Match rootMatch = filter.rootMatch();
+        final List<JsonNode> copies = new ArrayList<>(sizeHint(roots));
+        for (final JsonNode root : roots) {
+            copies.add(copy(root, rootMatch, false, factory));
+        }
+        return copies;
     }
 
-    private static JsonNode copyOrShadow(final JsonNode root, final List<Node> nNodes, final boolean copy,
-            final List<String> currentPath, final IJsonObjectCallback objectModifierCallback,
-            boolean parentNodeIsWildcard) {
+    /**
+     * Copy sub-trees from many trees, with custom post processing of object nodes. The callback sees the same path
+     * list for all trees.
+     *
+     * @see #copyAll(Iterable, CompiledFilter)
+     */
+    public static List<JsonNode> copyAll(final Iterable<? extends JsonNode> roots, final CompiledFilter filter,
+            final IJsonObjectCallback objectModifierCallback) {
+        if (objectModifierCallback == null) {
+            return copyAll(roots, filter);
+        }
+        final Match rootMatch = filter.rootMatch();
+        final PathStack currentPath = new PathStack();
+        final List<JsonNode> copies = new ArrayList<>(sizeHint(roots));
+        for (final JsonNode root : roots) {
+            copies.add(copy(root, rootMatch, false, null, currentPath, objectModifierCallback));
+        }
+        return copies;
+    }
+
+    /**
+     * Copy sub-trees from many trees in parallel: the trees are distributed over fork/join tasks, and large arrays and
+     * wide objects within them are split as in copyTree() with ParallelOptions. The result is in the original order.
+     *
+     * @see #copyTree(com.fasterxml.jackson.databind.JsonNode, CompiledFilter, ParallelOptions)
+     */
+    public static List<JsonNode> copyAll(final Iterable<? extends JsonNode> roots, final CompiledFilter filter,
+            final ParallelOptions options) {
+        final List<JsonNode> list = new ArrayList<>(sizeHint(roots));
+        for (final JsonNode root : roots) {
+            list.add(root);
+        }
+        return ParallelTreeCopier.copyAll(list, filter, options);
+    }
+
+    /**
+     * Lazily copy sub-trees from a sequence of trees: each tree is copied when the returned iterator gets to it, so
+     * neither the originals nor the copies need to be in memory all at once.
+     *
+     * @see #copyAll(Iterable, CompiledFilter)
+     */
+    public static Iterator<JsonNode> copyEach(final Iterator<? extends JsonNode> roots, final CompiledFilter filter) {
+        final Match rootMatch = filter.rootMatch();
+        return new Iterator<JsonNode>() {
+            @Override
+            public boolean hasNext() {
+                return roots.hasNext();
+            }
+
+            @Override
+            public JsonNode next() {
+                return copy(roots.next(), rootMatch, false, null);
+            }
+
+            @Override
+            public void remove() {
+                roots.remove();
+            }
+        };
+    }
+
+    private static int sizeHint(final Iterable<?> roots) {
+        return roots instanceof Collection ? ((Collection<?>) roots).size() : 16;
+    }
+
+    // Four specialized walks: copy, shadow and share without a callback don't track the path at all, copying with a
+    // callback maintains it on a PathStack. Keeping them apart spares the JIT dead branches in the recursion.
+
+    // a null factory means: that of the original container
+
+    static JsonNode copy(final JsonNode root, final Match match, final boolean element,
+            final JsonNodeFactory factory) {
+        final CompiledFilter filter = match.getFilter();
         if (root.isObject()) {
-            final ObjectNode object = (ObjectNode) root;
-            if (!nNodes.isEmpty()) {
-                final ObjectNode newObject = object.objectNode();
-                currentPath.add(null);
-                for (final Node node : nNodes) {
-                    final String name = node.getName();
-                    currentPath.set(currentPath.size() - 1, name);
-                    if (isNotWildcard(name)) {
-                        // specific name
-                        final JsonNode child = object.get(name);
-                        if (child != null) {
-                            JsonNode copyOrShadow = copyOrShadow(child, node.getChildren(), copy, currentPath,
-                                    objectModifierCallback, false);
-                            if (copyOrShadow != null) {
-                                newObject.set(name, copyOrShadow);
-                            }
-                        }
-                    } else {
-                        // "all children"
-                        final Iterator<Map.Entry<String, JsonNode>> children = object.fields();
-                        while (children.hasNext()) {
-                            final Map.Entry<String, JsonNode> child = children.next();
-                            JsonNode copyOrShadow = copyOrShadow(child.getValue(), node.getChildren(), copy,
-                                    currentPath, objectModifierCallback, true);
-                            if (copyOrShadow != null) {
-                                newObject.set(child.getKey(), copyOrShadow);
-                            }
-                        }
+            if (filter.copiesAll()) {
+                // no further names, but further objects down this branch - copy fully
+                return deepCopy(root, factory);
+            }
+            final ObjectNode newObject = newObject(root, factory);
+            if (filter.hasWildcard()) {
+                // "all children", possibly with specific ones treated differently
+                final Iterator<Map.Entry<String, JsonNode>> children = root.fields();
+                while (children.hasNext()) {
+                    final Map.Entry<String, JsonNode> child = children.next();
+                    final Match childMatch = filter.match(child.getKey());
+                    if (childMatch != null) {
+                        setField(newObject, child.getKey(), copy(child.getValue(), childMatch, false, factory),
+                                childMatch);
+                    }
+                }
+            } else {
+                // specific names
+                final String[] names = filter.names();
+                for (int i = 0; i < names.length; i++) {
+                    final JsonNode child = root.get(names[i]);
+                    if (child != null) {
+                        final Match childMatch = filter.namedMatch(i);
+                        setField(newObject, names[i], copy(child, childMatch, false, factory), childMatch);
+                    }
+                }
+            }
+            return newObject;
+        } else if (root.isArray()) {
+            final ArrayNode newArrayNode = newArray(root, factory);
+            final ElementSelection selection = match.getSelection();
+            if (selection == null) {
+                for (int i = 0, n = root.size(); i < n; i++) {
+                    addElement(newArrayNode, copy(root.get(i), match, true, factory));
+                }
+            } else {
+                // only the selected positions are visited
+                final int n = root.size();
+                for (int i = selection.next(0, n); i >= 0; i = selection.next(i + 1, n)) {
+                    final JsonNode e = root.get(i);
+                    final Match elementMatch = selection.match(i, n, e);
+                    if (elementMatch != null) {
+                        addElement(newArrayNode, copy(e, elementMatch, true, factory));
+                    }
+                }
+            }
+            return newArrayNode;
+        } else {
+            // a non-object/non-array is always copied fully (names do not apply - our processing stops here)
+            return keepsScalar(match, element) ? root.deepCopy() : null;
+        }
+    }
+
+    static JsonNode shadow(final JsonNode root, final Match match, final boolean element) {
+        final CompiledFilter filter = match.getFilter();
+        if (root.isObject()) {
+            if (filter.copiesAll()) {
+                return root;
+            }
+            final ObjectNode newObject = ((ObjectNode) root).objectNode();
+            if (filter.hasWildcard()) {
+                final Iterator<Map.Entry<String, JsonNode>> children = root.fields();
+                while (children.hasNext()) {
+                    final Map.Entry<String, JsonNode> child = children.next();
+                    final Match childMatch = filter.match(child.getKey());
+                    if (childMatch != null) {
+                        setField(newObject, child.getKey(), shadow(child.getValue(), childMatch, false), childMatch);
+                    }
+                }
+            } else {
+                final String[] names = filter.names();
+                for (int i = 0; i < names.length; i++) {
+                    final JsonNode child = root.get(names[i]);
+                    if (child != null) {
+                        final Match childMatch = filter.namedMatch(i);
+                        setField(newObject, names[i], shadow(child, childMatch, false), childMatch);
+                    }
+                }
+            }
+            return newObject;
+        } else if (root.isArray()) {
+            final ArrayNode newArrayNode = ((ArrayNode) root).arrayNode();
+            final ElementSelection selection = match.getSelection();
+            if (selection == null) {
+                for (int i = 0, n = root.size(); i < n; i++) {
+                    addElement(newArrayNode, shadow(root.get(i), match, true));
+                }
+            } else {
+                final int n = root.size();
+                for (int i = selection.next(0, n); i >= 0; i = selection.next(i + 1, n)) {
+                    final JsonNode e = root.get(i);
+                    final Match elementMatch = selection.match(i, n, e);
+                    if (elementMatch != null) {
+                        addElement(newArrayNode, shadow(e, elementMatch, true));
                     }
                 }
-                currentPath.remove(currentPath.size() - 1);
-                if (objectModifierCallback != null) {
-                    objectModifierCallback.postProcessObjectNode(newObject, object, currentPath);
+            }
+            return newArrayNode;
+        } else {
+            return keepsScalar(match, element) ? root : null;
+        }
+    }
+
+    static JsonNode share(final JsonNode root, final Match match, final boolean element) {
+        final CompiledFilter filter = match.getFilter();
+        if (root.isObject()) {
+            if (filter.copiesAll()) {
+                return FilteredJsonNode.readOnly(root);
+            }
+            final ObjectNode newObject = ((ObjectNode) root).objectNode();
+            if (filter.hasWildcard()) {
+                final Iterator<Map.Entry<String, JsonNode>> children = root.fields();
+                while (children.hasNext()) {
+                    final Map.Entry<String, JsonNode> child = children.next();
+                    final Match childMatch = filter.match(child.getKey());
+                    if (childMatch != null) {
+                        setField(newObject, child.getKey(), share(child.getValue(), childMatch, false), childMatch);
+                    }
                 }
-                return newObject;
             } else {
-                // no further names, but further objects down this branch - copy/shadow fully
-                JsonNode c = deepCopyOrRef(root, copy);
-                if (objectModifierCallback != null && c.isObject()) {
-                    objectModifierCallback.postProcessObjectNode((ObjectNode) c, object, currentPath);
+                final String[] names = filter.names();
+                for (int i = 0; i < names.length; i++) {
+                    final JsonNode child = root.get(names[i]);
+                    if (child != null) {
+                        final Match childMatch = filter.namedMatch(i);
+                        setField(newObject, names[i], share(child, childMatch, false), childMatch);
+                    }
                 }
-                return c;
             }
+            return newObject;
         } else if (root.isArray()) {
-            ArrayNode a = (ArrayNode) root;
-            ArrayNode newArrayNode = a.arrayNode();
+            final ArrayNode newArrayNode = ((ArrayNode) root).arrayNode();
+            final ElementSelection selection = match.getSelection();
+            if (selection == null) {
+                for (int i = 0, n = root.size(); i < n; i++) {
+                    addElement(newArrayNode, share(root.get(i), match, true));
+                }
+            } else {
+                final int n = root.size();
+                for (int i = selection.next(0, n); i >= 0; i = selection.next(i + 1, n)) {
+                    final JsonNode e = root.get(i);
+                    final Match elementMatch = selection.match(i, n, e);
+                    if (elementMatch != null) {
+                        addElement(newArrayNode, share(e, elementMatch, true));
+                    }
+                }
+            }
+            return newArrayNode;
+        } else {
+            return keepsScalar(match, element) ? root : null;
+        }
+    }
 
-            Iterator<JsonNode> iterator = a.elements();
-            while (iterator.hasNext()) {
-                JsonNode copyOrShadow = copyOrShadow(iterator.next(), nNodes, copy, currentPath,
-                        objectModifierCallback, parentNodeIsWildcard);
-                if (copyOrShadow != null && !copyOrShadow.isNull()) {
-                    newArrayNode.add(copyOrShadow);
+    static JsonNode copy(final JsonNode root, final Match match, final boolean element,
+            final JsonNodeFactory factory, final PathStack currentPath,
+            final IJsonObjectCallback objectModifierCallback) {
+        final CompiledFilter filter = match.getFilter();
+        if (root.isObject()) {
+            final ObjectNode object = (ObjectNode) root;
+            final ObjectNode newObject;
+            if (filter.copiesAll()) {
+                newObject = (ObjectNode) deepCopy(object, factory);
+            } else {
+                newObject = newObject(object, factory);
+                currentPath.push(null);
+                if (filter.hasWildcard()) {
+                    final Iterator<Map.Entry<String, JsonNode>> children = object.fields();
+                    while (children.hasNext()) {
+                        final Map.Entry<String, JsonNode> child = children.next();
+                        final Match childMatch = filter.match(child.getKey());
+                        if (childMatch != null) {
+                            copyField(newObject, child.getKey(), child.getValue(), childMatch, factory,
+                                    currentPath, objectModifierCallback);
+                        }
+                    }
+                } else {
+                    final String[] names = filter.names();
+                    for (int i = 0; i < names.length; i++) {
+                        final JsonNode child = object.get(names[i]);
+                        if (child != null) {
+                            copyField(newObject, names[i], child, filter.namedMatch(i), factory, currentPath,
+                                    objectModifierCallback);
+                        }
+                    }
+                }
+                currentPath.pop();
+            }
+            objectModifierCallback.postProcessObjectNode(newObject, object, currentPath);
+            return newObject;
+        } else if (root.isArray()) {
+            final ArrayNode newArrayNode = newArray(root, factory);
+            final ElementSelection selection = match.getSelection();
+            if (selection == null) {
+                for (int i = 0, n = root.size(); i < n; i++) {
+                    addElement(newArrayNode,
+                            copy(root.get(i), match, true, factory, currentPath, objectModifierCallback));
+                }
+            } else {
+                final int n = root.size();
+                for (int i = selection.next(0, n); i >= 0; i = selection.next(i + 1, n)) {
+                    final JsonNode e = root.get(i);
+                    final Match elementMatch = selection.match(i, n, e);
+                    if (elementMatch != null) {
+                        addElement(newArrayNode,
+                                copy(e, elementMatch, true, factory, currentPath, objectModifierCallback));
+                    }
                 }
             }
             return newArrayNode;
         } else {
-            if (!parentNodeIsWildcard && nNodes != null && !nNodes.isEmpty()) {
-                return null;
+            return keepsScalar(match, element) ? root.deepCopy() : null;
+        }
+    }
+
+    private static void copyField(final ObjectNode newObject, final String name, final JsonNode child,
+            final Match match, final JsonNodeFactory factory, final PathStack currentPath,
+            final IJsonObjectCallback objectModifierCallback) {
+        currentPath.setTop(match.isWildcard() ? WILDCARD : name);
+        setField(newObject, name, copy(child, match, false, factory, currentPath, objectModifierCallback), match);
+    }
+
+    private static ObjectNode newObject(final JsonNode original, final JsonNodeFactory factory) {
+        return factory == null ? ((ObjectNode) original).objectNode() : factory.objectNode();
+    }
+
+    private static ArrayNode newArray(final JsonNode original, final JsonNodeFactory factory) {
+        return factory == null ? ((ArrayNode) original).arrayNode() : factory.arrayNode();
+    }
+
+    private static JsonNode deepCopy(final JsonNode node, final JsonNodeFactory factory) {
+        if (factory == null || !node.isContainerNode()) {
+            return node.deepCopy();
+        }
+        if (node.isObject()) {
+            final ObjectNode newObject = factory.objectNode();
+            final Iterator<Map.Entry<String, JsonNode>> children = node.fields();
+            while (children.hasNext()) {
+                final Map.Entry<String, JsonNode> child = children.next();
+                newObject.set(child.getKey(), deepCopy(child.getValue(), factory));
             }
-            // a non-object/non-array is always copied/shadowed fully (names do not apply - our processing stops here)
-            return deepCopyOrRef(root, copy);
+            return newObject;
+        }
+        final ArrayNode newArrayNode = factory.arrayNode();
+        for (int i = 0, n = node.size(); i < n; i++) {
+            newArrayNode.add(deepCopy(node.get(i), factory));
+        }
+        return newArrayNode;
+    }
+
+    static boolean keepsScalar(final Match match, final boolean element) {
+        return element ? match.keepsElementScalars() : match.keepsScalar();
+    }
+
+    static void setField(final ObjectNode newObject, final String name, final JsonNode value) {
+        if (value != null) {
+            newObject.set(name, value);
         }
     }
 
-    private static boolean isNotWildcard(final Object name) {
-        return !name.equals(WILDCARD);
+    /**
+     * Set a selected field, transformed as the match says.
+     */
+    static void setField(final ObjectNode newObject, final String name, final JsonNode value, final Match match) {
+        final FieldTransform transform = match.getTransform();
+        if (transform == null) {
+            setField(newObject, name, value);
+        } else if (value != null) {
+            newObject.set(transform.name(name), transform.apply(value));
+        }
     }
 
-    private static JsonNode deepCopyOrRef(final JsonNode root, final boolean copy) {
-        return copy ? root.deepCopy() : root;
+    static void addElement(final ArrayNode newArrayNode, final JsonNode value) {
+        if (value != null && !value.isNull()) {
+            newArrayNode.add(value);
+        }
     }
 
 }
@@ -0,0 +1,230 @@
+package tv.xrm.jfilter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.JsonSerializable;
+import com.fasterxml.jackson.databind.SerializerProvider;
+
+import tv.xrm.jfilter.CompiledFilter.ElementSelection;
+import tv.xrm.jfilter.CompiledFilter.Match;
+
+/**
+ * Writes the filtered form of a tree to a generator, without building it first. Same selection as FilteredTreeCopier.
+ */
+final class FilteredTreeWriter {
+
+    // generators don't close the streams they write to; buffers are recycled per thread
+    static final JsonFactory FACTORY = new JsonFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    private static final ThreadLocal<ReusableOutput> OUTPUT = new ThreadLocal<ReusableOutput>() {
+        @Override
+        protected ReusableOutput initialValue() {
+            return new ReusableOutput();
+        }
+    };
+
+    private FilteredTreeWriter() {
+    }
+
+    /**
+     * @return false if nothing was written because the (scalar) node isn't selected
+     */
+    static boolean write(final JsonNode root, final Match match, final boolean element,
+            final JsonGenerator generator, final SerializerProvider provider) throws IOException {
+        final CompiledFilter filter = match.getFilter();
+        if (root.isObject()) {
+            if (filter.copiesAll()) {
+                writeUnfiltered(root, generator, provider);
+                return true;
+            }
+            generator.writeStartObject();
+            if (filter.hasWildcard()) {
+                final Iterator<Map.Entry<String, JsonNode>> children = root.fields();
+                while (children.hasNext()) {
+                    final Map.Entry<String, JsonNode> child = children.next();
+                    final Match childMatch = filter.match(child.getKey());
+                    if (childMatch != null) {
+                        writeField(child.getKey(), child.getValue(), childMatch, generator, provider);
+                    }
+                }
+            } else {
+                final String[] names = filter.names();
+                for (int i = 0; i < names.length; i++) {
+                    final JsonNode child = root.get(names[i]);
+                    if (child != null) {
+                        writeField(names[i], child, filter.namedMatch(i), generator, provider);
+                    }
+                }
+            }
+            generator.writeEndObject();
+            return true;
+        } else if (root.isArray()) {
+            generator.writeStartArray();
+            final ElementSelection selection = match.getSelection();
+            if (selection == null) {
+                for (int i = 0, n = root.size(); i < n; i++) {
+                    final JsonNode e = root.get(i);
+                    if (!e.isNull()) {
+                        write(e, match, true, generator, provider);
+                    }
+                }
+            } else {
+                final int n = root.size();
+                for (int i = selection.next(0, n); i >= 0; i = selection.next(i + 1, n)) {
+                    final JsonNode e = root.get(i);
+                    final Match elementMatch = selection.match(i, n, e);
+                    if (elementMatch != null && !e.isNull()) {
+                        write(e, elementMatch, true, generator, provider);
+                    }
+                }
+            }
+            generator.writeEndArray();
+            return true;
+        } else {
+            if (!(element ? match.keepsElementScalars() : match.keepsScalar())) {
+                return false;
+            }
+            writeScalar(root, generator, provider);
+            return true;
+        }
+    }
+
+    /**
+     * Write the filtered form of a tree to a byte array, through an output buffer that's kept per thread, so that only
+     * the result is allocated.
+     */
+    static byte[] writeAsBytes(final JsonNode root, final Match match) throws IOException {
+        final ReusableOutput out = OUTPUT.get();
+        try (JsonGenerator generator = FACTORY.createGenerator(out)) {
+            write(root, match, false, generator, null);
+        } catch (IOException | RuntimeException e) {
+            out.recycle();
+            throw e;
+        }
+        final byte[] bytes = out.toByteArray();
+        out.recycle();
+        return bytes;
+    }
+
+    static void writeField(final String name, final JsonNode child, final Match match,
+            final JsonGenerator generator, final SerializerProvider provider) throws IOException {
+        final FieldTransform transform = match.getTransform();
+        if (transform != null) {
+            // transforms work on trees; a shadow of the selected part will do, as it's only written
+            final JsonNode selected = FilteredTreeCopier.shadow(child, match, false);
+            if (selected != null) {
+                generator.writeFieldName(transform.name(name));
+                writeUnfiltered(transform.apply(selected), generator, provider);
+            }
+            return;
+        }
+        if (child.isContainerNode() || match.keepsScalar()) {
+            generator.writeFieldName(name);
+            write(child, match, false, generator, provider);
+        }
+    }
+
+    /**
+     * Write a node as is. Unlike JsonNode.serialize(), this doesn't need a serializer provider, except for POJO nodes.
+     */
+    static void writeUnfiltered(final JsonNode node, final JsonGenerator generator, final SerializerProvider provider)
+            throws IOException {
+        if (node.isObject()) {
+            generator.writeStartObject();
+            final Iterator<Map.Entry<String, JsonNode>> children = node.fields();
+            while (children.hasNext()) {
+                final Map.Entry<String, JsonNode> child = children.next();
+                generator.writeFieldName(child.getKey());
+                writeUnfiltered(child.getValue(), generator, provider);
+            }
+            generator.writeEndObject();
+        } else if (node.isArray()) {
+            generator.writeStartArray();
+            for (int i = 0, n = node.size(); i < n; i++) {
+                writeUnfiltered(node.get(i), generator, provider);
+            }
+            generator.writeEndArray();
+        } else {
+            writeScalar(node, generator, provider);
+        }
+    }
+
+    private static void writeScalar(final JsonNode node, final JsonGenerator generator,
+            final SerializerProvider provider) throws IOException {
+        if (provider != null && node instanceof JsonSerializable) {
+            ((JsonSerializable) node).serialize(generator, provider);
+            return;
+        }
+        switch (node.getNodeType()) {
+        case STRING:
+            generator.writeString(node.textValue());
+            break;
+        case BOOLEAN:
+            generator.writeBoolean(node.booleanValue());
+            break;
+        case NULL:
+            generator.writeNull();
+            break;
+        case BINARY:
+            generator.writeBinary(node.binaryValue());
+            break;
+        case NUMBER:
+            writeNumber(node, generator);
+            break;
+        default:
+            // POJOs and anything exotic: up to the generator's codec
+            generator.writeTree(node);
+            break;
+        }
+    }
+
+    /**
+     * Growable output buffer for one thread.
+     */
+    private static final class ReusableOutput extends ByteArrayOutputStream {
+        private static final int INITIAL_SIZE = 4096;
+        // larger buffers aren't kept, so that a single huge result doesn't stay in memory
+        private static final int MAX_RETAINED_SIZE = 256 * 1024;
+
+        private ReusableOutput() {
+            super(INITIAL_SIZE);
+        }
+
+        private void recycle() {
+            if (buf.length > MAX_RETAINED_SIZE) {
+                buf = new byte[INITIAL_SIZE];
+            }
+            reset();
+        }
+    }
+
+    private static void writeNumber(final JsonNode node, final JsonGenerator generator) throws IOException {
+        switch (node.numberType()) {
+        case INT:
+            generator.writeNumber(node.intValue());
+            break;
+        case LONG:
+            generator.writeNumber(node.longValue());
+            break;
+        case BIG_INTEGER:
+            generator.writeNumber(node.bigIntegerValue());
+            break;
+        case FLOAT:
+            generator.writeNumber(node.floatValue());
+            break;
+        case BIG_DECIMAL:
+            generator.writeNumber(node.decimalValue());
+            break;
+        default:
+            generator.writeNumber(node.doubleValue());
+            break;
+        }
+    }
+
+}
@@ -11,7 +11,8 @@ public interface IJsonObjectCallback {
      *
      * @param newNode
      * @param existingNode
-     * @param currentPath
+     * @param currentPath field names leading to the object (FilteredTreeCopier.WILDCARD where a wildcard matched);
+     *            read-only and only valid during the call, copy it to keep it
      */
     void postProcessObjectNode(final ObjectNode newNode, final ObjectNode existingNode, final List<String> currentPath);
 }
@@ -0,0 +1,87 @@
+package tv.xrm.jfilter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Input stream over a byte buffer, or over a file that is mapped into memory window by window, so that files beyond the
+ * 2GB limit of a single mapping can be read. Reads are bulk copies from the buffer, e.g. into a parser's input buffer.
+ */
+final class MappedInputStream extends InputStream {
+
+    // well below the limit of a single mapping; windows are unmapped once collected
+    static final long WINDOW_SIZE = 1L << 30;
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    // null if reading a buffer
+    private final FileChannel channel;
+    private final long windowSize;
+    private final long size;
+    // file position where the current window ends
+    private long windowEnd;
+    private ByteBuffer window;
+
+    MappedInputStream(final FileChannel channel, final long windowSize) throws IOException {
+        this.channel = channel;
+        this.windowSize = windowSize;
+        this.size = channel.size();
+        this.window = EMPTY;
+    }
+
+    /**
+     * Read the remaining bytes of the buffer, without changing its position.
+     */
+    MappedInputStream(final ByteBuffer buffer) {
+        this.channel = null;
+        this.windowSize = 0;
+        this.size = 0;
+        this.window = buffer.duplicate();
+    }
+
+    @Override
+    public int read() throws IOException {
+        return fill() ? window.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        final int n = Math.min(len, window.remaining());
+        window.get(b, off, n);
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return window.remaining();
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = EMPTY;
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    private boolean fill() throws IOException {
+        while (!window.hasRemaining()) {
+            if (channel == null || windowEnd >= size) {
+                return false;
+            }
+            final long length = Math.min(windowSize, size - windowEnd);
+            window = channel.map(FileChannel.MapMode.READ_ONLY, windowEnd, length);
+            windowEnd += length;
+        }
+        return true;
+    }
+
+}
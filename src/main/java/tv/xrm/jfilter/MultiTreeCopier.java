@@ -0,0 +1,365 @@
+package tv.xrm.jfilter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import tv.xrm.jfilter.CompiledFilter.ElementSelection;
+import tv.xrm.jfilter.CompiledFilter.Match;
+
+/**
+ * Copies with several filters in one walk of the source tree: each node is visited once, with the route saying which
+ * filters want it, and added to each of their copies. Scalars are immutable, so copies share them; containers selected
+ * in full are copied once per filter, as copies must be independent.
+ * <p/>
+ * Not thread-safe: one instance per walk. Routes are shared (see FanOut).
+ */
+final class MultiTreeCopier {
+
+    // copies made per nesting level, reused for all nodes of that level
+    private final List<JsonNode[]> results = new ArrayList<>();
+
+    // element route being looked up
+    private final int[] parents;
+    private final Match[] matches;
+    private final Key probe;
+
+    private MultiTreeCopier(final int size) {
+        this.parents = new int[size];
+        this.matches = new Match[size];
+        this.probe = new Key(parents, matches, 0);
+    }
+
+    /**
+     * @return one copy per filter; null where a filter selects nothing from a scalar
+     */
+    static JsonNode[] copy(final JsonNode root, final FanOut fanOut) {
+        final MultiTreeCopier copier = new MultiTreeCopier(fanOut.size());
+        copier.copy(root, fanOut.root(), false, 0);
+        return Arrays.copyOf(copier.results.get(0), fanOut.size());
+    }
+
+    private JsonNode[] results(final int depth) {
+        if (depth == results.size()) {
+            results.add(new JsonNode[parents.length]);
+        }
+        return results.get(depth);
+    }
+
+    /**
+     * Copy a node for each entry of the route, into the results of the given depth.
+     */
+    private void copy(final JsonNode node, final Route route, final boolean element, final int depth) {
+        final JsonNode[] copies = results(depth);
+        final int n = route.matches.length;
+        if (node.isObject()) {
+            for (int k = 0; k < n; k++) {
+                copies[k] = route.matches[k].getFilter().copiesAll() ? node.deepCopy()
+                        : ((ObjectNode) node).objectNode();
+            }
+            if (!route.walk) {
+                // all take the object as is
+                return;
+            }
+            if (route.wildcard || node.size() <= route.names.length) {
+                final Iterator<Map.Entry<String, JsonNode>> children = node.fields();
+                while (children.hasNext()) {
+                    final Map.Entry<String, JsonNode> child = children.next();
+                    copyField(child.getKey(), child.getValue(), route, depth);
+                }
+            } else {
+                // specific names only
+                for (final String name : route.names) {
+                    final JsonNode child = node.get(name);
+                    if (child != null) {
+                        copyField(name, child, route, depth);
+                    }
+                }
+            }
+        } else if (node.isArray()) {
+            for (int k = 0; k < n; k++) {
+                copies[k] = ((ArrayNode) node).arrayNode();
+            }
+            copyElements((ArrayNode) node, route, depth);
+        } else {
+            for (int k = 0; k < n; k++) {
+                copies[k] = FilteredTreeCopier.keepsScalar(route.matches[k], element) ? node : null;
+            }
+        }
+    }
+
+    private void copyField(final String name, final JsonNode value, final Route route, final int depth) {
+        final Route child = route.child(name);
+        if (child.matches.length == 0) {
+            return;
+        }
+        copy(value, child, false, depth + 1);
+        final JsonNode[] copies = results.get(depth);
+        final JsonNode[] childCopies = results.get(depth + 1);
+        for (int c = 0; c < child.matches.length; c++) {
+            FilteredTreeCopier.setField((ObjectNode) copies[child.parents[c]], name, childCopies[c],
+                    child.matches[c]);
+        }
+    }
+
+    private void copyElements(final ArrayNode node, final Route route, final int depth) {
+        final int size = node.size();
+        if (!route.selections) {
+            final Route child = route.elements();
+            for (int e = 0; e < size; e++) {
+                copyElement(node.get(e), child, depth);
+            }
+            return;
+        }
+        for (int e = route.next(0, size); e >= 0; e = route.next(e + 1, size)) {
+            final JsonNode element = node.get(e);
+            int count = 0;
+            for (int k = 0; k < route.matches.length; k++) {
+                final Match match = route.matches[k];
+                final ElementSelection selection = match.getSelection();
+                final Match elementMatch;
+                if (selection == null) {
+                    elementMatch = match;
+                } else {
+                    elementMatch = selection.next(e, size) == e ? selection.match(e, size, element) : null;
+                }
+                if (elementMatch != null) {
+                    parents[count] = k;
+                    matches[count] = elementMatch;
+                    count++;
+                }
+            }
+            if (count > 0) {
+                probe.set(count);
+                copyElement(element, route.element(probe), depth);
+            }
+        }
+    }
+
+    private void copyElement(final JsonNode element, final Route child, final int depth) {
+        copy(element, child, true, depth + 1);
+        final JsonNode[] copies = results.get(depth);
+        final JsonNode[] childCopies = results.get(depth + 1);
+        for (int c = 0; c < child.matches.length; c++) {
+            FilteredTreeCopier.addElement((ArrayNode) copies[child.parents[c]], childCopies[c]);
+        }
+    }
+
+    /**
+     * The filters wanting a node, as matches and the positions of their copies among those of the parent node.
+     * Routes to children are made when first needed and kept, so they're worked out once per position in the
+     * specifications rather than per node. There's a route per name that any filter names (or excludes); all other
+     * names lead to the same route.
+     */
+    static final class Route {
+
+        private static final Route NONE = new Route(new int[0], new Match[0]);
+
+        private final int[] parents;
+        private final Match[] matches;
+
+        // some filter looks at fields, rather than taking an object as is
+        private final boolean walk;
+        private final boolean wildcard;
+        // names selected by any filter looking at fields
+        private final String[] names;
+        // names treated specifically by any filter looking at fields
+        private final Set<String> mentioned;
+        // some filter selects elements of arrays
+        private final boolean selections;
+
+        private final ConcurrentMap<String, Route> byName = new ConcurrentHashMap<>();
+        private volatile Route otherNames;
+        private volatile Route elements;
+        private final ConcurrentMap<Key, Route> selected = new ConcurrentHashMap<>();
+
+        Route(final int[] parents, final Match[] matches) {
+            this.parents = parents;
+            this.matches = matches;
+            boolean walk = false;
+            boolean wildcard = false;
+            boolean selections = false;
+            final Set<String> names = new LinkedHashSet<>();
+            final Set<String> mentioned = new HashSet<>();
+            for (final Match match : matches) {
+                final CompiledFilter filter = match.getFilter();
+                selections |= match.getSelection() != null;
+                if (!filter.copiesAll()) {
+                    walk = true;
+                    wildcard |= filter.hasWildcard();
+                    names.addAll(Arrays.asList(filter.names()));
+                    mentioned.addAll(Arrays.asList(filter.names()));
+                    mentioned.addAll(Arrays.asList(filter.excludedNames()));
+                }
+            }
+            this.walk = walk;
+            this.wildcard = wildcard;
+            this.names = names.toArray(new String[names.size()]);
+            this.mentioned = mentioned;
+            this.selections = selections;
+        }
+
+        private Route child(final String name) {
+            if (!mentioned.contains(name)) {
+                // wildcards only; races make equal routes, either of which is fine
+                Route route = otherNames;
+                if (route == null) {
+                    route = fieldRoute(name);
+                    otherNames = route;
+                }
+                return route;
+            }
+            Route route = byName.get(name);
+            if (route == null) {
+                route = fieldRoute(name);
+                final Route existing = byName.putIfAbsent(name, route);
+                if (existing != null) {
+                    route = existing;
+                }
+            }
+            return route;
+        }
+
+        private Route fieldRoute(final String name) {
+            final int[] childParents = new int[matches.length];
+            final Match[] childMatches = new Match[matches.length];
+            int count = 0;
+            for (int k = 0; k < matches.length; k++) {
+                final CompiledFilter filter = matches[k].getFilter();
+                if (!filter.copiesAll()) {
+                    final Match match = filter.match(name);
+                    if (match != null) {
+                        childParents[count] = k;
+                        childMatches[count] = match;
+                        count++;
+                    }
+                }
+            }
+            return route(childParents, childMatches, count);
+        }
+
+        /**
+         * @return the route for all elements of an array, if no filter selects elements
+         */
+        private Route elements() {
+            Route route = elements;
+            if (route == null) {
+                final int[] childParents = new int[matches.length];
+                for (int k = 0; k < childParents.length; k++) {
+                    childParents[k] = k;
+                }
+                route = new Route(childParents, matches);
+                elements = route;
+            }
+            return route;
+        }
+
+        /**
+         * @return the route for an element, given which filters select it and how; the key isn't referenced
+         */
+        private Route element(final Key key) {
+            Route route = selected.get(key);
+            if (route == null) {
+                final Key copy = key.copy();
+                route = new Route(copy.parents, copy.matches);
+                final Route existing = selected.putIfAbsent(copy, route);
+                if (existing != null) {
+                    route = existing;
+                }
+            }
+            return route;
+        }
+
+        /**
+         * @return the first position from the given one that any filter may select, or -1 if there's none
+         */
+        private int next(final int from, final int size) {
+            int next = -1;
+            for (final Match match : matches) {
+                final ElementSelection selection = match.getSelection();
+                if (selection == null) {
+                    return from < size ? from : -1;
+                }
+                final int position = selection.next(from, size);
+                if (position >= 0 && (next < 0 || position < next)) {
+                    next = position;
+                }
+            }
+            return next;
+        }
+
+        private static Route route(final int[] parents, final Match[] matches, final int count) {
+            if (count == 0) {
+                return NONE;
+            }
+            return new Route(Arrays.copyOf(parents, count), Arrays.copyOf(matches, count));
+        }
+    }
+
+    /**
+     * Which filters select an element and how; matches are told apart by identity. Only the first count entries of the
+     * arrays count, so a key can be filled in place for lookups.
+     */
+    private static final class Key {
+        private final int[] parents;
+        private final Match[] matches;
+        private int count;
+        private int hash;
+
+        private Key(final int[] parents, final Match[] matches, final int count) {
+            this.parents = parents;
+            this.matches = matches;
+            set(count);
+        }
+
+        private void set(final int count) {
+            this.count = count;
+            int h = count;
+            for (int i = 0; i < count; i++) {
+                h = 31 * (31 * h + parents[i]) + System.identityHashCode(matches[i]);
+            }
+            this.hash = h;
+        }
+
+        private Key copy() {
+            return new Key(Arrays.copyOf(parents, count), Arrays.copyOf(matches, count), count);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            if (hash != other.hash || count != other.count) {
+                return false;
+            }
+            for (int i = 0; i < count; i++) {
+                if (parents[i] != other.parents[i] || matches[i] != other.matches[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+}
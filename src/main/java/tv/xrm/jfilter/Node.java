@@ -2,11 +2,25 @@ package tv.xrm.jfilter;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 
 /**
  * Sub-tree specification node for FilteredTreeCopier. This is the "programmatic" specification.
+ * <p/>
+ * An excluding node (see {@link #excluding(String, Node...)}) takes away from what the other nodes on its level select:
+ * without children, the field is dropped; with children, excluding nodes below say what to drop inside it. A level with
+ * nothing but excluding nodes selects everything else.
+ * <p/>
+ * A node with an {@link ArraySelector} only applies to the selected elements of an array value; other nodes of the
+ * same name still apply to the array as a whole.
+ * <p/>
+ * A transformed node (see {@link #transformed(String, FieldTransform, List)}) changes the field it selects, e.g.
+ * redacts or renames it, in the copy.
+ * <p/>
+ * Nodes are immutable: constructors take a copy of the children, which getChildren() returns as an unmodifiable list.
+ * So nodes can be shared freely, also between threads, and sub-trees may be shared by several parents.
  *
  * @see tv.xrm.jfilter.FilteredTreeCopier
  * @see tv.xrm.jfilter.Spec
@@ -14,10 +28,47 @@ import java.util.Objects;
 public final class Node {
     private final String name;
     private final List<Node> children;
+    private final boolean excluded;
+    // null: none
+    private final ArraySelector selector;
+    // null: none
+    private final FieldTransform transform;
 
     public Node(final String name, final List<Node> children) {
+        this(name, null, copy(children), false);
+    }
+
+    /**
+     * Node for the selected elements of an array, e.g. new Node("items", ArraySelector.slice(0, 10), children).
+     */
+    public Node(final String name, final ArraySelector selector, final List<Node> children) {
+        this(name, Objects.requireNonNull(selector, "selector must not be null"), copy(children), false);
+        if (name.equals(FilteredTreeCopier.RECURSIVE_WILDCARD)) {
+            throw new IllegalArgumentException("a recursive wildcard can't have an array selector");
+        }
+    }
+
+    public Node(final String name, final ArraySelector selector, Node... children) {
+        this(name, selector, Arrays.asList(children));
+    }
+
+    /**
+     * The children aren't copied, so they must be an unmodifiable list no one else can change.
+     */
+    Node(final String name, final ArraySelector selector, final List<Node> children, final boolean excluded) {
+        this(name, selector, null, children, excluded);
+    }
+
+    /**
+     * The children aren't copied, so they must be an unmodifiable list no one else can change.
+     */
+    Node(final String name, final ArraySelector selector, final FieldTransform transform, final List<Node> children,
+            final boolean excluded) {
         this.name = Objects.requireNonNull(name, "name must not be null");
         this.children = Objects.requireNonNull(children, "children must not be null");
+        this.excluded = excluded;
+        this.selector = selector;
+        this.transform = transform;
     }
 
     public Node(final String name, Node... children) {
@@ -25,36 +76,105 @@ public final class Node {
     }
 
     public Node(final String name) {
-        this(name, new ArrayList<Node>());
+        this(name, null, Collections.<Node> emptyList(), false);
+    }
+
+    /**
+     * Excluding node: the field is dropped, or, given excluding children, parts of it.
+     */
+    public static Node excluding(final String name, final List<Node> children) {
+        final List<Node> copy = copy(children);
+        for (final Node child : copy) {
+            if (!child.excluded) {
+                throw new IllegalArgumentException("children of an excluding node must be excluding nodes: " + child);
+            }
+        }
+        return new Node(name, null, copy, true);
+    }
+
+    public static Node excluding(final String name, Node... children) {
+        return excluding(name, Arrays.asList(children));
+    }
+
+    /**
+     * Node whose field is transformed in the copy, after what's below it has been selected as usual.
+     */
+    public static Node transformed(final String name, final FieldTransform transform, final List<Node> children) {
+        checkTransform(name, Objects.requireNonNull(transform, "transform must not be null"));
+        return new Node(name, null, transform, copy(children), false);
+    }
+
+    public static Node transformed(final String name, final FieldTransform transform, Node... children) {
+        return transformed(name, transform, Arrays.asList(children));
+    }
+
+    static void checkTransform(final String name, final FieldTransform transform) {
+        if (name.equals(FilteredTreeCopier.RECURSIVE_WILDCARD)) {
+            throw new IllegalArgumentException("a recursive wildcard can't have a transform");
+        }
+        if (name.equals(FilteredTreeCopier.WILDCARD) && !transform.name(name).equals(name)) {
+            throw new IllegalArgumentException("a wildcard can't be renamed");
+        }
     }
 
     public String getName() {
         return name;
     }
 
+    /**
+     * @return the children, unmodifiable
+     */
     public List<Node> getChildren() {
         return children;
     }
 
-    public synchronized Node deepCopy() {
-        return deepCopy(this);
+    public boolean isExcluded() {
+        return excluded;
     }
 
-    private synchronized Node deepCopy(Node node) {
-        List<Node> otherChildren = node.children;
-        if (otherChildren != null) {
-            List<Node> childCopies = new ArrayList<>(otherChildren.size());
-            for (Node child : otherChildren) {
-                childCopies.add(deepCopy(child));
-            }
-            return new Node(node.getName(), childCopies);
+    /**
+     * @return the array selector, or null if the node applies to the whole value
+     */
+    public ArraySelector getSelector() {
+        return selector;
+    }
+
+    /**
+     * @return the transform of the selected field, or null if it's copied as it is
+     */
+    public FieldTransform getTransform() {
+        return transform;
+    }
+
+    /**
+     * @return an equal tree of new nodes; as nodes are immutable, there's usually no need for one
+     */
+    public Node deepCopy() {
+        final List<Node> childCopies = new ArrayList<>(children.size());
+        for (final Node child : children) {
+            childCopies.add(child.deepCopy());
+        }
+        return new Node(name, selector, transform, Collections.unmodifiableList(childCopies), excluded);
+    }
+
+    private static List<Node> copy(final List<Node> children) {
+        Objects.requireNonNull(children, "children must not be null");
+        for (final Node child : children) {
+            Objects.requireNonNull(child, "children must not contain null");
         }
-        return new Node(node.getName());
+        return Collections.unmodifiableList(new ArrayList<>(children));
     }
 
     @Override
     public String toString() {
-        StringBuilder b = new StringBuilder("'").append(name).append("'(");
+        StringBuilder b = new StringBuilder(excluded ? "!'" : "'").append(name).append('\'');
+        if (selector != null) {
+            b.append(selector);
+        }
+        if (transform != null) {
+            b.append("->").append(transform);
+        }
+        b.append('(');
 
         boolean first = true;
         for (Node child : children) {
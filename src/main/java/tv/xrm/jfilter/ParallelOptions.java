@@ -0,0 +1,63 @@
+package tv.xrm.jfilter;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Settings for filtering in parallel: arrays with at least threshold elements and objects with at least threshold
+ * fields are split into fork/join tasks. Below that, work isn't worth distributing.
+ *
+ * @see tv.xrm.jfilter.FilteredTreeCopier#copyTree(com.fasterxml.jackson.databind.JsonNode, CompiledFilter,
+ *      ParallelOptions)
+ */
+public final class ParallelOptions {
+
+    public static final int DEFAULT_THRESHOLD = 1024;
+
+    private final ForkJoinPool pool;
+
+    private final int threshold;
+
+    /**
+     * Default threshold, shared pool with one thread per processor.
+     */
+    public ParallelOptions() {
+        this(DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * Given threshold, shared pool with one thread per processor.
+     */
+    public ParallelOptions(final int threshold) {
+        this(null, threshold);
+    }
+
+    /**
+     * Given threshold and pool; a null pool means the shared one.
+     */
+    public ParallelOptions(final ForkJoinPool pool, final int threshold) {
+        if (threshold < 2) {
+            throw new IllegalArgumentException("threshold must be at least 2");
+        }
+        this.pool = pool;
+        this.threshold = threshold;
+    }
+
+    ForkJoinPool getPool() {
+        return pool == null ? SharedPool.INSTANCE : pool;
+    }
+
+    int getThreshold() {
+        return threshold;
+    }
+
+    @Override
+    public String toString() {
+        return "ParallelOptions[threshold=" + threshold + (pool == null ? "" : ", pool=" + pool) + "]";
+    }
+
+    private static final class SharedPool {
+        // worker threads of a ForkJoinPool are daemon threads, so this doesn't keep the JVM alive
+        private static final ForkJoinPool INSTANCE = new ForkJoinPool();
+    }
+
+}
@@ -0,0 +1,301 @@
+package tv.xrm.jfilter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import tv.xrm.jfilter.CompiledFilter.ElementSelection;
+import tv.xrm.jfilter.CompiledFilter.Match;
+
+/**
+ * Fork/join variant of the FilteredTreeCopier walk. Large arrays and wide objects are split into ranges that are
+ * filtered in separate tasks; results are put together in the original order. Each task builds its own containers, so
+ * no node is modified by more than one thread.
+ */
+final class ParallelTreeCopier {
+
+    private final boolean copy;
+    private final IJsonObjectCallback objectModifierCallback;
+    private final int threshold;
+
+    private ParallelTreeCopier(final boolean copy, final IJsonObjectCallback objectModifierCallback,
+            final int threshold) {
+        this.copy = copy;
+        this.objectModifierCallback = objectModifierCallback;
+        this.threshold = threshold;
+    }
+
+    static JsonNode copyOrShadow(final JsonNode root, final CompiledFilter filter, final boolean copy,
+            final IJsonObjectCallback objectModifierCallback, final ParallelOptions options) {
+        final ParallelTreeCopier copier = new ParallelTreeCopier(copy, objectModifierCallback,
+                options.getThreshold());
+        return options.getPool().invoke(new RecursiveTask<JsonNode>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected JsonNode compute() {
+                return copier.copyOrShadow(root, filter.rootMatch(), false, new PathStack());
+            }
+        });
+    }
+
+    static List<JsonNode> copyAll(final List<JsonNode> roots, final CompiledFilter filter,
+            final ParallelOptions options) {
+        final ParallelTreeCopier copier = new ParallelTreeCopier(true, null, options.getThreshold());
+        final ForkJoinPool pool = options.getPool();
+        final JsonNode[] documents = roots.toArray(new JsonNode[roots.size()]);
+        // a few tasks per thread, so that uneven documents even out
+        final int chunk = Math.max(1, documents.length / (pool.getParallelism() * 8));
+        pool.invoke(copier.new DocumentsTask(documents, filter.rootMatch(), chunk, 0, documents.length));
+        return new ArrayList<>(Arrays.asList(documents));
+    }
+
+    private JsonNode copyOrShadow(final JsonNode root, final Match match, final boolean element,
+            final PathStack currentPath) {
+        final CompiledFilter filter = match.getFilter();
+        if (root.isObject()) {
+            final ObjectNode object = (ObjectNode) root;
+            if (filter.copiesAll()) {
+                return sequential(object, match, false, currentPath);
+            }
+
+            final ObjectNode newObject = object.objectNode();
+            currentPath.push(null);
+            if (object.size() >= threshold) {
+                copyOrShadowFieldsInParallel(object, filter, newObject, currentPath);
+            } else if (filter.hasWildcard()) {
+                final Iterator<Map.Entry<String, JsonNode>> children = object.fields();
+                while (children.hasNext()) {
+                    final Map.Entry<String, JsonNode> child = children.next();
+                    final Match childMatch = filter.match(child.getKey());
+                    if (childMatch != null) {
+                        FilteredTreeCopier.setField(newObject, child.getKey(),
+                                copyOrShadowField(child.getKey(), child.getValue(), childMatch, currentPath),
+                                childMatch);
+                    }
+                }
+            } else {
+                final String[] names = filter.names();
+                for (int i = 0; i < names.length; i++) {
+                    final JsonNode child = object.get(names[i]);
+                    if (child != null) {
+                        final Match childMatch = filter.namedMatch(i);
+                        FilteredTreeCopier.setField(newObject, names[i],
+                                copyOrShadowField(names[i], child, childMatch, currentPath), childMatch);
+                    }
+                }
+            }
+            currentPath.pop();
+            if (objectModifierCallback != null) {
+                objectModifierCallback.postProcessObjectNode(newObject, object, currentPath);
+            }
+            return newObject;
+        } else if (root.isArray()) {
+            final ArrayNode a = (ArrayNode) root;
+            final ArrayNode newArrayNode = a.arrayNode();
+            if (match.getSelection() != null) {
+                copyOrShadowSelectedElements(a, match.getSelection(), newArrayNode, currentPath);
+            } else if (a.size() >= threshold) {
+                final JsonNode[] elements = new JsonNode[a.size()];
+                for (int i = 0; i < elements.length; i++) {
+                    elements[i] = a.get(i);
+                }
+                for (final JsonNode e : new RangeTask(elements, null, null, match, currentPath, 0, elements.length)
+                        .invoke()) {
+                    FilteredTreeCopier.addElement(newArrayNode, e);
+                }
+            } else {
+                for (final JsonNode e : a) {
+                    FilteredTreeCopier.addElement(newArrayNode, copyOrShadow(e, match, true, currentPath));
+                }
+            }
+            return newArrayNode;
+        } else {
+            return sequential(root, match, element, currentPath);
+        }
+    }
+
+    private JsonNode sequential(final JsonNode node, final Match match, final boolean element,
+            final PathStack currentPath) {
+        if (!copy) {
+            return FilteredTreeCopier.shadow(node, match, element);
+        }
+        return objectModifierCallback == null ? FilteredTreeCopier.copy(node, match, element, null)
+                : FilteredTreeCopier.copy(node, match, element, null, currentPath, objectModifierCallback);
+    }
+
+    private void copyOrShadowSelectedElements(final ArrayNode array, final ElementSelection selection,
+            final ArrayNode newArrayNode, final PathStack currentPath) {
+        final List<JsonNode> values = new ArrayList<>();
+        final List<Match> matches = new ArrayList<>();
+        final int n = array.size();
+        for (int i = selection.next(0, n); i >= 0; i = selection.next(i + 1, n)) {
+            final JsonNode e = array.get(i);
+            final Match elementMatch = selection.match(i, n, e);
+            if (elementMatch != null) {
+                values.add(e);
+                matches.add(elementMatch);
+            }
+        }
+
+        if (values.size() >= threshold) {
+            for (final JsonNode e : new RangeTask(values.toArray(new JsonNode[values.size()]), null,
+                    matches.toArray(new Match[matches.size()]), null, currentPath, 0, values.size()).invoke()) {
+                FilteredTreeCopier.addElement(newArrayNode, e);
+            }
+        } else {
+            for (int i = 0; i < values.size(); i++) {
+                FilteredTreeCopier.addElement(newArrayNode,
+                        copyOrShadow(values.get(i), matches.get(i), true, currentPath));
+            }
+        }
+    }
+
+    private void copyOrShadowFieldsInParallel(final ObjectNode object, final CompiledFilter filter,
+            final ObjectNode newObject, final PathStack currentPath) {
+        final List<String> names = new ArrayList<>(object.size());
+        final List<JsonNode> values = new ArrayList<>(object.size());
+        final List<Match> matches = new ArrayList<>(object.size());
+        // same order as in a sequential copy
+        if (filter.hasWildcard()) {
+            final Iterator<Map.Entry<String, JsonNode>> children = object.fields();
+            while (children.hasNext()) {
+                final Map.Entry<String, JsonNode> child = children.next();
+                final Match childMatch = filter.match(child.getKey());
+                if (childMatch != null) {
+                    names.add(child.getKey());
+                    values.add(child.getValue());
+                    matches.add(childMatch);
+                }
+            }
+        } else {
+            final String[] filterNames = filter.names();
+            for (int i = 0; i < filterNames.length; i++) {
+                final JsonNode child = object.get(filterNames[i]);
+                if (child != null) {
+                    names.add(filterNames[i]);
+                    values.add(child);
+                    matches.add(filter.namedMatch(i));
+                }
+            }
+        }
+
+        final String[] nameArray = names.toArray(new String[names.size()]);
+        final Match[] matchArray = matches.toArray(new Match[matches.size()]);
+        final JsonNode[] results = new RangeTask(values.toArray(new JsonNode[values.size()]), nameArray, matchArray,
+                null, currentPath, 0, nameArray.length).invoke();
+        for (int i = 0; i < results.length; i++) {
+            FilteredTreeCopier.setField(newObject, nameArray[i], results[i], matchArray[i]);
+        }
+    }
+
+    private JsonNode copyOrShadowField(final String name, final JsonNode child, final Match match,
+            final PathStack currentPath) {
+        currentPath.setTop(match.isWildcard() ? FilteredTreeCopier.WILDCARD : name);
+        return copyOrShadow(child, match, false, currentPath);
+    }
+
+    /**
+     * Replaces a range of documents by their filtered copies.
+     */
+    private final class DocumentsTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final JsonNode[] documents;
+        private final Match rootMatch;
+        private final int chunk;
+        private final int from;
+        private final int to;
+
+        private DocumentsTask(final JsonNode[] documents, final Match rootMatch, final int chunk, final int from,
+                final int to) {
+            this.documents = documents;
+            this.rootMatch = rootMatch;
+            this.chunk = chunk;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > chunk) {
+                final int middle = (from + to) >>> 1;
+                ForkJoinTask.invokeAll(new DocumentsTask(documents, rootMatch, chunk, from, middle),
+                        new DocumentsTask(documents, rootMatch, chunk, middle, to));
+                return;
+            }
+            final PathStack currentPath = new PathStack();
+            for (int i = from; i < to; i++) {
+                documents[i] = copyOrShadow(documents[i], rootMatch, false, currentPath);
+            }
+        }
+    }
+
+    /**
+     * Filters a range of object fields (names and matches given) or array elements (one match for all, or one match
+     * each for selected elements).
+     */
+    private final class RangeTask extends RecursiveTask<JsonNode[]> {
+        private static final long serialVersionUID = 1L;
+
+        private final JsonNode[] values;
+        private final String[] names;
+        private final Match[] matches;
+        private final Match elementMatch;
+        private final PathStack parentPath;
+        private final int from;
+        private final int to;
+
+        private RangeTask(final JsonNode[] values, final String[] names, final Match[] matches,
+                final Match elementMatch, final PathStack parentPath, final int from, final int to) {
+            this.values = values;
+            this.names = names;
+            this.matches = matches;
+            this.elementMatch = elementMatch;
+            this.parentPath = parentPath;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected JsonNode[] compute() {
+            if (to - from > threshold) {
+                final int middle = (from + to) >>> 1;
+                final RangeTask left = new RangeTask(values, names, matches, elementMatch, parentPath, from, middle);
+                final RangeTask right = new RangeTask(values, names, matches, elementMatch, parentPath, middle, to);
+                ForkJoinTask.invokeAll(left, right);
+                final JsonNode[] l = left.getRawResult();
+                final JsonNode[] r = right.getRawResult();
+                final JsonNode[] results = new JsonNode[l.length + r.length];
+                System.arraycopy(l, 0, results, 0, l.length);
+                System.arraycopy(r, 0, results, l.length, r.length);
+                return results;
+            }
+
+            // every task works on its own copy of the path
+            final PathStack currentPath = new PathStack(parentPath);
+            final JsonNode[] results = new JsonNode[to - from];
+            for (int i = from; i < to; i++) {
+                if (elementMatch != null) {
+                    results[i - from] = copyOrShadow(values[i], elementMatch, true, currentPath);
+                } else if (names == null) {
+                    results[i - from] = copyOrShadow(values[i], matches[i], true, currentPath);
+                } else {
+                    results[i - from] = copyOrShadowField(names[i], values[i], matches[i], currentPath);
+                }
+            }
+            return results;
+        }
+    }
+
+}
@@ -0,0 +1,54 @@
+package tv.xrm.jfilter;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * Array-backed path of field names, as handed to an IJsonObjectCallback. Only the top element changes while siblings
+ * are visited, so all operations are O(1) and the backing array is reused for the whole walk.
+ */
+final class PathStack extends AbstractList<String> implements RandomAccess {
+
+    private String[] elements;
+
+    private int size;
+
+    PathStack() {
+        elements = new String[8];
+    }
+
+    PathStack(final PathStack other) {
+        elements = Arrays.copyOf(other.elements, Math.max(8, other.size));
+        size = other.size;
+    }
+
+    void push(final String element) {
+        if (size == elements.length) {
+            elements = Arrays.copyOf(elements, size * 2);
+        }
+        elements[size++] = element;
+    }
+
+    void setTop(final String element) {
+        elements[size - 1] = element;
+    }
+
+    void pop() {
+        elements[--size] = null;
+    }
+
+    @Override
+    public String get(final int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return elements[index];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+}
@@ -0,0 +1,174 @@
+package tv.xrm.jfilter;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Cache of filtered trees, for documents that are filtered over and over with the same few filters (e.g. cached
+ * configuration served to clients asking for different field sets): after the first time, getting the filtered tree is
+ * a hash lookup. Entries are keyed by a caller-provided document key and the compiled filter. The document key must
+ * change whenever the content does, e.g. an id combined with a version; filters are told apart by identity, so they
+ * should be compiled once, or come from a SpecCache.
+ * <p/>
+ * Results are read-only views (FilteredJsonNode) of the cached copy, so callers can't change what others get; their
+ * deepCopy() gives a modifiable tree. Views only equal views, so a result equals another result with the same content,
+ * but not the tree copyTree() returns (in either order); its deepCopy() does. Thread-safe. The cache is bounded by the
+ * estimated memory use of the cached trees; least recently used entries are evicted first.
+ *
+ * @see tv.xrm.jfilter.SpecCache
+ */
+public final class ResultCache {
+
+    private static final BoundedCache.Weigher<JsonNode> WEIGHER = new BoundedCache.Weigher<JsonNode>() {
+        @Override
+        public long weigh(final JsonNode value) {
+            return estimateSize(value);
+        }
+    };
+
+    private final BoundedCache<Key, JsonNode> cache;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param maximumBytes upper bound for the estimated memory use of the cached trees
+     */
+    public ResultCache(final long maximumBytes) {
+        this.cache = new BoundedCache<>(maximumBytes, WEIGHER);
+    }
+
+    /**
+     * @param documentKey identifies the document's content, e.g. id and version; must implement equals() and hashCode()
+     * @return the filtered document as a read-only view, from the cache if possible (not equal to a plain copy, see
+     *         above); null if nothing is selected from a scalar
+     */
+    public JsonNode get(final Object documentKey, final JsonNode document, final CompiledFilter filter) {
+        if (documentKey == null) {
+            throw new IllegalArgumentException("document key must not be null");
+        }
+        final Key key = new Key(documentKey, filter);
+
+        JsonNode result = cache.get(key);
+        if (result != null) {
+            hits.incrementAndGet();
+        } else {
+            // filtered outside the lock - concurrent misses for the same key may filter twice, but agree on the result
+            misses.incrementAndGet();
+            final JsonNode copy = FilteredTreeCopier.copyTree(document, filter);
+            if (copy == null) {
+                // nothing selected from a scalar
+                return null;
+            }
+            result = cache.putIfAbsent(key, copy);
+        }
+        return result.isContainerNode() ? FilteredJsonNode.readOnly(result) : result;
+    }
+
+    public long hitCount() {
+        return hits.get();
+    }
+
+    public long missCount() {
+        return misses.get();
+    }
+
+    public long evictionCount() {
+        return cache.evictionCount();
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * @return estimated memory use of the cached trees, in bytes
+     */
+    public long weight() {
+        return cache.weight();
+    }
+
+    public void clear() {
+        cache.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "ResultCache[size=" + size() + ", weight=" + weight() + ", hits=" + hitCount() + ", misses="
+                + missCount() + ", evictions=" + evictionCount() + "]";
+    }
+
+    /**
+     * Rough memory use of a tree on a 64 bit JVM with compressed references: node objects, their maps and lists, and
+     * strings. Field names are counted although they're often shared with the original document.
+     */
+    static long estimateSize(final JsonNode node) {
+        switch (node.getNodeType()) {
+        case OBJECT:
+            // node, LinkedHashMap and its table
+            long size = 16 + 56 + 16 + 4L * Math.max(16, node.size() * 2);
+            final Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+            while (fields.hasNext()) {
+                final Map.Entry<String, JsonNode> field = fields.next();
+                // map entry, name
+                size += 40 + stringSize(field.getKey()) + estimateSize(field.getValue());
+            }
+            return size;
+        case ARRAY:
+            // node, ArrayList and its array
+            long arraySize = 16 + 24 + 16 + 4L * Math.max(10, node.size());
+            for (final JsonNode element : node) {
+                arraySize += estimateSize(element);
+            }
+            return arraySize;
+        case STRING:
+            return 16 + stringSize(node.textValue());
+        case BOOLEAN:
+        case NULL:
+        case MISSING:
+            // shared instances
+            return 0;
+        default:
+            return node.isBigInteger() || node.isBigDecimal() ? 64 : 24;
+        }
+    }
+
+    private static long stringSize(final String s) {
+        // object and array, at one byte per character (compact strings)
+        return 24 + 16 + s.length();
+    }
+
+    private static final class Key {
+        private final Object documentKey;
+        private final CompiledFilter filter;
+        private final int hash;
+
+        private Key(final Object documentKey, final CompiledFilter filter) {
+            this.documentKey = documentKey;
+            this.filter = filter;
+            this.hash = 31 * documentKey.hashCode() + System.identityHashCode(filter);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return hash == other.hash && filter == other.filter && documentKey.equals(other.documentKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+}
@@ -1,25 +1,56 @@
 package tv.xrm.jfilter;
 
-import java.text.Collator;
 import java.util.*;
 
+import tv.xrm.jfilter.SpecParser.Step;
+
 /**
  * Textual specifications for sub-trees, vaguely similar to XPath. Basically, each path down the tree is added to the
  * spec as a string. In case of overlap, more general spec wins, i.e. "foo.bar" will overwrite "foo.bar.baz".
+ * <p/>
+ * A path starting with "!" is excluded from what the other paths select (or from everything, if there are no others),
+ * e.g. "!b.e.*.raw" keeps all but the raw fields of b.e's children.
+ * <p/>
+ * "*" stands for any field name on one level, "**" for any number of levels, e.g. "**.id" or "items.**.price". Where
+ * paths with "**" are involved, what overlapping paths select is joined.
+ * <p/>
+ * A name may be followed by an array selector, e.g. "items[0:10].name" or "history[-1]": the rest of the path then
+ * applies to the selected elements only. "items" covers "items[0:10]" like any more general spec.
+ * <p/>
+ * A path may end in a field transform, e.g. "user.email -> redact", "payload -> truncate(1024)", "id -> rename(uid)"
+ * or "**.ssn -> hash" (see FieldTransform). The field is selected as by the path alone, then transformed in the copy.
+ * A more general path doesn't replace a transform below it, so "user" and "user.email -> redact" copy all of user but
+ * its email redacted; of two transforms for the same path, the last one added counts.
+ * <p/>
+ * Thread-safe. Adding paths takes a lock; reading (toNodes(), compile()) doesn't, once the result for the current
+ * paths has been made: it's kept, and replaced only when another path is added. Results are immutable, so they can be
+ * shared by any number of threads. freeze() prevents any further change, e.g. before a spec is shared.
  */
 public class Spec {
 
     public static final String WILDCARD = "*";
 
-    // NB: if SEPARATOR changes, regexes in code need to change as well
+    public static final String RECURSIVE_WILDCARD = FilteredTreeCopier.RECURSIVE_WILDCARD;
+
+    // NB: if SEPARATOR changes, SpecParser needs to change as well
     public static final String SEPARATOR = ".";
 
     public static final String BRACKET_FOR_ESCAPING = "'";
 
-    private final Collection<String> specs = new TreeSet<>(Collator.getInstance());
+    public static final String EXCLUSION = "!";
+
+    private final Segment root = new Segment();
+
+    private final Segment excludedRoot = new Segment();
 
     private final OverlappingBehaviour behaviour;
 
+    // only changed with the lock held
+    private volatile boolean frozen;
+
+    // what readers get for the current paths; null after a change, until needed
+    private volatile Snapshot snapshot;
+
     public Spec() {
         behaviour = OverlappingBehaviour.UNION;
     }
@@ -33,9 +64,42 @@ public class Spec {
             throw new IllegalArgumentException("spec must not be null");
         }
 
-        String cleaned = cleanup(spec);
-        if (!cleaned.isEmpty()) {
-            this.specs.add(cleaned);
+        if (frozen) {
+            throw new IllegalStateException("spec is frozen: " + spec);
+        }
+
+        final boolean excluding = spec.startsWith(EXCLUSION);
+        String pathSpec = excluding ? spec.substring(EXCLUSION.length()) : spec;
+        FieldTransform transform = null;
+        final int transformStart = SpecParser.transformStart(pathSpec);
+        if (transformStart >= 0) {
+            if (excluding) {
+                throw new IllegalArgumentException("transforms aren't supported in exclusions: " + spec);
+            }
+            transform = FieldTransform.parse(SpecParser.transformText(pathSpec, transformStart));
+            pathSpec = pathSpec.substring(0, transformStart).trim();
+        }
+        List<Step> path = SpecParser.steps(pathSpec);
+        if (excluding) {
+            for (Step step : path) {
+                if (step.selector != null) {
+                    throw new IllegalArgumentException("array selectors aren't supported in exclusions: " + spec);
+                }
+            }
+        }
+        if (transform != null) {
+            if (path.isEmpty()) {
+                throw new IllegalArgumentException("transform without a field: " + spec);
+            }
+            final Step last = path.get(path.size() - 1);
+            if (last.selector != null) {
+                throw new IllegalArgumentException("transforms apply to fields, not to selected elements: " + spec);
+            }
+            Node.checkTransform(last.name, transform);
+        }
+        if (!path.isEmpty()) {
+            insert(excluding ? excludedRoot : root, path, transform);
+            snapshot = null;
         }
 
         return this;
@@ -55,6 +119,18 @@ public class Spec {
         return this;
     }
 
+    /**
+     * Prevent further changes: add() throws IllegalStateException from now on.
+     */
+    public synchronized Spec freeze() {
+        frozen = true;
+        return this;
+    }
+
+    public boolean isFrozen() {
+        return frozen;
+    }
+
     public static Spec spec(final String... specs) {
         return new Spec().add(specs);
     }
@@ -67,141 +143,390 @@ public class Spec {
         return new Spec(behaviour).add(specs);
     }
 
-    synchronized Collection<String> normalised() {
-        List<String> normal = new ArrayList<>(specs.size());
-
-        String prev = "";
-        for (String s : specs) {
-            if (behaviour.equals(OverlappingBehaviour.INTERSECTION) || prev.isEmpty()
-                    || !s.startsWith(prev + SEPARATOR)) {
-                normal.add(s);
+    private void insert(final Segment root, final List<Step> path, final FieldTransform transform) {
+        final boolean union = behaviour.equals(OverlappingBehaviour.UNION);
+        // already covered by a more general spec; only a transform is still added then
+        boolean covered = false;
+        Segment segment = root;
+        for (Step step : path) {
+            if (union && step.selector != null) {
+                // the whole array may be selected already
+                final Segment whole = segment.children.get(new Step(step.name, null));
+                covered |= whole != null && whole.terminal;
+            }
+            if (covered && transform == null) {
+                return;
+            }
+            segment = segment.child(step);
+            covered |= union && segment.terminal;
+        }
+        if (transform != null) {
+            segment.transform = transform;
+        }
+        if (covered) {
+            return;
+        }
+        segment.terminal = true;
+        if (union) {
+            // more general spec wins
+            keepTransforms(segment);
+            final Step last = path.get(path.size() - 1);
+            if (last.selector == null) {
+                segment = root;
+                for (Step step : path.subList(0, path.size() - 1)) {
+                    segment = segment.children.get(step);
+                }
+                removeSelected(segment, last.name);
             }
-            prev = s;
         }
-
-        return normal;
     }
 
-    public synchronized List<Node> toNodes() {
-        final List<List<String>> split = new ArrayList<>();
-        for (String spec : normalised()) {
-            split.add(split(spec));
+    private static void removeSelected(final Segment parent, final String name) {
+        final Iterator<Map.Entry<Step, Segment>> children = parent.children.entrySet().iterator();
+        while (children.hasNext()) {
+            final Map.Entry<Step, Segment> child = children.next();
+            if (child.getKey().selector != null && child.getKey().name.equals(name)) {
+                child.getValue().terminal = false;
+                if (!keepTransforms(child.getValue())) {
+                    children.remove();
+                }
+            }
         }
+    }
 
-        List<Node> children = convert("ROOT", split).getChildren();
-        if (behaviour.equals(OverlappingBehaviour.INTERSECTION)) {
-            intersectChildNodes(children);
+    /**
+     * Drops what's below a segment that's selected in full, except for paths to transforms.
+     *
+     * @return true if anything is left
+     */
+    private static boolean keepTransforms(final Segment segment) {
+        final Iterator<Segment> children = segment.children.values().iterator();
+        while (children.hasNext()) {
+            final Segment child = children.next();
+            child.terminal = false;
+            if (!keepTransforms(child) && child.transform == null) {
+                children.remove();
+            }
         }
-        return children;
+        return !segment.children.isEmpty();
     }
 
-    private void intersectChildNodes(List<Node> children) {
-        if (children != null) {
-            for (int i = 0; i < children.size(); i++) {
-                Node child = children.get(i);
-                if (child.getName().equals(FilteredTreeCopier.WILDCARD)) {
-                    // copy children of child to neighbours
-                    if (child.getChildren() != null && !child.getChildren().isEmpty() && children.size() > 1) {
-                        for (int j = 0; j < children.size(); j++) {
-                            if (j == i) {
-                                continue;
-                            }
-                            children.get(j).getChildren().addAll(copyChildren(child.getChildren()));
-                        }
-                        children.remove(i--);
-                        continue;
-                    }
-                }
-                if (child.getChildren() != null) {
-                    intersectChildNodes(child.getChildren());
+    Collection<String> normalised() {
+        return snapshot().normalised;
+    }
+
+    private Snapshot snapshot() {
+        Snapshot result = snapshot;
+        if (result == null) {
+            synchronized (this) {
+                result = snapshot;
+                if (result == null) {
+                    result = new Snapshot(makeNodes(), makeNormalised());
+                    snapshot = result;
                 }
             }
         }
+        return result;
     }
 
-    private List<Node> copyChildren(List<Node> nodes) {
-        List<Node> result = new ArrayList<>(nodes.size());
-        for (Node n : nodes) {
-            result.add(n.deepCopy());
+    private List<String> makeNormalised() {
+        List<String> normal = new ArrayList<>();
+        collectPaths(root, "", new ArrayList<Step>(), normal);
+        collectPaths(excludedRoot, EXCLUSION, new ArrayList<Step>(), normal);
+        return Collections.unmodifiableList(normal);
+    }
+
+    private static void collectPaths(final Segment segment, final String prefix, final List<Step> path,
+            final List<String> result) {
+        for (Map.Entry<Step, Segment> child : segment.children.entrySet()) {
+            path.add(child.getKey());
+            final FieldTransform transform = child.getValue().transform;
+            if (child.getValue().terminal || transform != null) {
+                result.add(prefix + SpecParser.formatSteps(path) + (transform == null ? "" : " -> " + transform));
+            }
+            collectPaths(child.getValue(), prefix, path, result);
+            path.remove(path.size() - 1);
         }
-        return result;
     }
 
-    Node convert(String thisName, final Collection<List<String>> specs) {
-        final Map<String, List<List<String>>> subGroups = extractSubgroups(specs);
+    /**
+     * Nodes of this spec, as an unmodifiable list that's the same until another path is added. With INTERSECTION, the
+     * result may be a graph rather than a tree: a wildcard's children are shared by all its neighbours instead of being
+     * copied into each of them, and identical sub-trees made that way are the same Node objects.
+     */
+    public List<Node> toNodes() {
+        return snapshot().nodes;
+    }
 
-        List<Node> subNodes = new ArrayList<>();
-        for (Map.Entry<String, List<List<String>>> entry : subGroups.entrySet()) {
-            subNodes.add(convert(entry.getKey(), entry.getValue()));
+    /**
+     * @return new nodes for the current paths
+     */
+    synchronized List<Node> makeNodes() {
+        final List<Node> nodes;
+        if (behaviour.equals(OverlappingBehaviour.INTERSECTION) && hasWildcard(root)) {
+            final Interner interner = new Interner();
+            nodes = new ArrayList<>(intersect(toNodes(root, interner), interner));
+        } else {
+            nodes = toNodes(root, false, behaviour.equals(OverlappingBehaviour.UNION), false);
         }
+        nodes.addAll(toNodes(excludedRoot, true, false, false));
+        return Collections.unmodifiableList(nodes);
+    }
 
-        return new Node(thisName, subNodes);
+    /**
+     * @param all whether the segment is selected in full, so that the segments below it are only there for transforms
+     *            (with UNION)
+     */
+    private static List<Node> toNodes(final Segment segment, final boolean excluding, final boolean union,
+            final boolean all) {
+        List<Node> nodes = new ArrayList<>(segment.children.size());
+        for (Map.Entry<Step, Segment> child : segment.children.entrySet()) {
+            final Step step = child.getKey();
+            final boolean childAll = union && (all || child.getValue().terminal
+                    || step.selector != null && isTerminal(segment.children.get(new Step(step.name, null))));
+            final List<Node> children = toNodes(child.getValue(), excluding, union, childAll);
+            if (childAll && !children.isEmpty()) {
+                // everything else below is selected, too
+                children.add(0, new Node(FilteredTreeCopier.WILDCARD));
+            }
+            nodes.add(new Node(step.name, step.selector, child.getValue().transform,
+                    Collections.unmodifiableList(children), excluding));
+        }
+        return nodes;
     }
 
-    private Map<String, List<List<String>>> extractSubgroups(Collection<List<String>> specs) {
-        final Map<String, List<List<String>>> subGroups = new HashMap<>();
-        for (List<String> s : specs) {
-            if (!s.isEmpty()) {
-                String name = s.get(0);
-                List<String> rest = s.subList(1, s.size());
-                List<List<String>> existing = subGroups.get(name);
-                if (existing == null) {
-                    existing = new ArrayList<>();
-                }
-                existing.add(rest);
-                subGroups.put(name, existing);
+    private static boolean isTerminal(final Segment segment) {
+        return segment != null && segment.terminal;
+    }
+
+    private static boolean hasWildcard(final Segment segment) {
+        for (Map.Entry<Step, Segment> child : segment.children.entrySet()) {
+            final Step step = child.getKey();
+            if (step.name.equals(FilteredTreeCopier.WILDCARD) && step.selector == null
+                    && !child.getValue().children.isEmpty() || hasWildcard(child.getValue())) {
+                return true;
             }
         }
-        return subGroups;
+        return false;
     }
 
-    static List<String> split(final String cleanSpec) {
-        // we're assuming here the spec has gone through cleanup first
-        List<String> result = new ArrayList<>();
-        List<String> bracketSplitList = Arrays.asList(cleanSpec.split(BRACKET_FOR_ESCAPING));
-        for (int i = 0; i < bracketSplitList.size(); i++) {
-            String bracketToken = bracketSplitList.get(i);
-            if (bracketToken.isEmpty()) {
-                continue;
+    private static List<Node> toNodes(final Segment segment, final Interner interner) {
+        List<Node> nodes = new ArrayList<>(segment.children.size());
+        for (Map.Entry<Step, Segment> child : segment.children.entrySet()) {
+            final Step step = child.getKey();
+            nodes.add(interner.node(step.name, step.selector, child.getValue().transform,
+                    toNodes(child.getValue(), interner)));
+        }
+        return nodes;
+    }
+
+    /**
+     * Compile this spec into an immutable filter that can be applied repeatedly, also concurrently. The filter is kept
+     * until another path is added, so calling this again is cheap and gives the same filter.
+     */
+    public CompiledFilter compile() {
+        final Snapshot current = snapshot();
+        CompiledFilter filter = current.filter;
+        if (filter == null) {
+            synchronized (this) {
+                filter = current.filter;
+                if (filter == null) {
+                    filter = CompiledFilter.compile(current.nodes);
+                    current.filter = filter;
+                }
             }
-            List<String> dotSplitList;
-            if ((i & 1) == 1) { // odd?
-                dotSplitList = Collections.singletonList(bracketToken);
+        }
+        return filter;
+    }
+
+    /**
+     * Moves the children of a wildcard to each of its neighbours, on all levels. Nodes aren't changed, but replaced by
+     * new ones; neighbours that have been looked at already get the wildcard's children as they are. A node is added
+     * to a level only once, however many wildcards bring it along.
+     *
+     * @return the given list if there's nothing to intersect
+     */
+    private static List<Node> intersect(final List<Node> nodes, final Interner interner) {
+        final List<Node> result = new ArrayList<>(nodes);
+        boolean changed = false;
+        for (int i = 0; i < result.size(); i++) {
+            final Node node = result.get(i);
+            if (isWildcard(node) && result.size() > 1) {
+                for (int j = 0; j < result.size(); j++) {
+                    if (j != i) {
+                        final Node neighbour = result.get(j);
+                        final List<Node> children = new ArrayList<>(neighbour.getChildren());
+                        children.addAll(node.getChildren());
+                        result.set(j, interner.node(neighbour.getName(), neighbour.getSelector(),
+                                neighbour.getTransform(), distinct(children)));
+                    }
+                }
+                result.remove(i--);
+                changed = true;
             } else {
-                dotSplitList = new ArrayList<>(Arrays.asList(bracketToken.split("\\.")));
+                final Node intersected = interner.intersected(node);
+                result.set(i, intersected);
+                changed |= intersected != node;
             }
-            for (String token : dotSplitList) {
-                if (token.equals(WILDCARD)) {
-                    result.add(FilteredTreeCopier.WILDCARD);
-                } else if (!token.isEmpty()) {
-                    result.add(token);
-                }
+        }
+        return changed ? distinct(result) : nodes;
+    }
+
+    /**
+     * @return true for a wildcard whose children go to its neighbours; a transformed one stays
+     */
+    private static boolean isWildcard(final Node node) {
+        return node.getName().equals(FilteredTreeCopier.WILDCARD) && node.getSelector() == null
+                && node.getTransform() == null && !node.getChildren().isEmpty();
+    }
+
+    /**
+     * Drops repeated nodes, keeping the last occurrence: that's the one that counts where nodes of the same name
+     * overlap, so what's selected doesn't change.
+     */
+    private static List<Node> distinct(final List<Node> nodes) {
+        final Set<Node> seen = Collections.newSetFromMap(new IdentityHashMap<Node, Boolean>());
+        final List<Node> result = new ArrayList<>(nodes.size());
+        for (int i = nodes.size() - 1; i >= 0; i--) {
+            if (seen.add(nodes.get(i))) {
+                result.add(nodes.get(i));
             }
         }
+        Collections.reverse(result);
         return result;
     }
 
     static String cleanup(final String spec) {
-        String[] arr = spec.split(BRACKET_FOR_ESCAPING);
-        if (arr.length % 2 == 0) {
-            if (spec.charAt(spec.length() - 1) != '\'') {
-                throw new IllegalArgumentException("invalid bracket notation in spec");
+        if (spec.startsWith(EXCLUSION)) {
+            return EXCLUSION + SpecParser.formatSteps(SpecParser.steps(spec.substring(EXCLUSION.length())));
+        }
+        return SpecParser.formatSteps(SpecParser.steps(spec));
+    }
+
+    /**
+     * Trie of field names (with array selectors, if any). Children are ordered by name, a terminal segment is the end
+     * of an added path. With UNION, a terminal segment only has children that lead to transforms.
+     */
+    private static final class Segment {
+        private final Map<Step, Segment> children = new TreeMap<>();
+        private boolean terminal;
+        // null: none
+        private FieldTransform transform;
+
+        private Segment child(final Step step) {
+            Segment child = children.get(step);
+            if (child == null) {
+                child = new Segment();
+                children.put(step, child);
             }
+            return child;
+        }
+    }
+
+    /**
+     * Results for the paths of a spec at one point in time.
+     */
+    private static final class Snapshot {
+        private final List<Node> nodes;
+        private final List<String> normalised;
+        private volatile CompiledFilter filter;
+
+        private Snapshot(final List<Node> nodes, final List<String> normalised) {
+            this.nodes = nodes;
+            this.normalised = normalised;
         }
-        StringBuilder cleaned = new StringBuilder();
-        for (int i = 0; i < arr.length; i++) {
-            if (i > 0) {
-                cleaned.append(".");
+    }
+
+    /**
+     * Hash-consing of nodes: a node with the same name, selector, transform and children as one made before is that
+     * one. As children are made first, comparing them by identity is enough. Intersected nodes are remembered, too, so
+     * a shared sub-tree is only intersected once, and sub-trees without wildcards aren't looked at again.
+     */
+    private static final class Interner {
+        private final Map<Key, Node> nodes = new HashMap<>();
+        private final Map<Node, Node> intersected = new IdentityHashMap<>();
+        // nodes with no wildcard below them, which intersecting leaves as they are
+        private final Set<Node> plain = Collections.newSetFromMap(new IdentityHashMap<Node, Boolean>());
+
+        private Node node(final String name, final ArraySelector selector, final FieldTransform transform,
+                final List<Node> children) {
+            final Key key = new Key(name, selector, transform, children);
+            Node node = nodes.get(key);
+            if (node == null) {
+                node = new Node(name, selector, transform, Collections.unmodifiableList(children), false);
+                nodes.put(key, node);
+                boolean isPlain = true;
+                for (final Node child : children) {
+                    isPlain &= !isWildcard(child) && plain.contains(child);
+                }
+                if (isPlain) {
+                    plain.add(node);
+                }
             }
-            if (i % 2 == 0) {
-                String c = arr[i].replaceAll("(\\.)\\1+", "$1");
-                c = c.replaceAll("^(\\.)+", "");
-                cleaned.append(c.replaceAll("(\\.)$", ""));
-            } else {
-                cleaned.append(BRACKET_FOR_ESCAPING).append(arr[i]).append(BRACKET_FOR_ESCAPING);
+            return node;
+        }
+
+        private Node intersected(final Node node) {
+            if (plain.contains(node)) {
+                return node;
+            }
+            Node result = intersected.get(node);
+            if (result == null) {
+                final List<Node> children = intersect(node.getChildren(), this);
+                result = children == node.getChildren() ? node
+                        : node(node.getName(), node.getSelector(), node.getTransform(), children);
+                intersected.put(node, result);
+            }
+            return result;
+        }
+    }
+
+    private static final class Key {
+        private final String name;
+        private final ArraySelector selector;
+        private final FieldTransform transform;
+        private final List<Node> children;
+        private final int hash;
+
+        private Key(final String name, final ArraySelector selector, final FieldTransform transform,
+                final List<Node> children) {
+            this.name = name;
+            this.selector = selector;
+            this.transform = transform;
+            this.children = children;
+            int h = 31 * (31 * name.hashCode() + Objects.hashCode(selector)) + Objects.hashCode(transform);
+            for (final Node child : children) {
+                h = 31 * h + System.identityHashCode(child);
+            }
+            this.hash = h;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
             }
+            final Key other = (Key) o;
+            if (hash != other.hash || !name.equals(other.name)
+                    || !Objects.equals(selector, other.selector) || !Objects.equals(transform, other.transform)
+                    || children.size() != other.children.size()) {
+                return false;
+            }
+            for (int i = 0; i < children.size(); i++) {
+                if (children.get(i) != other.children.get(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
         }
-        return cleaned.toString();
     }
 
     public enum OverlappingBehaviour {
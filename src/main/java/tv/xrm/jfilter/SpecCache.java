@@ -0,0 +1,118 @@
+package tv.xrm.jfilter;
+
+import java.util.Arrays;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import tv.xrm.jfilter.Spec.OverlappingBehaviour;
+
+/**
+ * Size-bounded cache of compiled filters, keyed by spec strings. Meant for applications that receive textual specs
+ * (e.g. as request parameters) and see the same few field sets over and over: parsing and compiling then only happens
+ * once per distinct set. Order and duplicates of the spec strings don't matter for the lookup.
+ * <p/>
+ * Thread-safe. Least recently used entries are evicted once the maximum size is reached.
+ *
+ * @see tv.xrm.jfilter.Spec#compile()
+ */
+public final class SpecCache {
+
+    private final BoundedCache<Key, CompiledFilter> cache;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    public SpecCache(final int maximumSize) {
+        this.cache = new BoundedCache<>(maximumSize);
+    }
+
+    public CompiledFilter get(final String... specs) {
+        return get(OverlappingBehaviour.UNION, Arrays.asList(specs));
+    }
+
+    public CompiledFilter get(final OverlappingBehaviour behaviour, final String... specs) {
+        return get(behaviour, Arrays.asList(specs));
+    }
+
+    /**
+     * @return the compiled filter for the given specs, from the cache if possible
+     * @throws IllegalArgumentException if one of the specs is invalid
+     */
+    public CompiledFilter get(final OverlappingBehaviour behaviour, final Iterable<String> specs) {
+        final Key key = new Key(behaviour == null ? OverlappingBehaviour.UNION : behaviour, specs);
+
+        final CompiledFilter cached = cache.get(key);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached;
+        }
+
+        // compiled outside the lock - concurrent misses for the same key may compile twice, but agree on the result
+        misses.incrementAndGet();
+        return cache.putIfAbsent(key, Spec.spec(key.behaviour, key.specs).compile());
+    }
+
+    public long hitCount() {
+        return hits.get();
+    }
+
+    public long missCount() {
+        return misses.get();
+    }
+
+    public long evictionCount() {
+        return cache.evictionCount();
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    public void clear() {
+        cache.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "SpecCache[size=" + size() + ", hits=" + hitCount() + ", misses=" + missCount() + ", evictions="
+                + evictionCount() + "]";
+    }
+
+    private static final class Key {
+        private final OverlappingBehaviour behaviour;
+        private final String[] specs;
+        private final int hash;
+
+        private Key(final OverlappingBehaviour behaviour, final Iterable<String> specs) {
+            final TreeSet<String> sorted = new TreeSet<>();
+            for (String s : specs) {
+                if (s == null) {
+                    throw new IllegalArgumentException("spec must not be null");
+                }
+                sorted.add(s);
+            }
+            this.behaviour = behaviour;
+            this.specs = sorted.toArray(new String[sorted.size()]);
+            this.hash = 31 * behaviour.hashCode() + Arrays.hashCode(this.specs);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return hash == other.hash && behaviour == other.behaviour && Arrays.equals(specs, other.specs);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+}
@@ -0,0 +1,236 @@
+package tv.xrm.jfilter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Single-pass tokenizer for textual specs. Field names are separated by dots, and a name in single quotes is taken
+ * literally (so it may contain dots). Empty names are ignored, and a quote also ends an unquoted name. The recursive
+ * wildcard ** is a name like any other at this point.
+ * <p/>
+ * An unquoted name may end in an array selector in square brackets, e.g. "items[0:10]" or "history[-1]". A bracket
+ * that isn't closed is part of the name.
+ * <p/>
+ * A path may be followed by a field transform, e.g. "user.email -> redact"; see transformStart().
+ *
+ * @see tv.xrm.jfilter.Spec
+ */
+final class SpecParser {
+
+    private static final char SEPARATOR = '.';
+
+    private static final char QUOTE = '\'';
+
+    private static final char WILDCARD = '*';
+
+    private static final char SELECTOR_OPEN = '[';
+
+    private static final char SELECTOR_CLOSE = ']';
+
+    private static final String TRANSFORM = "->";
+
+    private SpecParser() {
+    }
+
+    /**
+     * Split a spec into field names, mapping wildcards to FilteredTreeCopier.WILDCARD. Array selectors are left out.
+     *
+     * @throws IllegalArgumentException if a quote isn't closed or a selector is invalid
+     */
+    static List<String> tokens(final String spec) {
+        final List<Step> steps = steps(spec);
+        final List<String> tokens = new ArrayList<>(steps.size());
+        for (final Step step : steps) {
+            tokens.add(step.name);
+        }
+        return tokens;
+    }
+
+    /**
+     * Split a spec into field names and their array selectors, mapping wildcards to FilteredTreeCopier.WILDCARD.
+     *
+     * @throws IllegalArgumentException if a quote isn't closed or a selector is invalid
+     */
+    static List<Step> steps(final String spec) {
+        final List<Step> steps = new ArrayList<>(4);
+        final int length = spec.length();
+
+        int start = 0;
+        int i = 0;
+        while (i < length) {
+            final char c = spec.charAt(i);
+            if (c == SEPARATOR) {
+                addStep(steps, spec, start, i, null);
+                start = ++i;
+            } else if (c == QUOTE) {
+                addStep(steps, spec, start, i, null);
+                final int close = spec.indexOf(QUOTE, i + 1);
+                if (close < 0) {
+                    if (i + 1 < length) {
+                        throw new IllegalArgumentException("invalid bracket notation in spec: unclosed quote at "
+                                + "position " + i + " in \"" + spec + "\"");
+                    }
+                    // a dangling quote at the very end doesn't open anything
+                    return steps;
+                }
+                addStep(steps, spec, i + 1, close, null);
+                start = i = close + 1;
+            } else if (c == SELECTOR_OPEN && selectorEnd(spec, i) > 0) {
+                final int close = selectorEnd(spec, i);
+                if (i == start) {
+                    throw new IllegalArgumentException("array selector without a field name at position " + i
+                            + " in \"" + spec + "\"");
+                }
+                if (close + 1 < length && spec.charAt(close + 1) != SEPARATOR) {
+                    throw new IllegalArgumentException("array selector not followed by a separator at position "
+                            + (close + 1) + " in \"" + spec + "\"");
+                }
+                addStep(steps, spec, start, i, ArraySelector.parse(spec.substring(i + 1, close)));
+                start = i = close + 1;
+            } else {
+                i++;
+            }
+        }
+        addStep(steps, spec, start, length, null);
+
+        return steps;
+    }
+
+    /**
+     * @return position of the "->" that separates a path from its transform, not counting quoted names and selectors,
+     *         or -1 if there's none
+     */
+    static int transformStart(final String spec) {
+        final int length = spec.length();
+        int i = 0;
+        while (i < length) {
+            final char c = spec.charAt(i);
+            if (c == QUOTE) {
+                final int close = spec.indexOf(QUOTE, i + 1);
+                if (close < 0) {
+                    return -1;
+                }
+                i = close + 1;
+            } else if (c == SELECTOR_OPEN && selectorEnd(spec, i) > 0) {
+                i = selectorEnd(spec, i) + 1;
+            } else if (spec.startsWith(TRANSFORM, i)) {
+                return i;
+            } else {
+                i++;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the text of the transform, given its position as returned by transformStart()
+     */
+    static String transformText(final String spec, final int start) {
+        return spec.substring(start + TRANSFORM.length());
+    }
+
+    /**
+     * @return position of the bracket closing the selector opened at the given position, or -1
+     */
+    private static int selectorEnd(final String spec, final int open) {
+        for (int i = open + 1; i < spec.length(); i++) {
+            final char c = spec.charAt(i);
+            if (c == SELECTOR_CLOSE) {
+                return i;
+            }
+            if (c == QUOTE) {
+                // quoted values may contain brackets
+                i = spec.indexOf(QUOTE, i + 1);
+                if (i < 0) {
+                    return -1;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static void addStep(final List<Step> steps, final String spec, final int start, final int end,
+            final ArraySelector selector) {
+        if (end == start + 1 && spec.charAt(start) == WILDCARD) {
+            steps.add(new Step(FilteredTreeCopier.WILDCARD, selector));
+        } else if (end > start) {
+            steps.add(new Step(spec.substring(start, end), selector));
+        }
+    }
+
+    /**
+     * Format field names as a canonical spec string, quoting only where needed.
+     */
+    static String format(final List<String> tokens) {
+        final List<Step> steps = new ArrayList<>(tokens.size());
+        for (final String token : tokens) {
+            steps.add(new Step(token, null));
+        }
+        return formatSteps(steps);
+    }
+
+    /**
+     * Format field names and their selectors as a canonical spec string, quoting only where needed.
+     */
+    static String formatSteps(final List<Step> steps) {
+        final StringBuilder b = new StringBuilder();
+        for (final Step step : steps) {
+            if (b.length() > 0) {
+                b.append(SEPARATOR);
+            }
+            b.append(step);
+        }
+        return b.toString();
+    }
+
+    /**
+     * Field name, optionally with an array selector. Ordered by name first.
+     */
+    static final class Step implements Comparable<Step> {
+        final String name;
+        // null: none
+        final ArraySelector selector;
+
+        Step(final String name, final ArraySelector selector) {
+            this.name = name;
+            this.selector = selector;
+        }
+
+        @Override
+        public int compareTo(final Step other) {
+            final int byName = name.compareTo(other.name);
+            if (byName != 0 || selector == other.selector) {
+                return byName;
+            }
+            if (selector == null || other.selector == null) {
+                return selector == null ? -1 : 1;
+            }
+            return selector.toString().compareTo(other.selector.toString());
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            return o instanceof Step && compareTo((Step) o) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return name.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            final String formatted;
+            if (name.equals(FilteredTreeCopier.WILDCARD)) {
+                formatted = String.valueOf(WILDCARD);
+            } else if (name.indexOf(SEPARATOR) >= 0 || name.contains(TRANSFORM) || (name.indexOf(SELECTOR_OPEN) >= 0
+                    && name.indexOf(SELECTOR_CLOSE) >= 0)) {
+                formatted = QUOTE + name + QUOTE;
+            } else {
+                formatted = name;
+            }
+            return selector == null ? formatted : formatted + selector;
+        }
+    }
+
+}
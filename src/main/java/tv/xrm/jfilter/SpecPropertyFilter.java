@@ -0,0 +1,298 @@
+package tv.xrm.jfilter;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonStreamContext;
+import com.fasterxml.jackson.databind.AnnotationIntrospector;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.introspect.Annotated;
+import com.fasterxml.jackson.databind.introspect.AnnotatedClass;
+import com.fasterxml.jackson.databind.introspect.NopAnnotationIntrospector;
+import com.fasterxml.jackson.databind.ser.BeanPropertyWriter;
+import com.fasterxml.jackson.databind.ser.FilterProvider;
+import com.fasterxml.jackson.databind.ser.PropertyFilter;
+import com.fasterxml.jackson.databind.ser.PropertyWriter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
+import com.fasterxml.jackson.databind.ser.std.MapProperty;
+
+import tv.xrm.jfilter.CompiledFilter.Match;
+
+/**
+ * Applies a compiled filter while Jackson serializes objects, so domain objects are filtered without building a tree
+ * first (as with ObjectMapper.valueToTree() and FilteredTreeCopier.copyTree()). Properties of beans and entries of maps
+ * that aren't selected are left out before their getters are called; nested beans, collections and maps are filtered
+ * like the corresponding objects and arrays of a tree, wildcards and exclusions included.
+ * <p/>
+ * A mapper is set up once with configure(), which gives all beans and maps this filter's id (unless they have a filter
+ * of their own), and writes everything as before. Filters are then chosen per call:
+ *
+ * <pre>
+ * ObjectMapper mapper = SpecPropertyFilter.configure(new ObjectMapper());
+ * String json = SpecPropertyFilter.writer(mapper, spec.compile()).writeValueAsString(pojo);
+ * </pre>
+ *
+ * The filter follows the output context of the generator, so it works where Jackson's own serializers write the
+ * objects; custom serializers that write an object's properties elsewhere (e.g. @JsonUnwrapped) see them filtered at
+ * the position they're written to. Array selectors and transforms aren't supported, as the elements of a collection are
+ * neither counted nor looked at before they're written. Where the filter only wants something below a property,
+ * scalars are left out as by copyTree(): if the declared type may be a scalar, the value is read to find out, so the
+ * getter of such a property may be called twice. Collections and arrays below a property are written element by
+ * element, like the arrays copyTree() walks: without null elements, and without scalars where only something below the
+ * elements is selected. The elements are written by the serializers of their classes, not by a content serializer
+ * configured for the property. A collection passed to the writer itself is written by Jackson, nulls included.
+ * <p/>
+ * Instances are immutable and thread-safe.
+ *
+ * @see tv.xrm.jfilter.FilteredTreeCopier#copyTree(com.fasterxml.jackson.databind.JsonNode, CompiledFilter)
+ */
+public final class SpecPropertyFilter extends SimpleBeanPropertyFilter {
+
+    /**
+     * Filter id that configure() gives to beans and maps.
+     */
+    public static final String FILTER_ID = "tv.xrm.jfilter.SpecPropertyFilter";
+
+    private static final PropertyFilter ALL = SimpleBeanPropertyFilter.serializeAll();
+
+    // value of a property that can't be read ahead
+    private static final Object UNKNOWN = new Object();
+
+    private final CompiledFilter filter;
+
+    /**
+     * @throws UnsupportedOperationException if the filter has transforms or array selectors
+     */
+    public SpecPropertyFilter(final CompiledFilter filter) {
+        filter.checkNoTransforms("SpecPropertyFilter");
+        filter.checkNoSelections("SpecPropertyFilter");
+        this.filter = filter;
+    }
+
+    /**
+     * Give all beans and maps without a filter of their own the id FILTER_ID, which (without writer()) writes all
+     * properties.
+     *
+     * @return the given mapper
+     */
+    public static ObjectMapper configure(final ObjectMapper mapper) {
+        final AnnotationIntrospector introspector = mapper.getSerializationConfig().getAnnotationIntrospector();
+        mapper.setAnnotationIntrospector(introspector == null ? new FilterIdIntrospector()
+                : AnnotationIntrospector.pair(introspector, new FilterIdIntrospector()));
+        mapper.setFilterProvider(new Provider(ALL, mapper.getSerializationConfig().getFilterProvider()));
+        return mapper;
+    }
+
+    /**
+     * @param mapper a mapper set up with configure()
+     * @return a writer that writes what the filter selects; other filters are still found as configured in the mapper
+     */
+    public static ObjectWriter writer(final ObjectMapper mapper, final CompiledFilter filter) {
+        return mapper.writer(new Provider(new SpecPropertyFilter(filter),
+                mapper.getSerializationConfig().getFilterProvider()));
+    }
+
+    public CompiledFilter getFilter() {
+        return filter;
+    }
+
+    @Override
+    public void serializeAsField(final Object pojo, final JsonGenerator generator, final SerializerProvider provider,
+            final PropertyWriter writer) throws Exception {
+        final Match parent = match(generator.getOutputContext());
+        final Match match = parent == null ? null : parent.getFilter().match(writer.getName());
+        if (parent != null && parent.getFilter().copiesAll()) {
+            // selected in full, nulls within collections included
+            writer.serializeAsField(pojo, generator, provider);
+        } else if (match == null) {
+            omit(pojo, generator, provider, writer);
+        } else {
+            // a map entry has the map's type
+            final JavaType type = writer instanceof MapProperty ? null : writer.getType();
+            if (type != null && isScalar(type)) {
+                serializeScalar(match, pojo, generator, provider, writer);
+            } else if (type != null && !mayBeScalar(type) && !type.isCollectionLikeType() && !type.isArrayType()) {
+                writer.serializeAsField(pojo, generator, provider);
+            } else {
+                final Object value = value(pojo, writer);
+                if (value == UNKNOWN) {
+                    writer.serializeAsField(pojo, generator, provider);
+                } else if (isScalarValue(value)) {
+                    serializeScalar(match, pojo, generator, provider, writer);
+                } else if (isArrayValue(value)) {
+                    generator.writeFieldName(writer.getName());
+                    writeElements(value, match.keepsElementScalars(), generator, provider);
+                } else {
+                    writer.serializeAsField(pojo, generator, provider);
+                }
+            }
+        }
+    }
+
+    /**
+     * Where only something below a property is selected, scalars are left out.
+     */
+    private static void serializeScalar(final Match match, final Object pojo, final JsonGenerator generator,
+            final SerializerProvider provider, final PropertyWriter writer) throws Exception {
+        if (match.keepsScalar()) {
+            writer.serializeAsField(pojo, generator, provider);
+        } else {
+            omit(pojo, generator, provider, writer);
+        }
+    }
+
+    /**
+     * Write a collection or array as copyTree() copies an array: without null elements, and without scalars where only
+     * something below the elements is selected. Nested collections and arrays are treated alike, other elements are
+     * written by their serializers (and filtered on their own).
+     */
+    private static void writeElements(final Object value, final boolean scalars, final JsonGenerator generator,
+            final SerializerProvider provider) throws IOException {
+        generator.writeStartArray();
+        for (final Object element : elements(value)) {
+            if (isArrayValue(element)) {
+                writeElements(element, scalars, generator, provider);
+            } else if (element != null && (scalars || !isScalarValue(element))) {
+                provider.defaultSerializeValue(element, generator);
+            }
+        }
+        generator.writeEndArray();
+    }
+
+    private static Collection<?> elements(final Object value) {
+        if (value instanceof Collection) {
+            return (Collection<?>) value;
+        }
+        if (value instanceof Object[]) {
+            return Arrays.asList((Object[]) value);
+        }
+        // arrays of primitives
+        final List<Object> elements = new ArrayList<>();
+        for (int i = 0, n = Array.getLength(value); i < n; i++) {
+            elements.add(Array.get(value, i));
+        }
+        return elements;
+    }
+
+    private static void omit(final Object pojo, final JsonGenerator generator, final SerializerProvider provider,
+            final PropertyWriter writer) throws Exception {
+        if (!generator.canOmitFields()) {
+            writer.serializeAsOmittedField(pojo, generator, provider);
+        }
+    }
+
+    /**
+     * @return the match for the fields of the object being written, or null if nothing in it is selected
+     */
+    private Match match(final JsonStreamContext object) {
+        // elements of arrays are treated like the arrays
+        JsonStreamContext context = object.getParent();
+        while (context != null && context.inArray()) {
+            context = context.getParent();
+        }
+        if (context == null || context.inRoot()) {
+            return filter.rootMatch();
+        }
+        return child(match(context), context.getCurrentName());
+    }
+
+    private static Match child(final Match parent, final String name) {
+        if (parent == null) {
+            return null;
+        }
+        // selected in full
+        return parent.getFilter().copiesAll() ? parent : parent.getFilter().match(name);
+    }
+
+    /**
+     * @return true if values of the declared type are always scalars
+     */
+    private static boolean isScalar(final JavaType type) {
+        return type.isPrimitive() || type.isEnumType() || type.isTypeOrSubTypeOf(CharSequence.class)
+                || type.isTypeOrSubTypeOf(Number.class) || type.isTypeOrSubTypeOf(Boolean.class)
+                || type.isTypeOrSubTypeOf(Character.class);
+    }
+
+    /**
+     * @return true if values of the declared type (e.g. Object) may be scalars
+     */
+    private static boolean mayBeScalar(final JavaType type) {
+        final Class<?> raw = type.getRawClass();
+        return isScalar(type) || raw.isAssignableFrom(String.class) || raw.isAssignableFrom(Integer.class)
+                || raw.isAssignableFrom(Boolean.class);
+    }
+
+    private static boolean isScalarValue(final Object value) {
+        // byte and char arrays are written as strings
+        return value == null || value instanceof CharSequence || value instanceof Number || value instanceof Boolean
+                || value instanceof Character || value instanceof Enum || value instanceof byte[]
+                || value instanceof char[];
+    }
+
+    private static boolean isArrayValue(final Object value) {
+        return value instanceof Collection || value != null && value.getClass().isArray() && !isScalarValue(value);
+    }
+
+    /**
+     * @return the value of the property, or UNKNOWN if the writer doesn't say
+     */
+    private static Object value(final Object pojo, final PropertyWriter writer) throws Exception {
+        if (writer instanceof BeanPropertyWriter) {
+            return ((BeanPropertyWriter) writer).get(pojo);
+        }
+        if (writer instanceof MapProperty) {
+            return ((MapProperty) writer).getValue();
+        }
+        return UNKNOWN;
+    }
+
+    @Override
+    public String toString() {
+        return "SpecPropertyFilter" + filter;
+    }
+
+    /**
+     * Gives classes FILTER_ID; used after any other introspector, so explicit filter ids win.
+     */
+    private static final class FilterIdIntrospector extends NopAnnotationIntrospector {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public Object findFilterId(final Annotated annotated) {
+            return annotated instanceof AnnotatedClass ? FILTER_ID : null;
+        }
+    }
+
+    /**
+     * A filter for FILTER_ID; other ids are looked up in the mapper's provider, if any.
+     */
+    private static final class Provider extends SimpleFilterProvider {
+        private static final long serialVersionUID = 1L;
+
+        private final PropertyFilter filter;
+        private final FilterProvider others;
+
+        private Provider(final PropertyFilter filter, final FilterProvider others) {
+            this.filter = filter;
+            this.others = others;
+        }
+
+        @Override
+        public PropertyFilter findPropertyFilter(final Object filterId, final Object valueToFilter) {
+            if (FILTER_ID.equals(filterId)) {
+                return filter;
+            }
+            return others == null ? null : others.findPropertyFilter(filterId, valueToFilter);
+        }
+    }
+
+}
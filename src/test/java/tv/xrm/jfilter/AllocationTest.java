@@ -0,0 +1,141 @@
+package tv.xrm.jfilter;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Allocation regression checks with bounds that catch building a second copy or allocating per visited object, not
+ * what the JIT manages to eliminate (e.g. iterators, which is why the path tracking check uses named fields only).
+ * Exact figures are for the benchmarks' gc.alloc.rate.norm.
+ */
+public class AllocationTest {
+
+    private static final int ITERATIONS = 2000;
+
+    private com.sun.management.ThreadMXBean threads;
+
+    @Before
+    public void setUp() {
+        final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        threads = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    @Test
+    public void copyAllocatesAboutAsMuchAsItsResult() {
+        final JsonNode tree = TestUtil.readSampleJson("bigsample.json");
+        for (final CompiledFilter filter : new CompiledFilter[] { Spec.spec("glossary.*.title").compile(),
+                Spec.spec("glossary.GlossDiv4.GlossList", "glossary.title").compile() }) {
+            final JsonNode result = FilteredTreeCopier.copyTree(tree, filter);
+            final long resultBytes = bytesPerRun(new Runnable() {
+                @Override
+                public void run() {
+                    result.deepCopy();
+                }
+            });
+            final long copyBytes = bytesPerRun(new Runnable() {
+                @Override
+                public void run() {
+                    FilteredTreeCopier.copyTree(tree, filter);
+                }
+            });
+            // an intermediate copy would double it
+            assertTrue(filter + ": " + copyBytes + " bytes per copy, " + resultBytes + " for the result",
+                    copyBytes < resultBytes * 2);
+        }
+    }
+
+    @Test
+    public void writingDoesNotBuildACopy() {
+        final JsonNode tree = TestUtil.readSampleJson("bigsample.json");
+        final CompiledFilter filter = Spec.spec("glossary.GlossDiv4.GlossList", "glossary.*.title").compile();
+
+        final long copyBytes = bytesPerRun(new Runnable() {
+            @Override
+            public void run() {
+                FilteredTreeCopier.copyTree(tree, filter);
+            }
+        });
+        final long writeBytes = bytesPerRun(new Runnable() {
+            @Override
+            public void run() {
+                FilteredTreeCopier.writeFilteredAsBytes(tree, filter);
+            }
+        });
+        final int resultBytes = FilteredTreeCopier.writeFilteredAsBytes(tree, filter).length;
+        // the output array and a generator, but no copy (which alone would take copyBytes)
+        assertTrue(writeBytes + " bytes per write of " + resultBytes + ", " + copyBytes + " per copy",
+                writeBytes < copyBytes);
+    }
+
+    @Test
+    public void pathTrackingDoesNotAllocatePerObject() {
+        for (final int depth : new int[] { 4, 16 }) {
+            // named fields only, so neither walk needs an iterator
+            final ObjectNode tree = JsonNodeFactory.instance.objectNode();
+            final Spec spec = new Spec();
+            ObjectNode level = tree;
+            String path = "";
+            for (int i = 0; i < depth; i++) {
+                final ArrayNode items = level.putArray("items");
+                for (int j = 0; j < 20; j++) {
+                    items.addObject().put("id", j).put("name", "item");
+                }
+                spec.add(path + "items.id");
+                level = level.putObject("n");
+                path += "n.";
+            }
+            final CompiledFilter filter = spec.compile();
+            final IJsonObjectCallback callback = new IJsonObjectCallback() {
+                @Override
+                public void postProcessObjectNode(final ObjectNode newNode, final ObjectNode originalNode,
+                        final List<String> currentPath) {
+                }
+            };
+
+            final long withoutCallback = bytesPerRun(new Runnable() {
+                @Override
+                public void run() {
+                    FilteredTreeCopier.copyTree(tree, filter);
+                }
+            });
+            final long withCallback = bytesPerRun(new Runnable() {
+                @Override
+                public void run() {
+                    FilteredTreeCopier.copyTree(tree, filter, callback);
+                }
+            });
+            // one path stack per call, growing with the depth; a list node per visited object (of which there are
+            // 21 per level) would take 24 bytes each
+            assertTrue(depth + " levels: " + withCallback + " bytes with callback, " + withoutCallback + " without",
+                    withCallback < withoutCallback + 256 + depth * 16);
+        }
+    }
+
+    private long bytesPerRun(final Runnable runnable) {
+        // warm up, so that escape analysis etc. are in place
+        for (int i = 0; i < ITERATIONS; i++) {
+            runnable.run();
+        }
+        final long id = Thread.currentThread().getId();
+        final long before = threads.getThreadAllocatedBytes(id);
+        for (int i = 0; i < ITERATIONS; i++) {
+            runnable.run();
+        }
+        return (threads.getThreadAllocatedBytes(id) - before) / ITERATIONS;
+    }
+
+}
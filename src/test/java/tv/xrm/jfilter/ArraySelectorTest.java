@@ -0,0 +1,150 @@
+package tv.xrm.jfilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+public class ArraySelectorTest {
+
+    private static final String ORDER = "{'id':1,'items':[{'name':'a','qty':1},{'name':'b','qty':2},"
+            + "{'name':'c','qty':3}],'history':['created','paid','shipped'],'note':'x'}";
+
+    @Test
+    public void selectsByIndex() throws IOException {
+        assertFiltered("{'items':[{'name':'a','qty':1}]}", ORDER, "items[0]");
+        assertFiltered("{'history':['shipped']}", ORDER, "history[-1]");
+        assertFiltered("{'history':['paid']}", ORDER, "history[-2]");
+        assertFiltered("{'items':[]}", ORDER, "items[7]");
+        assertFiltered("{'id':1,'items':[{'name':'b'}]}", ORDER, "id", "items[1].name");
+    }
+
+    @Test
+    public void selectsBySlice() throws IOException {
+        assertFiltered("{'items':[{'name':'a'},{'name':'b'}]}", ORDER, "items[0:2].name");
+        assertFiltered("{'items':[{'qty':2},{'qty':3}]}", ORDER, "items[1:].qty");
+        assertFiltered("{'history':['created','paid']}", ORDER, "history[:-1]");
+        assertFiltered("{'history':['paid','shipped']}", ORDER, "history[-2:]");
+        assertFiltered("{'history':[]}", ORDER, "history[2:1]");
+    }
+
+    @Test
+    public void combinesWithWholeArray() throws IOException {
+        // the first element gets its own treatment, the others that of the array
+        assertFiltered("{'items':[{'name':'a','qty':1},{'name':'b'},{'name':'c'}]}", ORDER, "items.name",
+                "items[0]");
+        // covered by the more general path
+        assertFiltered("{'history':['created','paid','shipped']}", ORDER, "history", "history[0]");
+        assertEquals(Arrays.asList("history"), Spec.spec("history[0]", "history").normalised());
+    }
+
+    @Test
+    public void appliesToArraysOnly() throws IOException {
+        assertFiltered("{'note':{}}", "{'note':{'a':1}}", "note[0]");
+        assertFiltered("{}", ORDER, "note[0]");
+        assertFiltered("{'m':[[1,2]]}", "{'m':[[1,2],[3,4]]}", "m[0]");
+    }
+
+    @Test
+    public void worksWithRecursiveWildcards() throws IOException {
+        // the recursive wildcard still looks into the other elements
+        assertFiltered("{'items':[{'name':'a','qty':1},{},{}],'history':['shipped']}", ORDER, "**.items[0]",
+                "history[-1]");
+        assertFiltered("{'a':{'items':[{'name':'a','x':{'name':'y'}}]}}",
+                "{'a':{'items':[{'name':'a','x':{'name':'y'}},{'name':'b'}]}}", "a.items[:1].**.name");
+    }
+
+    @Test
+    public void visitsOnlySelectedPositions() {
+        final int[] visited = new int[1];
+        // any subclass of ArrayNode inherits its deepCopy(), which overrides a generic method with a raw return type
+        @SuppressWarnings("unchecked")
+        final ArrayNode items = new ArrayNode(JsonNodeFactory.instance) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public JsonNode get(final int index) {
+                visited[0]++;
+                return super.get(index);
+            }
+        };
+        for (int i = 0; i < 10_000; i++) {
+            items.add(i);
+        }
+        final ObjectNode tree = JsonNodeFactory.instance.objectNode();
+        tree.set("items", items);
+
+        final JsonNode copy = FilteredTreeCopier.copyTree(tree, Spec.spec("items[10:13]", "items[-1]").compile());
+        assertEquals("{\"items\":[10,11,12,9999]}", copy.toString());
+        assertEquals(4, visited[0]);
+    }
+
+    @Test
+    public void parsesSelectors() {
+        assertEquals(Arrays.asList("'a[1]'.b", "history[-1]", "items[:10].name", "items[:5]"),
+                Spec.spec("items[0:10].name", "history[-1]", "items[ : 5]", "'a[1]'.b").normalised());
+        assertEquals("a[2:]", Spec.cleanup("..a[2:].."));
+        // an unclosed bracket is part of the name, as before
+        assertEquals(Arrays.asList("a[", "b"), SpecParser.tokens("a[.b"));
+        assertEquals("('items'()[:10]('name'()))", Spec.spec("items[0:10].name").compile().toString());
+        assertEquals("'items'[-1]('name'())",
+                new Node("items", ArraySelector.index(-1), new Node("name")).toString());
+
+        for (final String invalid : Arrays.asList("a[x]", "a[1:2:3]", "[0]", "a[0]b", "!a[0]")) {
+            try {
+                Spec.spec(invalid);
+                fail(invalid);
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("selector"));
+            }
+        }
+    }
+
+    private static void assertFiltered(final String expectedJson, final String json, final String... spec)
+            throws IOException {
+        final JsonNode tree = TestUtil.MAPPER.readTree(TestUtil.q(json));
+        final JsonNode expected = TestUtil.MAPPER.readTree(TestUtil.q(expectedJson));
+        final CompiledFilter filter = Spec.spec(spec).compile();
+
+        assertEquals(expected, FilteredTreeCopier.copyTree(tree, filter));
+        assertEquals(expected, FilteredTreeCopier.copyTree(tree, filter, new IJsonObjectCallback() {
+            @Override
+            public void postProcessObjectNode(final ObjectNode newNode, final ObjectNode existingNode,
+                    final List<String> currentPath) {
+            }
+        }));
+        assertEquals(expected, FilteredTreeCopier.shadowTree(tree, filter));
+        assertEquals(expected, FilteredTreeCopier.copyTree(tree, filter, new ParallelOptions(2)));
+        assertEquals(expected, FilteredJsonNode.view(tree, filter).deepCopy());
+        assertEquals(expected, TestUtil.MAPPER.readTree(FilteredJsonNode.view(tree, filter).toString()));
+
+        final StringWriter out = new StringWriter();
+        try (JsonGenerator generator = TestUtil.MAPPER.getFactory().createGenerator(out)) {
+            FilteredStreamCopier.copyStream(TestUtil.MAPPER.getFactory().createParser(tree.toString()), filter,
+                    generator);
+        }
+        assertEquals(expected, TestUtil.MAPPER.readTree(out.toString()));
+
+        final ByteArrayOutputStream asyncOut = new ByteArrayOutputStream();
+        try (AsyncStreamCopier copier = new AsyncStreamCopier(filter, asyncOut)) {
+            copier.feed(ByteBuffer.wrap(TestUtil.MAPPER.writeValueAsBytes(tree)));
+            copier.endOfInput();
+        }
+        assertEquals(expected, TestUtil.MAPPER.readTree(asyncOut.toByteArray()));
+    }
+
+}
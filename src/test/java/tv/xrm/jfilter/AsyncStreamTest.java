@@ -0,0 +1,103 @@
+package tv.xrm.jfilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+
+public class AsyncStreamTest {
+
+    @Test
+    public void sameAsStreamCopy() throws IOException {
+        final String big = TestUtil.readSampleJson("bigsample.json").toString();
+        final String orders = TestUtil.q("{'orders':[{'id':1,'status':'OPEN','tags':['a','b']},null,"
+                + "{'id':2,'status':'CLOSED'},{'id':3,'status':'OPEN','price':1.5e3}],'n':[1,2,3]}");
+        for (final Spec spec : new Spec[] { Spec.spec("glossary.*.title", "glossary.GlossDiv4.GlossList"),
+                Spec.spec("!glossary.*.GlossList"), Spec.spec("**.GlossTerm"), Spec.spec("*") }) {
+            assertSameAsStreamCopy(big, spec.compile());
+        }
+        for (final Spec spec : new Spec[] { Spec.spec("orders[?status=='OPEN'].id", "n[-2:]"),
+                Spec.spec("orders[1:].tags", "orders.price"), Spec.spec("orders[-1]") }) {
+            assertSameAsStreamCopy(orders, spec.compile());
+        }
+    }
+
+    @Test
+    public void copiesSequenceOfRootValues() throws IOException {
+        final byte[] json = TestUtil.q("{'a':1,'b':2} 7 [{'b':3},{'a':[4]}]").getBytes("UTF-8");
+        final ByteBuffer direct = ByteBuffer.allocateDirect(json.length);
+        direct.put(json).flip();
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (AsyncStreamCopier copier = new AsyncStreamCopier(Spec.spec("a").compile(), out)) {
+            copier.feed(direct);
+            copier.endOfInput();
+            assertEquals(3, copier.getValueCount());
+        }
+        assertEquals(TestUtil.q("{'a':1} 7 [{},{'a':[4]}]"), out.toString("UTF-8"));
+    }
+
+    @Test
+    public void writesBranchesAsSoonAsComplete() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (AsyncStreamCopier copier = new AsyncStreamCopier(Spec.spec("a", "c").compile(), out)) {
+            feed(copier, "{'a':{'x':1},'b':");
+            assertEquals(TestUtil.q("{'a':{'x':1}"), out.toString("UTF-8"));
+            feed(copier, "[1,2],'c':'xy");
+            assertEquals(TestUtil.q("{'a':{'x':1}"), out.toString("UTF-8"));
+            feed(copier, "z'}");
+            copier.endOfInput();
+        }
+        assertEquals(TestUtil.q("{'a':{'x':1},'c':'xyz'}"), out.toString("UTF-8"));
+    }
+
+    @Test
+    public void failsOnTruncatedInput() throws IOException {
+        try (AsyncStreamCopier copier = new AsyncStreamCopier(Spec.spec("a").compile(), new ByteArrayOutputStream())) {
+            feed(copier, "{'a':[1,");
+            copier.endOfInput();
+            fail();
+        } catch (JsonParseException e) {
+            // expected
+        }
+    }
+
+    private static void feed(final AsyncStreamCopier copier, final String json) throws IOException {
+        final byte[] bytes = TestUtil.q(json).getBytes("UTF-8");
+        copier.feed(bytes, 0, bytes.length);
+    }
+
+    private static void assertSameAsStreamCopy(final String json, final CompiledFilter filter) throws IOException {
+        final StringWriter expected = new StringWriter();
+        try (JsonParser parser = TestUtil.MAPPER.getFactory().createParser(json);
+                JsonGenerator generator = TestUtil.MAPPER.getFactory().createGenerator(expected)) {
+            FilteredStreamCopier.copyStream(parser, filter, generator);
+        }
+
+        final byte[] bytes = json.getBytes("UTF-8");
+        for (final int chunkSize : new int[] { 1, 7, 4096 }) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (AsyncStreamCopier copier = new AsyncStreamCopier(filter, out)) {
+                final byte[] chunk = new byte[chunkSize];
+                for (int offset = 0; offset < bytes.length; offset += chunkSize) {
+                    // the same array for every chunk
+                    final int length = Math.min(chunkSize, bytes.length - offset);
+                    System.arraycopy(bytes, offset, chunk, 0, length);
+                    copier.feed(chunk, 0, length);
+                }
+                copier.endOfInput();
+            }
+            assertEquals(filter + ", chunks of " + chunkSize, expected.toString(), out.toString("UTF-8"));
+        }
+    }
+
+}
@@ -0,0 +1,113 @@
+package tv.xrm.jfilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+public class BatchTest {
+
+    private static final CompiledFilter FILTER = Spec.spec("a", "b.c", "b.e.*.nickname").compile();
+
+    @Test
+    public void copiesAllInOrder() {
+        final List<JsonNode> documents = documents(50);
+
+        final List<JsonNode> copies = FilteredTreeCopier.copyAll(documents, FILTER);
+
+        assertEquals(expected(documents), copies);
+        assertEquals(copies, FilteredTreeCopier.copyAll(documents, Spec.spec("a", "b.c", "b.e.*.nickname").toNodes()));
+        assertEquals(copies, FilteredTreeCopier.copyAll(documents, FILTER, new ParallelOptions(2)));
+    }
+
+    @Test
+    public void usesGivenFactory() {
+        final AtomicInteger containers = new AtomicInteger();
+        final JsonNodeFactory factory = new JsonNodeFactory() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public ObjectNode objectNode() {
+                containers.incrementAndGet();
+                return super.objectNode();
+            }
+
+            @Override
+            public ArrayNode arrayNode() {
+                containers.incrementAndGet();
+                return super.arrayNode();
+            }
+        };
+
+        final List<JsonNode> documents = documents(3);
+        assertEquals(expected(documents), FilteredTreeCopier.copyAll(documents, FILTER, factory));
+        // root, b, c, e, f and p for each document
+        assertEquals(18, containers.get());
+    }
+
+    @Test
+    public void callsBackWithPathsPerDocument() {
+        final List<String> paths = new ArrayList<>();
+        FilteredTreeCopier.copyAll(documents(2), FILTER, new IJsonObjectCallback() {
+            @Override
+            public void postProcessObjectNode(final ObjectNode newNode, final ObjectNode existingNode,
+                    final List<String> currentPath) {
+                paths.add(currentPath.toString());
+            }
+        });
+
+        final List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            expected.add("[b, e, ]");
+            expected.add("[b, e, ]");
+            expected.add("[b, e]");
+            expected.add("[b]");
+            expected.add("[]");
+        }
+        assertEquals(expected, paths);
+    }
+
+    @Test
+    public void copiesLazily() {
+        final List<JsonNode> documents = documents(3);
+        final Iterator<JsonNode> copies = FilteredTreeCopier.copyEach(documents.iterator(), FILTER);
+
+        final JsonNode first = copies.next();
+        ((ObjectNode) documents.get(1)).put("a", "changed before copying");
+        assertEquals(expected(documents.subList(0, 1)).get(0), first);
+        assertEquals("changed before copying", copies.next().get("a").textValue());
+        assertTrue(copies.hasNext());
+        copies.next();
+        assertFalse(copies.hasNext());
+    }
+
+    private static List<JsonNode> documents(final int count) {
+        final List<JsonNode> documents = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            final ObjectNode document = (ObjectNode) TestUtil.readSampleJson("demosample.json");
+            document.put("a", "document " + i);
+            documents.add(document);
+        }
+        return documents;
+    }
+
+    private static List<JsonNode> expected(final List<JsonNode> documents) {
+        final List<JsonNode> expected = new ArrayList<>();
+        for (final JsonNode document : documents) {
+            expected.add(FilteredTreeCopier.copyTree(document, FILTER));
+        }
+        return expected;
+    }
+
+}
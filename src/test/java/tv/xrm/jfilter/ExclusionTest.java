@@ -0,0 +1,79 @@
+package tv.xrm.jfilter;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+
+public class ExclusionTest {
+
+    @Test
+    public void excludesFromEverything() throws IOException {
+        assertFiltered("{'a':'b','b':{'c':['one','two'],'e':{'f':{'name':'Herbert'},'p':{'name':'Robert'}}}}",
+                Spec.spec("!x", "!b.d", "!b.e.*.nickname").compile());
+    }
+
+    @Test
+    public void excludesFromSelection() throws IOException {
+        assertFiltered("{'b':{'d':true,'e':{'f':{'name':'Herbert','nickname':'Bertie'}}}}",
+                Spec.spec("b", "!b.c", "!b.e.p").compile());
+        assertFiltered("{'b':{'e':{'f':{'nickname':'Bertie'},'p':{'nickname':'Bob'}}}}",
+                Spec.spec("b.e.*.nickname", "!b.c").compile());
+        // exclusion wins over a more specific selection
+        assertFiltered("{'a':'b','b':{}}", Spec.spec("a", "b.e.f.name", "!b.e").compile());
+    }
+
+    @Test
+    public void excludesWithWildcards() throws IOException {
+        assertFiltered("{'a':'b','b':{'c':['one','two'],'d':true,'e':{}},'x':'y'}", Spec.spec("!b.e.*").compile());
+        assertFiltered("{'a':'b','b':{},'x':'y'}", Spec.spec("!*.*").compile());
+        assertFiltered("{'a':'b','b':{'c':['one','two'],'e':{'f':{'name':'Herbert','nickname':'Bertie'}}}}",
+                Spec.spec("a", "b.*", "!b.d", "!b.e.p").compile());
+    }
+
+    @Test
+    public void excludesInArrays() throws IOException {
+        final JsonNode tree = TestUtil.MAPPER.readTree(TestUtil.q(
+                "{'items':[{'id':1,'raw':'xxx'},{'id':2,'raw':'yyy','tags':['a','b']},3],'raw':'zzz'}"));
+        final JsonNode expected = TestUtil.MAPPER.readTree(TestUtil.q(
+                "{'items':[{'id':1},{'id':2,'tags':['a','b']},3],'raw':'zzz'}"));
+        assertEquals(expected, FilteredTreeCopier.copyTree(tree, Spec.spec("!items.raw").compile()));
+    }
+
+    @Test
+    public void buildsExcludingNodes() {
+        final Spec spec = Spec.spec("b", "!b.'e.x'.*", "!a", "!a.b");
+        assertEquals(Arrays.asList("b", "!a", "!b.'e.x'.*"), spec.normalised());
+        assertEquals("['b'(), !'a'(), !'b'(!'e.x'(!''()))]", spec.toNodes().toString());
+        assertEquals("!a.'b.c'", Spec.cleanup("!.a..'b.c'"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void barfsOnIncludingChildOfExcludingNode() {
+        Node.excluding("a", new Node("b"));
+    }
+
+    private static void assertFiltered(final String expectedJson, final CompiledFilter filter) throws IOException {
+        final JsonNode tree = TestUtil.readSampleJson("demosample.json");
+        final JsonNode expected = TestUtil.MAPPER.readTree(TestUtil.q(expectedJson));
+
+        assertEquals(expected, FilteredTreeCopier.copyTree(tree, filter));
+        assertEquals(expected, FilteredTreeCopier.shadowTree(tree, filter));
+        assertEquals(expected, FilteredTreeCopier.copyTree(tree, filter, new ParallelOptions(2)));
+        assertEquals(expected, FilteredJsonNode.view(tree, filter).deepCopy());
+
+        final StringWriter out = new StringWriter();
+        try (JsonGenerator generator = TestUtil.MAPPER.getFactory().createGenerator(out)) {
+            FilteredStreamCopier.copyStream(TestUtil.MAPPER.getFactory().createParser(tree.toString()), filter,
+                    generator);
+        }
+        assertEquals(expected, TestUtil.MAPPER.readTree(out.toString()));
+    }
+
+}
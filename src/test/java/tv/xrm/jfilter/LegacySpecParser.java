@@ -0,0 +1,68 @@
+package tv.xrm.jfilter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The regex-based spec parsing that SpecParser replaced, kept as a reference for tests and benchmarks.
+ */
+final class LegacySpecParser {
+
+    private LegacySpecParser() {
+    }
+
+    static List<String> tokens(final String spec) {
+        return split(cleanup(spec));
+    }
+
+    static List<String> split(final String cleanSpec) {
+        List<String> result = new ArrayList<>();
+        List<String> bracketSplitList = Arrays.asList(cleanSpec.split(Spec.BRACKET_FOR_ESCAPING));
+        for (int i = 0; i < bracketSplitList.size(); i++) {
+            String bracketToken = bracketSplitList.get(i);
+            if (bracketToken.isEmpty()) {
+                continue;
+            }
+            List<String> dotSplitList;
+            if ((i & 1) == 1) { // odd?
+                dotSplitList = Collections.singletonList(bracketToken);
+            } else {
+                dotSplitList = new ArrayList<>(Arrays.asList(bracketToken.split("\\.")));
+            }
+            for (String token : dotSplitList) {
+                if (token.equals(Spec.WILDCARD)) {
+                    result.add(FilteredTreeCopier.WILDCARD);
+                } else if (!token.isEmpty()) {
+                    result.add(token);
+                }
+            }
+        }
+        return result;
+    }
+
+    static String cleanup(final String spec) {
+        String[] arr = spec.split(Spec.BRACKET_FOR_ESCAPING);
+        if (arr.length % 2 == 0) {
+            if (spec.charAt(spec.length() - 1) != '\'') {
+                throw new IllegalArgumentException("invalid bracket notation in spec");
+            }
+        }
+        StringBuilder cleaned = new StringBuilder();
+        for (int i = 0; i < arr.length; i++) {
+            if (i > 0) {
+                cleaned.append(".");
+            }
+            if (i % 2 == 0) {
+                String c = arr[i].replaceAll("(\\.)\\1+", "$1");
+                c = c.replaceAll("^(\\.)+", "");
+                cleaned.append(c.replaceAll("(\\.)$", ""));
+            } else {
+                cleaned.append(Spec.BRACKET_FOR_ESCAPING).append(arr[i]).append(Spec.BRACKET_FOR_ESCAPING);
+            }
+        }
+        return cleaned.toString();
+    }
+
+}
@@ -0,0 +1,59 @@
+package tv.xrm.jfilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonParseException;
+
+public class LinesTest {
+
+    private static final ForkJoinPool POOL = new ForkJoinPool(3);
+
+    @Test
+    public void filtersLinesInOrder() throws IOException {
+        final StringBuilder input = new StringBuilder();
+        final StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            input.append(TestUtil.q("{'id':" + i + ",'tags':['x','y'],'body':{'text':'" + i + "','len':3}}\n"));
+            expected.append(TestUtil.q("{'id':" + i + ",'body':{'len':3}}\n"));
+        }
+        final CompiledFilter filter = Spec.spec("id", "body.len").compile();
+
+        // small chunks, so that many are in flight and most lines are split across reads
+        for (final int chunkSize : new int[] { 16, 100, 4096, FilteredLinesCopier.CHUNK_SIZE }) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertEquals(500, FilteredLinesCopier.copyLines(new ByteArrayInputStream(input.toString()
+                    .getBytes("UTF-8")), filter, out, POOL, chunkSize, 4));
+            assertEquals(expected.toString(), out.toString("UTF-8"));
+        }
+    }
+
+    @Test
+    public void dropsBlankLines() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(4, FilteredLinesCopier.copyLines(new ByteArrayInputStream(TestUtil.q(
+                "{'a':1,'b':2}\r\n\n  \n[{'a':'ä'}]\n7\n8").getBytes("UTF-8")), Spec.spec("a").compile(), out));
+        assertEquals(TestUtil.q("{'a':1}\n[{'a':'ä'}]\n7\n8\n"), out.toString("UTF-8"));
+    }
+
+    @Test
+    public void reportsInvalidLines() throws IOException {
+        for (final String invalid : new String[] { "{'a':1}\n{'a':\n", "{'a':1} {'a':2}\n", "1 2\n" }) {
+            try {
+                FilteredLinesCopier.copyLines(new ByteArrayInputStream(TestUtil.q(invalid).getBytes("UTF-8")), Spec
+                        .spec("a").compile(), new ByteArrayOutputStream(), POOL, 8, 2);
+                fail(invalid);
+            } catch (JsonParseException e) {
+                // expected
+            }
+        }
+    }
+
+}
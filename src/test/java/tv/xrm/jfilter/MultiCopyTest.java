@@ -0,0 +1,81 @@
+package tv.xrm.jfilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+public class MultiCopyTest {
+
+    @Test
+    public void sameAsSeparateCopies() throws IOException {
+        final List<CompiledFilter> filters = new ArrayList<>();
+        for (final Spec spec : Arrays.asList(Spec.spec("glossary.*.title"),
+                Spec.spec("glossary.GlossDiv4.GlossList", "glossary.title"), Spec.spec("!glossary.*.GlossList"),
+                Spec.spec("**.GlossTerm"), Spec.spec("*"), Spec.spec("glossary.GlossDiv4"), Spec.spec("nothing"),
+                Spec.spec("b.c", "b.d"), Spec.spec("b[1:].c"), Spec.spec("b[?c].d", "a"))) {
+            filters.add(spec.compile());
+        }
+        for (final String sample : Arrays.asList("bigsample.json", "sample.json", "arraysample.json")) {
+            final JsonNode tree = TestUtil.readSampleJson(sample);
+            final List<JsonNode> copies = FilteredTreeCopier.copyTrees(tree, filters);
+            assertEquals(filters.size(), copies.size());
+            for (int i = 0; i < filters.size(); i++) {
+                assertEquals(sample + ", " + filters.get(i), FilteredTreeCopier.copyTree(tree, filters.get(i)),
+                        copies.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void reusesFanOut() throws IOException {
+        final FanOut fanOut = new FanOut(Spec.spec("b[0]", "a").compile(), Spec.spec("b[-1:].c", "b.d").compile(),
+                Spec.spec("**.c").compile());
+        for (final String json : Arrays.asList("{'a':1,'b':[{'c':2,'d':3},{'c':4}]}", "{'b':[{'d':5},7,{'c':{'c':8}}]}",
+                "[{'a':{'c':9}},{'b':[]}]")) {
+            final JsonNode tree = TestUtil.MAPPER.readTree(TestUtil.q(json));
+            final List<JsonNode> copies = FilteredTreeCopier.copyTrees(tree, fanOut);
+            for (int i = 0; i < fanOut.size(); i++) {
+                assertEquals(json, FilteredTreeCopier.copyTree(tree, fanOut.getFilters().get(i)), copies.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void sharesScalarsOnly() throws IOException {
+        final JsonNode tree = TestUtil.MAPPER.readTree(TestUtil.q("{'a':{'b':'x','c':{'d':1}},'e':2}"));
+        final List<JsonNode> copies = FilteredTreeCopier.copyTrees(tree,
+                new FanOut(Spec.spec("a").compile(), Spec.spec("a.b", "a.c").compile()));
+
+        assertEquals(tree.get("a"), copies.get(0).get("a"));
+        assertEquals(tree.get("a"), copies.get(1).get("a"));
+        assertSame(copies.get(0).get("a").get("b"), copies.get(1).get("a").get("b"));
+        assertNotSame(copies.get(0).get("a").get("c"), copies.get(1).get("a").get("c"));
+
+        ((ObjectNode) copies.get(0).get("a").get("c")).put("f", 3);
+        assertFalse(copies.get(1).get("a").get("c").has("f"));
+        assertFalse(tree.get("a").get("c").has("f"));
+    }
+
+    @Test
+    public void copiesScalarRoot() {
+        final JsonNode root = TestUtil.MAPPER.getNodeFactory().textNode("x");
+        final List<JsonNode> copies = FilteredTreeCopier.copyTrees(root,
+                new FanOut(Spec.spec("a").compile(), Spec.spec("!a").compile()));
+        assertEquals(FilteredTreeCopier.copyTree(root, Spec.spec("a").compile()), copies.get(0));
+        assertEquals(FilteredTreeCopier.copyTree(root, Spec.spec("!a").compile()), copies.get(1));
+        assertTrue(FilteredTreeCopier.copyTrees(root, new FanOut()).isEmpty());
+    }
+
+}
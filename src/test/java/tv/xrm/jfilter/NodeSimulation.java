@@ -0,0 +1,312 @@
+package tv.xrm.jfilter;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Filters a tree by walking the node lists directly, level by level, as FilterAutomaton's states describe them: lists
+ * resolved as by CompiledFilter, recursive wildcards and excluding nodes on their own, their outcomes joined. Nothing
+ * is compiled, shared or simplified, so it's a reference for the automaton in tests. Transforms aren't supported.
+ */
+final class NodeSimulation {
+
+    // what's expected on a level
+    private final List<List<Node>> lists = new ArrayList<>();
+    // recursive wildcards and excluding nodes
+    private final List<Node> nodes = new ArrayList<>();
+    private boolean all;
+    private boolean keepScalar;
+    private boolean wildcard;
+    // lists with array selectors, and what applies to elements otherwise
+    private final List<List<Node>> selecting = new ArrayList<>();
+    private NodeSimulation whole;
+    private boolean wholeNamed;
+    private boolean wholeWildcard;
+
+    private NodeSimulation() {
+    }
+
+    static JsonNode copyTree(final JsonNode root, final List<Node> spec) {
+        final NodeSimulation start = new NodeSimulation();
+        start.lists.add(spec);
+        start.close();
+        start.keepScalar = true;
+        start.wildcard = true;
+        return start.copy(root, false);
+    }
+
+    private JsonNode copy(final JsonNode value, final boolean element) {
+        if (value.isObject()) {
+            if (isEverything()) {
+                return value.deepCopy();
+            }
+            final ObjectNode copy = JsonNodeFactory.instance.objectNode();
+            final Iterator<Map.Entry<String, JsonNode>> fields = value.fields();
+            while (fields.hasNext()) {
+                final Map.Entry<String, JsonNode> field = fields.next();
+                final NodeSimulation next = step(field.getKey());
+                if (next != null) {
+                    FilteredTreeCopier.setField(copy, field.getKey(), next.copy(field.getValue(), false));
+                }
+            }
+            return copy;
+        }
+        if (value.isArray()) {
+            final ArrayNode copy = JsonNodeFactory.instance.arrayNode();
+            for (int i = 0, n = value.size(); i < n; i++) {
+                final NodeSimulation next = selecting.isEmpty() ? this : element(i, n, value.get(i));
+                if (next != null) {
+                    FilteredTreeCopier.addElement(copy, next.copy(value.get(i), true));
+                }
+            }
+            return copy;
+        }
+        return (element ? wildcard || isEverything() : keepScalar) ? value.deepCopy() : null;
+    }
+
+    /**
+     * @return what's expected below the field, or null if it isn't selected
+     */
+    private NodeSimulation step(final String name) {
+        final NodeSimulation next = new NodeSimulation();
+        next.all = all;
+        boolean excluded = false;
+        boolean named = false;
+        boolean anyWildcard = false;
+        boolean keep = all;
+        for (final Node node : nodes) {
+            if (isRecursiveWildcard(node)) {
+                add(next.nodes, node);
+            } else if (matches(node, name)) {
+                excluded |= node.getChildren().isEmpty();
+                for (final Node child : node.getChildren()) {
+                    add(next.nodes, child);
+                }
+            }
+        }
+        final List<Node> lasts = new ArrayList<>();
+        for (final List<Node> list : lists) {
+            final List<Node> candidates = new ArrayList<>();
+            Node last = null;
+            for (final Node node : list) {
+                if (!node.isExcluded() && !isRecursiveWildcard(node) && matches(node, name)) {
+                    candidates.add(node);
+                    if (node.getSelector() == null) {
+                        keep |= isWildcard(node) || node.getChildren().isEmpty();
+                        last = node;
+                    }
+                }
+            }
+            if (candidates.isEmpty()) {
+                continue;
+            }
+            final Node deciding = last != null ? last : candidates.get(candidates.size() - 1);
+            named |= !isWildcard(deciding);
+            anyWildcard |= isWildcard(deciding);
+            if (candidates.size() > countUnselected(candidates)) {
+                next.selecting.add(candidates);
+                if (last != null) {
+                    lasts.add(last);
+                }
+            } else {
+                addList(next.lists, last.getChildren());
+                next.wholeNamed |= !isWildcard(last);
+                next.wholeWildcard |= isWildcard(last);
+            }
+        }
+        next.whole = next.copyLevel();
+        for (final Node last : lasts) {
+            addList(next.lists, last.getChildren());
+        }
+
+        final int closed = next.close();
+        if (excluded || (closed & 1) != 0) {
+            return null;
+        }
+        next.keepScalar = keep || (closed & 2) != 0;
+        next.wildcard = all || anyWildcard && !named;
+        return next.hasInclusions() || !next.selecting.isEmpty() ? next : null;
+    }
+
+    /**
+     * @return what's expected for an element, as the last node applying to it in each list decides
+     */
+    private NodeSimulation element(final int index, final int size, final JsonNode element) {
+        final NodeSimulation next = whole.copyLevel();
+        boolean named = wholeNamed;
+        boolean anyWildcard = wholeWildcard;
+        for (final List<Node> candidates : selecting) {
+            Node applying = null;
+            for (final Node node : candidates) {
+                if (node.getSelector() == null || node.getSelector().selects(index, size, element)) {
+                    applying = node;
+                }
+            }
+            if (applying != null) {
+                addList(next.lists, applying.getChildren());
+                named |= !isWildcard(applying);
+                anyWildcard |= isWildcard(applying);
+            }
+        }
+        next.close();
+        next.wildcard = whole.all || anyWildcard && !named;
+        return next.hasInclusions() ? next : null;
+    }
+
+    /**
+     * Add what follows recursive wildcards, and everything for lists without inclusions.
+     *
+     * @return 1 if an excluding recursive wildcard ends here, 2 if an including one does
+     */
+    private int close() {
+        int closed = 0;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (final List<Node> list : new ArrayList<>(lists)) {
+                boolean inclusions = false;
+                for (final Node node : list) {
+                    inclusions |= !node.isExcluded();
+                    if (node.isExcluded() || isRecursiveWildcard(node)) {
+                        changed |= add(nodes, node);
+                    }
+                }
+                if (!inclusions && !all) {
+                    all = true;
+                    changed = true;
+                }
+            }
+            for (final Node node : new ArrayList<>(nodes)) {
+                if (!isRecursiveWildcard(node)) {
+                    continue;
+                }
+                if (node.isExcluded()) {
+                    if (node.getChildren().isEmpty()) {
+                        closed |= 1;
+                    }
+                    for (final Node child : node.getChildren()) {
+                        changed |= add(nodes, child);
+                    }
+                } else {
+                    boolean inclusions = false;
+                    for (final Node child : node.getChildren()) {
+                        inclusions |= !child.isExcluded();
+                    }
+                    if (!inclusions) {
+                        closed |= 2;
+                    }
+                    changed |= addList(lists, node.getChildren());
+                }
+            }
+        }
+        return closed;
+    }
+
+    private boolean hasInclusions() {
+        if (all) {
+            return true;
+        }
+        for (final Node node : nodes) {
+            if (!node.isExcluded()) {
+                return true;
+            }
+        }
+        for (final List<Node> list : lists) {
+            for (final Node node : list) {
+                if (!node.isExcluded() && !isRecursiveWildcard(node)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if nothing but everything is expected, i.e. no exclusions apply below
+     */
+    private boolean isEverything() {
+        if (!all) {
+            return false;
+        }
+        for (final Node node : nodes) {
+            if (node.isExcluded() || hasExclusionsBelow(node)) {
+                return false;
+            }
+        }
+        for (final List<Node> list : lists) {
+            for (final Node node : list) {
+                if (hasExclusionsBelow(node)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean hasExclusionsBelow(final Node node) {
+        for (final Node child : node.getChildren()) {
+            if (child.isExcluded() || hasExclusionsBelow(child)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private NodeSimulation copyLevel() {
+        final NodeSimulation copy = new NodeSimulation();
+        copy.lists.addAll(lists);
+        copy.nodes.addAll(nodes);
+        copy.all = all;
+        return copy;
+    }
+
+    private static int countUnselected(final List<Node> candidates) {
+        int count = 0;
+        for (final Node node : candidates) {
+            if (node.getSelector() == null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static boolean add(final List<Node> nodes, final Node node) {
+        for (final Node existing : nodes) {
+            if (existing == node) {
+                return false;
+            }
+        }
+        nodes.add(node);
+        return true;
+    }
+
+    private static boolean addList(final List<List<Node>> lists, final List<Node> list) {
+        for (final List<Node> existing : lists) {
+            if (existing == list) {
+                return false;
+            }
+        }
+        lists.add(list);
+        return true;
+    }
+
+    private static boolean matches(final Node node, final String name) {
+        return isWildcard(node) || node.getName().equals(name);
+    }
+
+    private static boolean isWildcard(final Node node) {
+        return node.getName().equals(FilteredTreeCopier.WILDCARD);
+    }
+
+    private static boolean isRecursiveWildcard(final Node node) {
+        return node.getName().equals(FilteredTreeCopier.RECURSIVE_WILDCARD);
+    }
+
+}
@@ -3,6 +3,7 @@ package tv.xrm.jfilter;
 
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -25,6 +26,21 @@ public class NodeTest {
         assertEquals(kids, n.getChildren());
     }
 
+    @Test
+    public void copiesChildren() {
+        final List<Node> kids = new ArrayList<>(Arrays.asList(new Node("foo"), new Node("bar")));
+
+        Node n = new Node("bla", kids);
+        kids.clear();
+
+        assertEquals(2, n.getChildren().size());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void hasUnmodifiableChildren() {
+        new Node("bla", new Node("foo")).getChildren().add(new Node("bar"));
+    }
+
     @Test
     public void deepCopy() {
         final List<Node> kids = Arrays.asList(new Node("foo", Arrays.asList(new Node("bar"), new Node("baz"))));
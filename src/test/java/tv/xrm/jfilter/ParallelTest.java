@@ -0,0 +1,113 @@
+package tv.xrm.jfilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+public class ParallelTest {
+
+    private static final ParallelOptions SMALL_THRESHOLD = new ParallelOptions(4);
+
+    @Test
+    public void sameAsSequentialForLargeArrays() {
+        final ObjectNode tree = TestUtil.MAPPER.createObjectNode();
+        final ArrayNode items = tree.putArray("items");
+        for (int i = 0; i < 1000; i++) {
+            final ObjectNode item = items.addObject();
+            item.put("id", i);
+            item.put("name", "item " + i);
+            item.putObject("tags").put("colour", i % 2 == 0 ? "red" : "blue").put("size", i);
+            if (i % 7 == 0) {
+                items.addNull();
+                items.add(i);
+            }
+        }
+
+        assertSameAsSequential(tree, Spec.spec("items.id", "items.tags.colour").compile());
+        assertSameAsSequential(tree, Spec.spec("items.*").compile());
+        assertSameAsSequential(tree, Spec.spec("items").compile());
+    }
+
+    @Test
+    public void sameAsSequentialForWideObjects() {
+        final ObjectNode tree = TestUtil.MAPPER.createObjectNode();
+        final ObjectNode wide = tree.putObject("wide");
+        for (int i = 0; i < 1000; i++) {
+            wide.putObject("f" + i).put("a", i).put("b", "x").putArray("c").add(i).addObject().put("d", true);
+        }
+        wide.put("f3", "overridden scalar");
+
+        assertSameAsSequential(tree, Spec.spec("wide.*.a", "wide.f3").compile());
+        assertSameAsSequential(tree, Spec.spec("wide.*.c.d", "wide.f10.b").compile());
+        assertSameAsSequential(tree, Spec.spec("wide.f9.a", "wide.f1", "wide.f500.c", "wide.f3", "wide.f2").compile());
+        assertSameAsSequential(TestUtil.readSampleJson("bigsample.json"), Spec.spec("glossary.*.title").compile());
+    }
+
+    @Test
+    public void shadowsInParallel() {
+        final ArrayNode tree = TestUtil.MAPPER.createArrayNode();
+        for (int i = 0; i < 100; i++) {
+            tree.addObject().putObject("x").put("y", i);
+        }
+
+        final JsonNode shadow = FilteredTreeCopier.shadowTree(tree, Spec.spec("x").compile(), SMALL_THRESHOLD);
+        assertEquals(tree, shadow);
+        assertNotSame(tree.get(50), shadow.get(50));
+        assertSame(tree.get(50).get("x"), shadow.get(50).get("x"));
+    }
+
+    @Test
+    public void callsBackForEveryObject() {
+        final JsonNode tree = TestUtil.readSampleJson("arraysample.json");
+        final CompiledFilter filter = Spec.spec("b.*", "b.e.*.name").compile();
+
+        final List<String> sequential = new ArrayList<>();
+        final List<String> parallel = Collections.synchronizedList(new ArrayList<String>());
+        FilteredTreeCopier.copyTree(tree, filter, new RecordingCallback(sequential));
+        FilteredTreeCopier.copyTree(tree, filter, new RecordingCallback(parallel),
+                new ParallelOptions(new ForkJoinPool(2), 2));
+
+        Collections.sort(sequential);
+        Collections.sort(parallel);
+        assertEquals(sequential, parallel);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTinyThreshold() {
+        new ParallelOptions(1);
+    }
+
+    private static void assertSameAsSequential(final JsonNode tree, final CompiledFilter filter) {
+        final JsonNode expected = FilteredTreeCopier.copyTree(tree, filter);
+        assertEquals(expected, FilteredTreeCopier.copyTree(tree, filter, SMALL_THRESHOLD));
+        assertEquals(expected, FilteredTreeCopier.copyTree(tree, filter, new ParallelOptions()));
+        // field order as well
+        assertEquals(expected.toString(), FilteredTreeCopier.copyTree(tree, filter, SMALL_THRESHOLD).toString());
+    }
+
+    private static final class RecordingCallback implements IJsonObjectCallback {
+        private final List<String> calls;
+
+        private RecordingCallback(final List<String> calls) {
+            this.calls = calls;
+        }
+
+        @Override
+        public void postProcessObjectNode(final ObjectNode newObject, final ObjectNode origObject,
+                final List<String> currentPath) {
+            calls.add(currentPath + " " + newObject);
+        }
+    }
+
+}
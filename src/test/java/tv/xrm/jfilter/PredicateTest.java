@@ -0,0 +1,109 @@
+package tv.xrm.jfilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+
+public class PredicateTest {
+
+    private static final String ORDERS = "{'orders':[{'id':1,'status':'OPEN','qty':1,'price':9.5},"
+            + "{'id':2,'status':'CLOSED','qty':3,'price':20,'discount':{'code':'X'}},null,"
+            + "{'id':3,'status':'OPEN','qty':5,'price':12.25,'discount':null},'junk',"
+            + "{'id':9007199254740993,'qty':'many'}]}";
+
+    @Test
+    public void selectsByEquality() throws IOException {
+        assertFiltered("{'orders':[{'id':1},{'id':3}]}", ORDERS, "orders[?status=='OPEN'].id");
+        assertFiltered("{'orders':[{'id':2}]}", ORDERS, "orders[?status != 'OPEN' && status].id");
+        assertFiltered("{'orders':[{'id':9007199254740993}]}", ORDERS, "orders[?id==9007199254740993].id");
+        assertFiltered("{'orders':[{'id':3}]}", ORDERS, "orders[?discount==null].id");
+    }
+
+    @Test
+    public void selectsByNumericComparison() throws IOException {
+        assertFiltered("{'orders':[{'id':2},{'id':3}]}", ORDERS, "orders[?qty>1].id");
+        assertFiltered("{'orders':[{'id':1},{'id':3}]}", ORDERS, "orders[?price<=12.25].id");
+        assertFiltered("{'orders':[{'id':1}]}", ORDERS, "orders[?price<1e1].id");
+        // not a number: no order
+        assertFiltered("{'orders':[{'id':1},{'id':2},{'id':3}]}", ORDERS, "orders[?qty>=0].id");
+        assertFiltered("{'n':[3,4]}", "{'n':[1,3,'x',4,null]}", "n[?@>2]");
+    }
+
+    @Test
+    public void selectsByExistence() throws IOException {
+        assertFiltered("{'orders':[{'id':2},{'id':3}]}", ORDERS, "orders[?discount].id");
+        assertFiltered("{'orders':[{'discount':{'code':'X'}}]}", ORDERS, "orders[?discount.code].discount");
+    }
+
+    @Test
+    public void combinesConditions() throws IOException {
+        // && binds more tightly than ||
+        assertFiltered("{'orders':[{'id':1},{'id':2}]}", ORDERS, "orders[?id==1 || qty>2 && price>15].id");
+        assertFiltered("{'orders':[{'id':3}]}", ORDERS, "orders[?status=='OPEN' && qty>1 && @.discount].id");
+    }
+
+    @Test
+    public void combinesWithOtherSelectors() throws IOException {
+        assertFiltered("{'orders':[{'id':1,'status':'OPEN'},{'id':2},{'id':3,'status':'OPEN'}]}", ORDERS,
+                "orders[?status=='OPEN'].status", "orders[:2].id", "orders[?status=='OPEN'].id");
+        // the recursive wildcard still looks into the other elements
+        assertFiltered("{'a':{'orders':[{'id':1},{'discount':{}},{'id':3},{}]}}", "{'a':" + ORDERS + "}",
+                "**.orders[?status=='OPEN'].id");
+    }
+
+    @Test
+    public void parsesPredicates() {
+        assertEquals(Arrays.asList("orders[?status=='OPEN' && qty>1.5].id"),
+                Spec.spec("orders[? status == 'OPEN'&&qty > 1.5].id").normalised());
+        assertEquals(Arrays.asList("a[?b=='x.]y'].c"), Spec.spec("a[?b=='x.]y'].c").normalised());
+        assertEquals("[?@<=3 || a.b]", ArraySelector.where("@ <= 3 || a.b").toString());
+
+        for (final String invalid : Arrays.asList("a[?]", "a[?b==]", "a[?b==x]", "a[?b=='x]", "a[?b==1 &&]",
+                "a[?b 1]")) {
+            try {
+                Spec.spec(invalid);
+                fail(invalid);
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("selector") || e.getMessage().contains("quote"));
+            }
+        }
+    }
+
+    private static void assertFiltered(final String expectedJson, final String json, final String... spec)
+            throws IOException {
+        final JsonNode tree = TestUtil.MAPPER.readTree(TestUtil.q(json));
+        final JsonNode expected = TestUtil.MAPPER.readTree(TestUtil.q(expectedJson));
+        final CompiledFilter filter = Spec.spec(spec).compile();
+
+        assertEquals(expected, FilteredTreeCopier.copyTree(tree, filter));
+        assertEquals(expected, FilteredTreeCopier.shadowTree(tree, filter));
+        assertEquals(expected, FilteredTreeCopier.copyTree(tree, filter, new ParallelOptions(2)));
+        assertEquals(expected, FilteredJsonNode.view(tree, filter).deepCopy());
+
+        final StringWriter out = new StringWriter();
+        try (JsonGenerator generator = TestUtil.MAPPER.getFactory().createGenerator(out)) {
+            FilteredStreamCopier.copyStream(TestUtil.MAPPER.getFactory().createParser(tree.toString()), filter,
+                    generator);
+        }
+        assertEquals(expected, TestUtil.MAPPER.readTree(out.toString()));
+
+        final ByteArrayOutputStream asyncOut = new ByteArrayOutputStream();
+        try (AsyncStreamCopier copier = new AsyncStreamCopier(filter, asyncOut)) {
+            copier.feed(ByteBuffer.wrap(TestUtil.MAPPER.writeValueAsBytes(tree)));
+            copier.endOfInput();
+        }
+        assertEquals(expected, TestUtil.MAPPER.readTree(asyncOut.toByteArray()));
+    }
+
+}
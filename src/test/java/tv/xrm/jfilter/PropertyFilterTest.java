@@ -0,0 +1,195 @@
+package tv.xrm.jfilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.annotation.JsonFilter;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
+
+public class PropertyFilterTest {
+
+    private static final ObjectMapper MAPPER = SpecPropertyFilter.configure(new ObjectMapper());
+
+    @Test
+    public void sameAsTreeCopy() throws IOException {
+        final Object user = user();
+        final JsonNode tree = new ObjectMapper().valueToTree(user);
+        for (final Spec spec : new Spec[] { Spec.spec("name", "address.city"), Spec.spec("orders.id", "tags"),
+                Spec.spec("attributes.*.level", "address"), Spec.spec("!orders.items", "!attributes.plan"),
+                Spec.spec("**.id"), Spec.spec("*"), Spec.spec("name.first", "orders.*"), Spec.spec("notes.x", "tags.x"),
+                Spec.spec("previous.city"), Spec.spec("notes", "!notes.x") }) {
+            final CompiledFilter filter = spec.compile();
+            assertEquals(spec.toString(), FilteredTreeCopier.copyTree(tree, filter),
+                    TestUtil.MAPPER.readTree(SpecPropertyFilter.writer(MAPPER, filter).writeValueAsString(user)));
+        }
+    }
+
+    @Test
+    public void skipsUnselectedGetters() throws IOException {
+        final User user = user();
+        final CompiledFilter filter = Spec.spec("name", "address.city").compile();
+        assertEquals(TestUtil.q("{'name':'Ann','address':{'city':'Graz'}}"),
+                SpecPropertyFilter.writer(MAPPER, filter).writeValueAsString(user));
+        assertFalse(user.ordersRead);
+        assertFalse(user.address.streetRead);
+    }
+
+    @Test
+    public void writesAllWithoutFilter() throws IOException {
+        final User user = user();
+        assertEquals(new ObjectMapper().valueToTree(user), TestUtil.MAPPER.readTree(MAPPER.writeValueAsString(user)));
+        assertTrue(user.ordersRead);
+    }
+
+    @Test
+    public void keepsOtherFilters() throws IOException {
+        final ObjectMapper mapper = new ObjectMapper().setFilterProvider(new SimpleFilterProvider().addFilter("own",
+                SimpleBeanPropertyFilter.serializeAllExcept("secret")));
+        SpecPropertyFilter.configure(mapper);
+        final Own own = new Own();
+        assertEquals(TestUtil.q("{'name':'x'}"), mapper.writeValueAsString(own));
+        assertEquals(TestUtil.q("{'name':'x'}"),
+                SpecPropertyFilter.writer(mapper, Spec.spec("name", "secret").compile()).writeValueAsString(own));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void barfsOnTransforms() {
+        SpecPropertyFilter.writer(MAPPER, Spec.spec("name -> redact").compile());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void barfsOnArraySelectors() {
+        SpecPropertyFilter.writer(MAPPER, Spec.spec("orders.items", "**.orders[0].id").compile());
+    }
+
+    private static User user() {
+        final Map<String, Object> gold = new LinkedHashMap<>();
+        gold.put("level", 3);
+        gold.put("id", "g");
+        final Map<String, Object> attributes = new LinkedHashMap<>();
+        attributes.put("gold", gold);
+        attributes.put("plan", "basic");
+        final Map<String, Object> x1 = new LinkedHashMap<>();
+        x1.put("x", 1);
+        final Map<String, Object> x2 = new LinkedHashMap<>();
+        x2.put("x", 2);
+        final User user = new User("Ann", new Address("Graz", "Hauptplatz 1"),
+                Arrays.asList(new Order(1, Arrays.asList("a", "b")), new Order(2, Arrays.<String> asList())),
+                attributes, new String[] { "x", "y" });
+        // copyTree() leaves out null elements, and scalars where only something below the elements is selected
+        user.notes = Arrays.asList(1, x1, null, "s", Arrays.<Object> asList(2, x2));
+        user.previous = Arrays.asList(new Address("Wien", "Ring 1"), null);
+        return user;
+    }
+
+    public static final class User {
+        private final String name;
+        private final Address address;
+        private final List<Order> orders;
+        private final Map<String, Object> attributes;
+        private final String[] tags;
+        private List<Object> notes;
+        private List<Address> previous;
+        private boolean ordersRead;
+
+        User(final String name, final Address address, final List<Order> orders, final Map<String, Object> attributes,
+                final String[] tags) {
+            this.name = name;
+            this.address = address;
+            this.orders = orders;
+            this.attributes = attributes;
+            this.tags = tags;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Address getAddress() {
+            return address;
+        }
+
+        public List<Order> getOrders() {
+            ordersRead = true;
+            return orders;
+        }
+
+        public Map<String, Object> getAttributes() {
+            return attributes;
+        }
+
+        public String[] getTags() {
+            return tags;
+        }
+
+        public List<Object> getNotes() {
+            return notes;
+        }
+
+        public List<Address> getPrevious() {
+            return previous;
+        }
+    }
+
+    public static final class Address {
+        private final String city;
+        private final String street;
+        private boolean streetRead;
+
+        Address(final String city, final String street) {
+            this.city = city;
+            this.street = street;
+        }
+
+        public String getCity() {
+            return city;
+        }
+
+        public String getStreet() {
+            streetRead = true;
+            return street;
+        }
+    }
+
+    public static final class Order {
+        private final int id;
+        private final List<String> items;
+
+        Order(final int id, final List<String> items) {
+            this.id = id;
+            this.items = items;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public List<String> getItems() {
+            return items;
+        }
+    }
+
+    @JsonFilter("own")
+    public static final class Own {
+        public String getName() {
+            return "x";
+        }
+
+        public String getSecret() {
+            return "s";
+        }
+    }
+
+}
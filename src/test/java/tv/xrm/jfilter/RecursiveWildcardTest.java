@@ -0,0 +1,160 @@
+package tv.xrm.jfilter;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.IntNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.NullNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+
+public class RecursiveWildcardTest {
+
+    private static final String[] NAMES = { "a", "b", "c", FilteredTreeCopier.WILDCARD,
+            FilteredTreeCopier.RECURSIVE_WILDCARD };
+
+    private static final String[] FIELDS = { "a", "b", "c", "d" };
+
+    private static final ArraySelector[] SELECTORS = { ArraySelector.index(0), ArraySelector.index(-1),
+            ArraySelector.slice(1, null) };
+
+    private static final String EVENT = "{'id':1,'type':'order','items':[{'id':2,'price':3,'raw':'x'},"
+            + "{'id':4,'details':{'price':5,'tax':{'price':6}}}],'meta':{'raw':'y','source':{'id':7}}}";
+
+    @Test
+    public void selectsAtAnyDepth() throws IOException {
+        assertFiltered("{'id':1,'items':[{'id':2},{'id':4,'details':{'tax':{}}}],'meta':{'source':{'id':7}}}",
+                EVENT, "**.id");
+        assertFiltered("{'items':[{'price':3},{'details':{'price':5,'tax':{'price':6}}}]}", EVENT, "items.**.price");
+        assertFiltered("{'items':[{'id':2,'price':3,'raw':'x'},{'id':4,'details':{'price':5,'tax':{'price':6}}}]}",
+                EVENT, "items.**.price", "items.*.raw", "items.id");
+    }
+
+    @Test
+    public void matchesZeroLevels() throws IOException {
+        assertFiltered("{'a':{'b':{'c':1}},'x':{'a':{'b':{'c':2,'d':3}}}}",
+                "{'a':{'b':{'c':1}},'x':{'a':{'b':{'c':2,'d':3}},'y':4}}", "**.a.**.c", "x.a.b.d");
+        assertFiltered("{'a':{'b':1,'c':[1,2]},'d':4}", "{'a':{'b':1,'c':[1,2]},'d':4}", "**");
+        assertFiltered("{'a':{'b':1,'c':[1,2]}}", "{'a':{'b':1,'c':[1,2]},'d':4}", "a.**");
+    }
+
+    @Test
+    public void excludesAtAnyDepth() throws IOException {
+        assertFiltered("{'id':1,'type':'order','items':[{'id':2,'price':3},{'id':4,'details':{'price':5,"
+                + "'tax':{'price':6}}}],'meta':{'source':{'id':7}}}", EVENT, "!**.raw");
+        assertFiltered("{'items':[{'id':2},{'id':4,'details':{'tax':{}}}]}", EVENT, "items.**", "!**.price",
+                "!items.raw");
+    }
+
+    @Test
+    public void keepsPrecedenceOfOtherPaths() throws IOException {
+        // the named path takes precedence for b, whether there's a recursive wildcard or not
+        final String json = "{'a':{'b':{'x':1,'y':2},'c':{'x':3}}}";
+        assertFiltered("{'a':{'b':{'y':2},'c':{'x':3}}}", json, "a.*.x", "a.b.y");
+        assertFiltered("{'a':{'b':{'y':2},'c':{'x':3}}}", json, "a.*.x", "a.b.y", "**.nothing");
+
+        final JsonNode tree = TestUtil.MAPPER.readTree(TestUtil.q(json));
+        final Spec spec = Spec.spec("a.*.x", "a.b.y");
+        assertEquals(FilteredTreeCopier.copyTree(tree, spec.compile()),
+                FilteredTreeCopier.copyTree(tree, Spec.spec("a.*.x", "a.b.y", "**.nothing").compile()));
+    }
+
+    @Test
+    public void joinsRecursiveWildcardPaths() throws IOException {
+        assertFiltered("{'a':{'b':{'x':1,'y':2},'c':{'x':3}}}", "{'a':{'b':{'x':1,'y':2,'z':0},'c':{'x':3,'y':4}}}",
+                "a.*.x", "a.b.y", "**.b.x");
+    }
+
+    @Test
+    public void sameAsSimulation() {
+        final Random random = new Random(4711);
+        for (int i = 0; i < 20_000; i++) {
+            final List<Node> spec = randomNodes(random, 3, false);
+            final JsonNode tree = randomTree(random, 4, true);
+            final JsonNode expected = NodeSimulation.copyTree(tree, spec);
+            final String message = spec + " on " + tree;
+            assertEquals(message, expected, FilteredTreeCopier.copyTree(tree, CompiledFilter.compile(spec)));
+            // specs without recursive wildcards as well, which CompiledFilter doesn't compile into an automaton
+            assertEquals(message, expected, FilteredTreeCopier.copyTree(tree, FilterAutomaton.compile(spec)));
+        }
+    }
+
+    @Test
+    public void compilesToCyclicAutomaton() {
+        assertEquals("('id'() *('id'() *(...)))", Spec.spec("**.id").compile().toString());
+        assertEquals(Arrays.asList("**.id", "a.**"), Spec.spec("a.**", "a.**.b", "**.id").normalised());
+    }
+
+    private static List<Node> randomNodes(final Random random, final int depth, final boolean excluding) {
+        final List<Node> nodes = new ArrayList<>();
+        for (int i = depth == 3 ? 1 + random.nextInt(3) : random.nextInt(depth + 1); i > 0; i--) {
+            final String name = NAMES[random.nextInt(NAMES.length)];
+            if (excluding || random.nextInt(6) == 0) {
+                nodes.add(Node.excluding(name, randomNodes(random, depth - 1, true)));
+            } else if (!name.equals(FilteredTreeCopier.RECURSIVE_WILDCARD) && random.nextInt(5) == 0) {
+                nodes.add(new Node(name, SELECTORS[random.nextInt(SELECTORS.length)],
+                        randomNodes(random, depth - 1, false)));
+            } else {
+                nodes.add(new Node(name, randomNodes(random, depth - 1, false)));
+            }
+        }
+        return nodes;
+    }
+
+    private static JsonNode randomTree(final Random random, final int depth, final boolean object) {
+        switch (object ? 3 : random.nextInt(depth > 0 ? 6 : 3)) {
+        case 0:
+            return IntNode.valueOf(random.nextInt(3));
+        case 1:
+            return TextNode.valueOf("t");
+        case 2:
+            return NullNode.getInstance();
+        case 3:
+        case 4:
+            final ObjectNode node = JsonNodeFactory.instance.objectNode();
+            for (int i = random.nextInt(4); i > 0; i--) {
+                node.set(FIELDS[random.nextInt(FIELDS.length)], randomTree(random, depth - 1, false));
+            }
+            return node;
+        default:
+            final ArrayNode array = JsonNodeFactory.instance.arrayNode();
+            for (int i = random.nextInt(4); i > 0; i--) {
+                array.add(randomTree(random, depth - 1, false));
+            }
+            return array;
+        }
+    }
+
+    private static void assertFiltered(final String expectedJson, final String json, final String... spec)
+            throws IOException {
+        final JsonNode tree = TestUtil.MAPPER.readTree(TestUtil.q(json));
+        final JsonNode expected = TestUtil.MAPPER.readTree(TestUtil.q(expectedJson));
+        final CompiledFilter filter = Spec.spec(spec).compile();
+
+        assertEquals(expected, FilteredTreeCopier.copyTree(tree, filter));
+        assertEquals(expected, FilteredTreeCopier.copyTree(tree, Spec.spec(spec).toNodes()));
+        assertEquals(expected, FilteredTreeCopier.shadowTree(tree, filter));
+        assertEquals(expected, FilteredTreeCopier.copyTree(tree, filter, new ParallelOptions(2)));
+        assertEquals(expected, FilteredJsonNode.view(tree, filter).deepCopy());
+
+        final StringWriter out = new StringWriter();
+        try (JsonGenerator generator = TestUtil.MAPPER.getFactory().createGenerator(out)) {
+            FilteredStreamCopier.copyStream(TestUtil.MAPPER.getFactory().createParser(tree.toString()), filter,
+                    generator);
+        }
+        assertEquals(expected, TestUtil.MAPPER.readTree(out.toString()));
+    }
+
+}
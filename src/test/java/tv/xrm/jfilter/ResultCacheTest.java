@@ -0,0 +1,90 @@
+package tv.xrm.jfilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+public class ResultCacheTest {
+
+    @Test
+    public void reusesFilteredTrees() {
+        final ResultCache cache = new ResultCache(1 << 20);
+        final JsonNode tree = TestUtil.readSampleJson("demosample.json");
+        final CompiledFilter filter = Spec.spec("a", "b.c", "b.e.*.nickname").compile();
+
+        final JsonNode first = cache.get("demo:1", tree, filter);
+        final JsonNode second = cache.get("demo:1", tree, filter);
+
+        final JsonNode expected = TestUtil.readSampleJson("demosample-expected.json");
+        assertEquals(expected, first.deepCopy());
+        assertEquals(first.deepCopy(), expected);
+        // results are views, which only equal views
+        assertNotEquals(expected, first);
+        assertNotEquals(first, expected);
+        assertEquals(first, second);
+        assertEquals(second, first);
+        assertTrue(second instanceof FilteredJsonNode);
+        assertEquals(1, cache.missCount());
+        assertEquals(1, cache.hitCount());
+        assertEquals(1, cache.size());
+        assertTrue(cache.weight() > 0);
+    }
+
+    @Test
+    public void distinguishesVersionsAndFilters() throws IOException {
+        final ResultCache cache = new ResultCache(1 << 20);
+        final CompiledFilter filter = Spec.spec("a").compile();
+        final JsonNode v1 = TestUtil.MAPPER.readTree(TestUtil.q("{'a':1,'b':2}"));
+        final JsonNode v2 = TestUtil.MAPPER.readTree(TestUtil.q("{'a':3,'b':2}"));
+
+        assertEquals(1, cache.get("doc:1", v1, filter).get("a").intValue());
+        assertEquals(3, cache.get("doc:2", v2, filter).get("a").intValue());
+        assertEquals(2, cache.get("doc:2", v2, Spec.spec("b").compile()).get("b").intValue());
+        // same key, same result - the document isn't looked at again
+        assertEquals(1, cache.get("doc:1", v2, filter).get("a").intValue());
+        assertEquals(3, cache.missCount());
+        assertEquals(1, cache.hitCount());
+    }
+
+    @Test
+    public void evictsByWeight() {
+        final JsonNode tree = TestUtil.readSampleJson("bigsample.json");
+        final CompiledFilter filter = Spec.spec("glossary.GlossDiv4").compile();
+        final long weight = ResultCache.estimateSize(FilteredTreeCopier.copyTree(tree, filter));
+        final ResultCache cache = new ResultCache(weight * 2 + weight / 2);
+
+        cache.get(1, tree, filter);
+        cache.get(2, tree, filter);
+        cache.get(1, tree, filter);
+        cache.get(3, tree, filter);
+
+        assertEquals(2, cache.size());
+        assertEquals(weight * 2, cache.weight());
+        assertEquals(1, cache.evictionCount());
+        cache.get(1, tree, filter);
+        assertEquals(3, cache.missCount());
+        cache.get(2, tree, filter);
+        assertEquals(4, cache.missCount());
+
+        // too heavy to be cached at all
+        final ResultCache small = new ResultCache(weight / 2);
+        small.get(1, tree, filter);
+        assertEquals(0, small.size());
+    }
+
+    @Test
+    public void estimatesGrowWithContent() throws IOException {
+        final long small = ResultCache.estimateSize(TestUtil.MAPPER.readTree(TestUtil.q("{'a':'x'}")));
+        final long large = ResultCache.estimateSize(TestUtil.MAPPER.readTree(TestUtil.q("{'a':'xxxxxxxxxx'}")));
+        assertNotEquals(small, large);
+        assertTrue(ResultCache.estimateSize(TestUtil.MAPPER.readTree("[1,2,3]")) > ResultCache
+                .estimateSize(TestUtil.MAPPER.readTree("[]")));
+    }
+
+}
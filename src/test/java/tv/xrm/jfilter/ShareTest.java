@@ -0,0 +1,93 @@
+package tv.xrm.jfilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+public class ShareTest {
+
+    @Test
+    public void sameContentAsCopy() throws IOException {
+        final JsonNode tree = TestUtil.readSampleJson("bigsample.json");
+        for (final Spec spec : new Spec[] { Spec.spec("glossary.*.title"),
+                Spec.spec("glossary.GlossDiv4.GlossList", "glossary.title"), Spec.spec("!glossary.*.GlossList"),
+                Spec.spec("**.GlossTerm"), Spec.spec("*") }) {
+            final JsonNode copy = FilteredTreeCopier.copyTree(tree, spec.compile());
+            final JsonNode shared = FilteredTreeCopier.shareTree(tree, spec.toNodes());
+            assertEquals(spec.toString(), TestUtil.MAPPER.writeValueAsString(copy),
+                    TestUtil.MAPPER.writeValueAsString(shared));
+            assertEquals(spec.toString(), copy, shared.deepCopy());
+            assertEquals(spec.toString(), shared.deepCopy(), copy);
+            assertTrue(shared instanceof ObjectNode);
+        }
+    }
+
+    @Test
+    public void notEqualToCopyWithSharedBranches() throws IOException {
+        final JsonNode tree = TestUtil.MAPPER.readTree(TestUtil.q("{'a':{'b':{'c':1}},'x':3}"));
+        final CompiledFilter filter = Spec.spec("a").compile();
+        final JsonNode copy = FilteredTreeCopier.copyTree(tree, filter);
+        final JsonNode shared = FilteredTreeCopier.shareTree(tree, filter);
+
+        // the shared branch is a view, which only equals views
+        assertNotEquals(copy, shared);
+        assertNotEquals(shared, copy);
+        assertEquals(copy, shared.deepCopy());
+        assertEquals(shared.deepCopy(), copy);
+        assertEquals(shared, FilteredTreeCopier.shareTree(tree, filter));
+    }
+
+    @Test
+    public void sharesSelectedBranchesReadOnly() throws IOException {
+        final JsonNode tree = TestUtil.MAPPER.readTree(TestUtil.q("{'a':{'b':{'c':1},'d':[{'e':2}]},'x':3}"));
+        final JsonNode shared = FilteredTreeCopier.shareTree(tree, Spec.spec("a", "x").compile());
+
+        final JsonNode a = shared.get("a");
+        assertTrue(a instanceof FilteredJsonNode);
+        assertEquals(tree.get("a"), a.deepCopy());
+        assertSame(tree.get("x"), shared.get("x"));
+        // new containers can be changed without touching the original
+        ((ObjectNode) shared).put("y", 4);
+        assertFalse(tree.has("y"));
+    }
+
+    @Test
+    public void unsharesOnlyThePathToChange() throws IOException {
+        final JsonNode tree = TestUtil.MAPPER.readTree(TestUtil.q("{'a':{'b':{'c':1},'d':[{'e':2},{'e':3}]},'x':3}"));
+        final String before = tree.toString();
+        final JsonNode shared = FilteredTreeCopier.shareTree(tree, Spec.spec("a").compile());
+
+        ((ObjectNode) FilteredTreeCopier.unshare(shared, "a", "d", "1")).put("e", 4);
+
+        assertEquals(TestUtil.q("{'a':{'b':{'c':1},'d':[{'e':2},{'e':4}]}}"), shared.toString());
+        assertEquals(before, tree.toString());
+        assertTrue(shared.get("a").get("b") instanceof FilteredJsonNode);
+        assertTrue(shared.get("a").get("d").get(0) instanceof FilteredJsonNode);
+        assertTrue(shared.get("a").get("d").get(1) instanceof ObjectNode);
+    }
+
+    @Test
+    public void rejectsPathsToScalars() throws IOException {
+        final JsonNode tree = TestUtil.MAPPER.readTree(TestUtil.q("{'a':{'b':1,'d':[1]}}"));
+        final JsonNode shared = FilteredTreeCopier.shareTree(tree, Spec.spec("a").compile());
+        for (final String[] path : new String[][] { { "a", "b" }, { "a", "x" }, { "a", "d", "x" } }) {
+            try {
+                FilteredTreeCopier.unshare(shared, path);
+                fail();
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+}
@@ -0,0 +1,63 @@
+package tv.xrm.jfilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import tv.xrm.jfilter.Spec.OverlappingBehaviour;
+
+public class SpecCacheTest {
+
+    @Test
+    public void reusesCompiledFilters() {
+        final SpecCache cache = new SpecCache(10);
+
+        final CompiledFilter first = cache.get("a", "b.c", "b.e.*.nickname");
+        final CompiledFilter second = cache.get("b.e.*.nickname", "a", "b.c", "a");
+
+        assertSame(first, second);
+        assertEquals(1, cache.missCount());
+        assertEquals(1, cache.hitCount());
+        assertEquals(1, cache.size());
+
+        final JsonNode tree = TestUtil.readSampleJson("demosample.json");
+        assertEquals(TestUtil.readSampleJson("demosample-expected.json"), FilteredTreeCopier.copyTree(tree, first));
+    }
+
+    @Test
+    public void distinguishesBehaviour() {
+        final SpecCache cache = new SpecCache(10);
+
+        assertNotSame(cache.get(OverlappingBehaviour.UNION, "a.*.b", "a.c"),
+                cache.get(OverlappingBehaviour.INTERSECTION, "a.*.b", "a.c"));
+        assertSame(cache.get("a.*.b", "a.c"), cache.get(OverlappingBehaviour.UNION, "a.*.b", "a.c"));
+        assertEquals(2, cache.missCount());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        final SpecCache cache = new SpecCache(2);
+
+        final CompiledFilter a = cache.get("a");
+        cache.get("b");
+        cache.get("a");
+        cache.get("c");
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.evictionCount());
+        assertSame(a, cache.get("a"));
+        assertEquals(3, cache.missCount());
+        cache.get("b");
+        assertEquals(4, cache.missCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void barfsOnNull() {
+        new SpecCache(1).get("a", null);
+    }
+
+}
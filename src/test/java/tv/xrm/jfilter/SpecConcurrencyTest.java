@@ -0,0 +1,161 @@
+package tv.xrm.jfilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import tv.xrm.jfilter.Spec.OverlappingBehaviour;
+
+/**
+ * Specs shared by many threads: readers must see the paths as they were after some add(), never a spec in between.
+ */
+public class SpecConcurrencyTest {
+
+    private static final int READERS = 8;
+
+    private static final int PATHS = 300;
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(READERS + 1);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void readersSeeWholeAdds() throws Exception {
+        for (final OverlappingBehaviour behaviour : OverlappingBehaviour.values()) {
+            final ObjectNode document = TestUtil.MAPPER.createObjectNode();
+            for (int i = 0; i < PATHS; i++) {
+                document.putObject("p" + i).put("x", i).put("y", i);
+            }
+            // paths are added in pairs, so a copy shows whether both were seen
+            final Spec spec = new Spec(behaviour);
+            final AtomicBoolean done = new AtomicBoolean();
+            final CountDownLatch start = new CountDownLatch(1);
+
+            final List<Future<Integer>> readers = new ArrayList<>();
+            for (int r = 0; r < READERS; r++) {
+                readers.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        start.await();
+                        int seen = 0;
+                        int reads = 0;
+                        while (!done.get() || reads == 0) {
+                            final List<Node> nodes = spec.toNodes();
+                            final int count = prefixLength(nodes);
+                            assertTrue("went back from " + seen + " to " + count, count >= seen);
+                            seen = count;
+
+                            final JsonNode copy = FilteredTreeCopier.copyTree(document, spec.compile());
+                            assertTrue(copy.size() >= count);
+                            assertWholeAdds(copy);
+                            reads++;
+                        }
+                        return reads;
+                    }
+                }));
+            }
+            final Future<?> writer = executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    start.await();
+                    try {
+                        for (int i = 0; i < PATHS; i++) {
+                            spec.add("p" + i + ".x", "p" + i + ".y");
+                        }
+                    } finally {
+                        done.set(true);
+                    }
+                    return null;
+                }
+            });
+
+            start.countDown();
+            writer.get();
+            for (final Future<Integer> reader : readers) {
+                assertTrue(reader.get() > 0);
+            }
+            assertEquals(PATHS, spec.toNodes().size());
+        }
+    }
+
+    @Test
+    public void sharesFrozenSpec() throws Exception {
+        final Spec spec = Spec.spec(OverlappingBehaviour.INTERSECTION, "glossary.*.title", "glossary.GlossDiv4.*.*")
+                .freeze();
+        final JsonNode tree = TestUtil.readSampleJson("bigsample.json");
+        final JsonNode expected = FilteredTreeCopier.copyTree(tree, Spec.spec(OverlappingBehaviour.INTERSECTION,
+                "glossary.*.title", "glossary.GlossDiv4.*.*").compile());
+        final CountDownLatch start = new CountDownLatch(1);
+
+        final List<Future<CompiledFilter>> readers = new ArrayList<>();
+        for (int r = 0; r < READERS; r++) {
+            readers.add(executor.submit(new Callable<CompiledFilter>() {
+                @Override
+                public CompiledFilter call() throws Exception {
+                    start.await();
+                    CompiledFilter filter = null;
+                    for (int i = 0; i < 200; i++) {
+                        filter = spec.compile();
+                        assertEquals(expected, FilteredTreeCopier.copyTree(tree, filter));
+                    }
+                    return filter;
+                }
+            }));
+        }
+        start.countDown();
+        for (final Future<CompiledFilter> reader : readers) {
+            assertSame(spec.compile(), reader.get());
+        }
+    }
+
+    /**
+     * @return n, where the nodes are p0 to p(n-1), each with both children
+     */
+    private static int prefixLength(final List<Node> nodes) {
+        int max = -1;
+        for (final Node node : nodes) {
+            max = Math.max(max, Integer.parseInt(node.getName().substring(1)));
+            assertEquals(node.toString(), 2, node.getChildren().size());
+        }
+        assertEquals("not a whole number of adds: " + nodes, max + 1, nodes.size());
+        return nodes.size();
+    }
+
+    private static void assertWholeAdds(final JsonNode copy) {
+        final Iterator<String> names = copy.fieldNames();
+        int max = -1;
+        while (names.hasNext()) {
+            final String name = names.next();
+            final JsonNode value = copy.get(name);
+            assertTrue(name + ": " + value, value.has("x") && value.has("y"));
+            max = Math.max(max, Integer.parseInt(name.substring(1)));
+        }
+        assertEquals(max + 1, copy.size());
+    }
+
+}
@@ -0,0 +1,74 @@
+package tv.xrm.jfilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class SpecParserTest {
+
+    @Test
+    public void tokenizes() {
+        assertEquals(Arrays.asList("a", "b", "c"), SpecParser.tokens("....a..b......c."));
+        assertEquals(Collections.emptyList(), SpecParser.tokens("...."));
+        assertEquals(Arrays.asList("a", "b.[:.c", "d"), SpecParser.tokens("a..'b.[:.c'...d"));
+        assertEquals(Arrays.asList("a", FilteredTreeCopier.WILDCARD, "**", "x"), SpecParser.tokens("a.*.**.x"));
+        assertEquals(Arrays.asList("ab", "cd", "ef"), SpecParser.tokens("ab'cd'ef"));
+        assertEquals(Arrays.asList("a"), SpecParser.tokens("a''.'"));
+    }
+
+    @Test
+    public void formats() {
+        assertEquals("a.'b.[:.c'.d.*",
+                SpecParser.format(Arrays.asList("a", "b.[:.c", "d", FilteredTreeCopier.WILDCARD)));
+        assertEquals("", SpecParser.format(Collections.<String> emptyList()));
+    }
+
+    @Test
+    public void reportsPositionOfUnclosedQuote() {
+        try {
+            SpecParser.tokens("a.'b'.'c.d");
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("position 6"));
+        }
+    }
+
+    @Test
+    public void sameAsLegacyParser() {
+        final char[] alphabet = { 'a', 'b', '.', '.', '\'', '*', '[', ' ' };
+        final Random random = new Random(4711);
+        for (int i = 0; i < 100_000; i++) {
+            final char[] spec = new char[random.nextInt(12)];
+            for (int j = 0; j < spec.length; j++) {
+                spec[j] = alphabet[random.nextInt(alphabet.length)];
+            }
+            assertSameAsLegacy(new String(spec));
+        }
+    }
+
+    private static void assertSameAsLegacy(final String spec) {
+        List<String> expected;
+        try {
+            expected = LegacySpecParser.tokens(spec);
+        } catch (IllegalArgumentException e) {
+            expected = null;
+        }
+
+        List<String> actual;
+        try {
+            actual = SpecParser.tokens(spec);
+        } catch (IllegalArgumentException e) {
+            actual = null;
+        }
+
+        assertEquals(spec, expected, actual);
+    }
+
+}
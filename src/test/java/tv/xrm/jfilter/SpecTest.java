@@ -5,10 +5,19 @@ import com.fasterxml.jackson.databind.JsonNode;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Random;
+import java.util.Set;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class SpecTest {
 
@@ -34,7 +43,94 @@ public class SpecTest {
     @Test
     public void normalisesWithWildcards() {
         Spec s = Spec.spec(".b.a", "a.b.a", "a.b.a", "a.b.a", "a.b.b", "a..*.x", "", "a.b", "a.ba.");
-        assertEquals(Arrays.asList("a.*.x", "a.b", "a.b.b", "a.ba", "b.a"), s.normalised());
+        assertEquals(Arrays.asList("a.*.x", "a.b", "a.ba", "b.a"), s.normalised());
+    }
+
+    @Test
+    public void normalisesIndependentOfOrder() {
+        Spec s = Spec.spec("a.b.c", "a.b.d", "a.b", "a.b.e", "a.'b.c'");
+        assertEquals(Arrays.asList("a.b", "a.'b.c'"), s.normalised());
+    }
+
+    @Test
+    public void keepsOverlapForIntersection() {
+        Spec s = Spec.spec(Spec.OverlappingBehaviour.INTERSECTION, "a.b.a", "a.b", "a", "a.b.a");
+        assertEquals(Arrays.asList("a", "a.b", "a.b.a"), s.normalised());
+        assertEquals("['a'('b'('a'()))]", s.toNodes().toString());
+    }
+
+    @Test
+    public void sharesWildcardChildrenForIntersection() throws IOException {
+        Spec s = Spec.spec(Spec.OverlappingBehaviour.INTERSECTION, "*.*.x", "a.b", "a.c", "d.b");
+        List<Node> nodes = s.toNodes();
+        assertEquals("['a'('b'('x'()) 'c'('x'())), 'd'('b'('x'()))]", nodes.toString());
+        // same sub-tree, same node
+        assertSame(nodes.get(0).getChildren().get(0), nodes.get(1).getChildren().get(0));
+        assertSame(nodes.get(0).getChildren().get(0).getChildren().get(0),
+                nodes.get(0).getChildren().get(1).getChildren().get(0));
+
+        final JsonNode tree = TestUtil.MAPPER
+                .readTree(TestUtil.q("{'a':{'b':{'x':1,'y':2},'c':{'x':3}},'d':{'b':{'y':4}}}"));
+        assertEquals(TestUtil.MAPPER.readTree(TestUtil.q("{'a':{'b':{'x':1},'c':{'x':3}},'d':{'b':{}}}")),
+                FilteredTreeCopier.copyTree(tree, s.compile()));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void makesUnmodifiableNodes() {
+        Spec.spec("a.b").toNodes().get(0).getChildren().clear();
+    }
+
+    @Test
+    public void keepsResultsUntilChanged() {
+        final Spec spec = Spec.spec("a.b", "c");
+        final List<Node> nodes = spec.toNodes();
+        final CompiledFilter filter = spec.compile();
+        assertSame(nodes, spec.toNodes());
+        assertSame(filter, spec.compile());
+
+        spec.add("d");
+        assertEquals("['a'('b'()), 'c'(), 'd'()]", spec.toNodes().toString());
+        assertNotSame(filter, spec.compile());
+    }
+
+    @Test
+    public void refusesChangesWhenFrozen() {
+        final Spec spec = Spec.spec("a").freeze();
+        assertTrue(spec.isFrozen());
+        try {
+            spec.add("b");
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertEquals(Arrays.asList("a"), spec.normalised());
+    }
+
+    @Test
+    public void keepsNestedWildcardIntersectionsSmall() {
+        // nested wildcards used to be copied into every neighbour, level by level
+        final Random random = new Random(3);
+        final List<String> specs = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            final StringBuilder b = new StringBuilder();
+            for (int level = 0; level < 6; level++) {
+                b.append(level > 0 ? "." : "").append(random.nextInt(3) == 0 ? "*" : "n" + random.nextInt(4));
+            }
+            specs.add(b.toString());
+        }
+        final List<Node> nodes = Spec.spec(Spec.OverlappingBehaviour.INTERSECTION, specs).toNodes();
+
+        final Set<Node> distinct = Collections.newSetFromMap(new IdentityHashMap<Node, Boolean>());
+        collect(nodes, distinct);
+        assertTrue(distinct.size() + " nodes", distinct.size() < 2000);
+    }
+
+    private static void collect(final List<Node> nodes, final Set<Node> distinct) {
+        for (final Node node : nodes) {
+            if (distinct.add(node)) {
+                collect(node.getChildren(), distinct);
+            }
+        }
     }
 
     @Test
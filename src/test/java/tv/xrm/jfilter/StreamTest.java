@@ -0,0 +1,133 @@
+package tv.xrm.jfilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+
+public class StreamTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void simpleDemo() throws IOException {
+        final JsonNode tree = TestUtil.readSampleJson("demosample.json");
+
+        final JsonNode copy = filter(tree.toString(), Spec.spec("a", "b.c", "b.e.*.nickname").toNodes());
+
+        assertEquals(TestUtil.readSampleJson("demosample-expected.json"), copy);
+    }
+
+    @Test
+    public void sameAsTreeCopy() throws IOException {
+        assertSameAsTreeCopy("sample2.json", Spec.spec("glossary.title", "glossary.GlossDiv2.GlossList").toNodes());
+        assertSameAsTreeCopy("sample2.json", Spec.spec("glossary.*.title", "glossary.*.GlossList.*.ID").toNodes());
+        assertSameAsTreeCopy("bigsample.json", Arrays.asList(new Node("glossary", new Node("GlossDiv4"))));
+        assertSameAsTreeCopy("sample.json", Arrays.asList(new Node(FilteredTreeCopier.WILDCARD)));
+    }
+
+    @Test
+    public void arrayProcessing() throws IOException {
+        assertSameAsTreeCopy("arraysample.json",
+                Arrays.asList(new Node("b", new Node("c", new Node("doesNotExist")), new Node("d"), new Node("e"))));
+    }
+
+    @Test
+    public void overlappingNamesAndWildcards() throws IOException {
+        assertSameAsTreeCopy("demosample.json",
+                Arrays.asList(new Node("b", new Node("e", new Node("f")), new Node(FilteredTreeCopier.WILDCARD,
+                        new Node("p")))));
+        assertSameAsTreeCopy("demosample.json", Arrays.asList(new Node(FilteredTreeCopier.WILDCARD,
+                new Node("nothing")), new Node("a", new Node("nothing"))));
+    }
+
+    @Test
+    public void copiesSequenceOfRootValues() throws IOException {
+        final List<Node> spec = Spec.spec("a").toNodes();
+        final StringWriter out = new StringWriter();
+        try (JsonParser parser = TestUtil.MAPPER.getFactory().createParser(TestUtil.q("{'a':1,'b':2} 7 {'b':3}"));
+                JsonGenerator generator = TestUtil.MAPPER.getFactory().createGenerator(out)) {
+            assertTrue(FilteredStreamCopier.copyStream(parser, spec, generator));
+            assertTrue(FilteredStreamCopier.copyStream(parser, spec, generator));
+            assertTrue(FilteredStreamCopier.copyStream(parser, spec, generator));
+            assertFalse(FilteredStreamCopier.copyStream(parser, spec, generator));
+        }
+        assertEquals(TestUtil.q("{'a':1} 7 {}"), out.toString());
+    }
+
+    @Test
+    public void copiesFile() throws IOException {
+        final Path source = folder.newFile("in.json").toPath();
+        final Path target = folder.getRoot().toPath().resolve("out.json");
+        Files.write(source, TestUtil.q("{'a':1,'b':2} 7 {'b':3}").getBytes("UTF-8"));
+
+        assertEquals(3, FilteredStreamCopier.copyFile(source, Spec.spec("a").compile(), target));
+        assertEquals(TestUtil.q("{'a':1} 7 {}"), new String(Files.readAllBytes(target), "UTF-8"));
+    }
+
+    @Test
+    public void readsFileWindowByWindow() throws IOException {
+        final JsonNode tree = TestUtil.readSampleJson("bigsample.json");
+        final Path source = folder.newFile("big.json").toPath();
+        Files.write(source, TestUtil.MAPPER.writeValueAsBytes(tree));
+        final List<Node> spec = Spec.spec("glossary.*.title", "glossary.GlossDiv4.GlossList").toNodes();
+
+        final StringWriter out = new StringWriter();
+        try (JsonParser parser = TestUtil.MAPPER.getFactory().createParser(new MappedInputStream(FileChannel.open(
+                source), 1000));
+                JsonGenerator generator = TestUtil.MAPPER.getFactory().createGenerator(out)) {
+            FilteredStreamCopier.copyStream(parser, spec, generator);
+        }
+        assertEquals(FilteredTreeCopier.copyTree(tree, spec), TestUtil.MAPPER.readTree(out.toString()));
+    }
+
+    @Test
+    public void copiesBuffer() throws IOException {
+        final byte[] json = TestUtil.q("xx{'a':[1,2],'b':'ä'}").getBytes("UTF-8");
+        final CompiledFilter filter = Spec.spec("a[-1]").compile();
+        final ByteBuffer direct = ByteBuffer.allocateDirect(json.length);
+        direct.put(json).flip();
+
+        for (final ByteBuffer buffer : Arrays.asList(ByteBuffer.wrap(json), direct)) {
+            buffer.position(2);
+            final StringWriter out = new StringWriter();
+            try (JsonGenerator generator = TestUtil.MAPPER.getFactory().createGenerator(out)) {
+                assertEquals(1, FilteredStreamCopier.copyBuffer(buffer, filter, generator));
+            }
+            assertEquals(TestUtil.q("{'a':[2]}"), out.toString());
+            assertEquals(2, buffer.position());
+        }
+    }
+
+    private static void assertSameAsTreeCopy(final String sample, final List<Node> spec) throws IOException {
+        final JsonNode tree = TestUtil.readSampleJson(sample);
+        assertEquals(FilteredTreeCopier.copyTree(tree, spec), filter(tree.toString(), spec));
+    }
+
+    private static JsonNode filter(final String json, final List<Node> spec) throws IOException {
+        final StringWriter out = new StringWriter();
+        try (JsonParser parser = TestUtil.MAPPER.getFactory().createParser(json);
+                JsonGenerator generator = TestUtil.MAPPER.getFactory().createGenerator(out)) {
+            FilteredStreamCopier.copyStream(parser, spec, generator);
+        }
+        return TestUtil.MAPPER.readTree(out.toString());
+    }
+
+}
@@ -0,0 +1,168 @@
+package tv.xrm.jfilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.IntNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+
+import tv.xrm.jfilter.Spec.OverlappingBehaviour;
+
+public class TransformTest {
+
+    @Test
+    public void transformsSelectedFields() throws IOException {
+        assertTransformed("{'a':'***','b':{'e':{'f':{'name':'Herbert','nick':'Bertie'}}}}",
+                Spec.spec("a -> redact", "b.e.f.name", "b.e.f.nickname -> rename(nick)").compile());
+        assertTransformed("{'b':{'c':['one'],'e':{'f':{'name':'Her'},'p':{'name':'Rob'}}}}",
+                Spec.spec("b.c -> truncate(1)", "b.e.*.name -> truncate(3)").compile());
+        assertTransformed("{'b':{'e':'***'}}", Spec.spec("b.e.f.name", "b.e -> redact").compile());
+    }
+
+    @Test
+    public void hashesValues() throws IOException {
+        // SHA-256 of the JSON, so strings and other values don't collide
+        assertTransformed("{'a':'c100f95c1913f9c72fc1f4ef0847e1e723ffe0bde0b36e5f36c13f81fe8c26ed',"
+                + "'b':{'d':'b5bea41b6c623f7c09f1bf24dcae58ebab3c0cdd90ad966bc43a45b44867e12b'}}",
+                Spec.spec("a -> hash", "b.d -> hash").compile());
+        assertNotEquals(FieldTransform.hash().apply(TextNode.valueOf("1")),
+                FieldTransform.hash().apply(IntNode.valueOf(1)));
+        // of what's selected below the field
+        assertTransformed("{'b':{'e':{'f':'96dad3446a8ebe67375a57605bde57823d5b63fa4cf56f5ee4a923162559c80f'}}}",
+                Spec.spec(OverlappingBehaviour.INTERSECTION, "b.e.f.name", "b.e.f -> hash").compile());
+    }
+
+    @Test
+    public void hashesValuesWithKey() throws IOException {
+        final FieldTransform hmac = FieldTransform.hmac("secret".getBytes("UTF-8"));
+        assertTransformed("{'a':'881ce51bf7c6bebe4d817dce54ddbfb569a93b1295c29004644257e4db5584e7',"
+                + "'b':{'d':'f1e380f6f390738d3c40662b10c7da1ce1f86594b83cb9e3774e644715335e05'}}",
+                CompiledFilter.compile(Arrays.asList(Node.transformed("a", hmac),
+                        new Node("b", Node.transformed("d", hmac)))));
+        assertEquals(hmac, FieldTransform.hmac("secret".getBytes("UTF-8")));
+        assertNotEquals(hmac, FieldTransform.hmac("other".getBytes("UTF-8")));
+        assertEquals("hmac", hmac.toString());
+    }
+
+    @Test
+    public void keepsTransformsUnderMoreGeneralPaths() throws IOException {
+        final String expected = "{'a':'b','b':{'c':['one','two'],'d':true,'e':{'f':{'name':'***','nickname':'Bertie'},"
+                + "'p':{'name':'***','nickname':'Bob'}}}}";
+        final Spec before = Spec.spec("a", "b.e.*.name -> redact", "b");
+        final Spec after = Spec.spec("a", "b", "b.e.*.name -> redact", "b.e.f");
+        assertTransformed(expected, before.compile());
+        assertTransformed(expected, after.compile());
+        assertEquals(Arrays.asList("a", "b", "b.e.*.name -> redact"), before.normalised());
+        assertEquals(before.normalised(), after.normalised());
+        assertEquals("['a'(), 'b'(''() 'e'(''() ''(''() 'name'->redact())))]", after.toNodes().toString());
+
+        assertTransformed("{'b':{'c':['one','two'],'d':'***'}}", Spec.spec("b", "b.d -> redact", "!b.e").compile());
+    }
+
+    @Test
+    public void transformsWithIntersection() throws IOException {
+        assertTransformed("{'b':{'e':{'p':{'name':'Rob','nickname':'Bob'}}}}",
+                Spec.spec(OverlappingBehaviour.INTERSECTION, "b.e.*.name -> truncate(3)", "b.e.p.nickname").compile());
+    }
+
+    @Test
+    public void transformsWithRecursiveWildcard() throws IOException {
+        assertTransformed("{'a':'b','b':{'c':['one','two'],'d':true,'e':{'f':{'name':'***','nickname':'Bertie'},"
+                + "'p':{'name':'***','nickname':'Bob'}}},'x':'y'}", Spec.spec("*", "**.name -> redact").compile());
+    }
+
+    @Test
+    public void transformsArrayElements() throws IOException {
+        final JsonNode tree = TestUtil.MAPPER.readTree(TestUtil.q(
+                "{'items':[{'id':1,'email':'a@x'},{'id':2,'email':'b@x'},{'id':3}]}"));
+        final CompiledFilter filter = Spec.spec("items[0:2].email -> redact", "items[0:2].id -> rename(uid)",
+                "items[-1]").compile();
+        assertEquals(TestUtil.MAPPER.readTree(TestUtil.q("{'items':[{'uid':1,'email':'***'},{'uid':2,'email':'***'},"
+                + "{'id':3}]}")), FilteredTreeCopier.copyTree(tree, filter));
+    }
+
+    @Test
+    public void buildsTransformedNodes() throws IOException {
+        final JsonNode tree = TestUtil.readSampleJson("demosample.json");
+        final Node node = Node.transformed("b", FieldTransform.rename("c"), new Node("d"));
+        assertEquals("'b'->rename(c)('d'())", node.toString());
+        assertEquals(TestUtil.MAPPER.readTree("{\"c\":{\"d\":true}}"),
+                FilteredTreeCopier.copyTree(tree, Arrays.asList(node)));
+        assertEquals(node.toString(), node.deepCopy().toString());
+    }
+
+    @Test
+    public void parsesTransforms() {
+        assertEquals(FieldTransform.truncate(10), FieldTransform.parse(" truncate( 10 )"));
+        assertEquals(FieldTransform.rename("a b"), FieldTransform.parse("rename('a b')"));
+        assertEquals("rename(' x')", FieldTransform.rename(" x").toString());
+        // quoted names and selectors may contain arrows
+        final Spec spec = Spec.spec("'a->b' -> redact", "c[?x=='->'].d -> hash");
+        assertEquals(Arrays.asList("'a->b' -> redact", "c[?x=='->'].d -> hash"), spec.normalised());
+        assertEquals(spec.normalised(), new Spec().add(spec.normalised()).normalised());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void barfsOnUnknownTransform() {
+        Spec.spec("a -> encrypt");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void barfsOnTransformInExclusion() {
+        Spec.spec("!a -> redact");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void barfsOnTransformOfSelectedElements() {
+        Spec.spec("a[0:2] -> redact");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void barfsOnRenamingWildcard() {
+        Spec.spec("a.* -> rename(b)");
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void barfsOnView() {
+        FilteredJsonNode.view(TestUtil.readSampleJson("demosample.json"), Spec.spec("a -> redact").compile());
+    }
+
+    private static void assertTransformed(final String expectedJson, final CompiledFilter filter) throws IOException {
+        final JsonNode tree = TestUtil.readSampleJson("demosample.json");
+        final JsonNode expected = TestUtil.MAPPER.readTree(TestUtil.q(expectedJson));
+
+        assertEquals(expected, FilteredTreeCopier.copyTree(tree, filter));
+        assertEquals(expected, FilteredTreeCopier.shadowTree(tree, filter));
+        assertEquals(expected, FilteredTreeCopier.shareTree(tree, filter));
+        assertEquals(expected, FilteredTreeCopier.copyTree(tree, filter, new ParallelOptions(2)));
+        assertEquals(expected, FilteredTreeCopier.copyTrees(tree, new FanOut(filter, Spec.spec("x").compile())).get(0));
+        assertEquals(expected, TestUtil.MAPPER.readTree(FilteredTreeCopier.writeFilteredAsBytes(tree, filter)));
+
+        final StringWriter out = new StringWriter();
+        try (JsonGenerator generator = TestUtil.MAPPER.getFactory().createGenerator(out)) {
+            FilteredStreamCopier.copyStream(TestUtil.MAPPER.getFactory().createParser(tree.toString()), filter,
+                    generator);
+        }
+        assertEquals(expected, TestUtil.MAPPER.readTree(out.toString()));
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (AsyncStreamCopier copier = new AsyncStreamCopier(filter, bytes)) {
+            final byte[] json = tree.toString().getBytes("UTF-8");
+            for (int i = 0; i < json.length; i += 7) {
+                copier.feed(json, i, Math.min(7, json.length - i));
+            }
+            copier.endOfInput();
+        }
+        assertEquals(expected, TestUtil.MAPPER.readTree(bytes.toString("UTF-8")));
+    }
+
+}
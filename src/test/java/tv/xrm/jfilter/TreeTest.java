@@ -162,4 +162,30 @@ public class TreeTest {
         assertTrue(copy.at("/glossary/GlossDiv5").isMissingNode());
     }
 
+    @Test
+    public void compiledSpec() {
+        final JsonNode tree = TestUtil.readSampleJson("demosample.json");
+
+        final CompiledFilter filter = Spec.spec("a", "b.c", "b.e.*.nickname").compile();
+
+        assertEquals(TestUtil.readSampleJson("demosample-expected.json"), FilteredTreeCopier.copyTree(tree, filter));
+        assertEquals(TestUtil.readSampleJson("demosample-expected.json"), FilteredTreeCopier.shadowTree(tree, filter));
+    }
+
+    @Test
+    public void overlappingNameAndWildcard() throws IOException {
+        final JsonNode root = TestUtil.readSampleJson("demosample.json");
+
+        // the later node wins for containers, a scalar is kept if any node keeps it
+        final JsonNode copy = FilteredTreeCopier.copyTree(root, Arrays.asList(new Node("b", new Node("c"),
+                new Node("e", new Node("f")), new Node(FilteredTreeCopier.WILDCARD, new Node("p")),
+                new Node("d", new Node("nothing")))));
+
+        final JsonNode ref = TestUtil.MAPPER.readValue(
+                TestUtil.q(" {'b':{'c':['one','two'],'d':true,'e':{'p':{'name':'Robert','nickname':'Bob'}}}} "),
+                JsonNode.class);
+
+        assertEquals(ref, copy);
+    }
+
 }
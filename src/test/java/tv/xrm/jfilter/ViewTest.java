@@ -0,0 +1,119 @@
+package tv.xrm.jfilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+public class ViewTest {
+
+    @Test
+    public void simpleDemo() throws IOException {
+        final JsonNode tree = TestUtil.readSampleJson("demosample.json");
+
+        final JsonNode view = FilteredJsonNode.view(tree, Spec.spec("a", "b.c", "b.e.*.nickname").compile());
+
+        final JsonNode expected = TestUtil.readSampleJson("demosample-expected.json");
+        assertEquals(expected, view.deepCopy());
+        assertEquals(expected, TestUtil.MAPPER.readTree(TestUtil.MAPPER.writeValueAsString(view)));
+        assertEquals(expected, TestUtil.MAPPER.readTree(view.toString()));
+        assertEquals(expected.hashCode(), view.hashCode());
+    }
+
+    @Test
+    public void sameAsTreeCopy() throws IOException {
+        assertSameAsTreeCopy("sample2.json", Spec.spec("glossary.title", "glossary.GlossDiv2.GlossList").toNodes());
+        assertSameAsTreeCopy("sample2.json", Spec.spec("glossary.*.title", "glossary.*.GlossList.*.ID").toNodes());
+        assertSameAsTreeCopy("bigsample.json", Arrays.asList(new Node("glossary", new Node("GlossDiv4"))));
+        assertSameAsTreeCopy("arraysample.json",
+                Arrays.asList(new Node("b", new Node("c", new Node("doesNotExist")), new Node("d"), new Node("e"))));
+    }
+
+    @Test
+    public void accessesFilteredArrays() throws IOException {
+        final JsonNode tree = TestUtil.MAPPER.readTree(TestUtil.q("{'a':[1,null,{'b':2,'c':3},[null,4]],'x':1}"));
+
+        final JsonNode view = FilteredJsonNode.view(tree, Spec.spec("a.b").compile());
+
+        final JsonNode a = view.get("a");
+        assertEquals(2, a.size());
+        assertEquals(TestUtil.MAPPER.readTree(TestUtil.q("{'b':2}")), a.get(0).deepCopy());
+        assertEquals(0, a.get(1).size());
+        assertNull(a.get(2));
+        assertTrue(view.path("x").isMissingNode());
+        assertEquals(2, view.at("/a/0/b").intValue());
+        assertEquals(Arrays.asList("a"), toList(view.fieldNames()));
+    }
+
+    @Test
+    public void equalsViewsOnly() {
+        final JsonNode tree = TestUtil.readSampleJson("demosample.json");
+        final CompiledFilter filter = Spec.spec("a", "b.e.*.nickname").compile();
+
+        final JsonNode view = FilteredJsonNode.view(tree, filter);
+        final JsonNode copy = FilteredTreeCopier.copyTree(tree, filter);
+
+        assertEquals(view, FilteredJsonNode.view(tree.deepCopy(), filter));
+        assertNotEquals(view, copy);
+        assertNotEquals(copy, view);
+        assertEquals(copy, view.deepCopy());
+        assertEquals(view.deepCopy(), copy);
+        assertEquals(copy.hashCode(), view.hashCode());
+    }
+
+    @Test
+    public void doesNotExposeOriginalContainers() {
+        final JsonNode tree = TestUtil.readSampleJson("sample.json");
+
+        final JsonNode view = FilteredJsonNode.view(tree, Spec.spec("glossary.GlossDiv").compile());
+
+        assertTrue(view.get("glossary") instanceof FilteredJsonNode);
+        assertTrue(view.get("glossary").get("GlossDiv") instanceof FilteredJsonNode);
+        assertFalse(view.get("glossary").has("title"));
+
+        final JsonNode copy = view.deepCopy();
+        assertTrue(copy instanceof ObjectNode);
+        ((ObjectNode) copy.get("glossary")).put("title", "changed");
+        assertEquals("example glossary", tree.get("glossary").get("title").textValue());
+    }
+
+    @Test
+    public void canBeTraversed() throws IOException {
+        final JsonNode tree = TestUtil.readSampleJson("demosample.json");
+
+        final JsonNode view = FilteredJsonNode.view(tree, Spec.spec("a", "b.c", "b.e.*.nickname").compile());
+
+        @SuppressWarnings("unchecked")
+        final Map<String, Object> map = TestUtil.MAPPER.treeToValue(view, Map.class);
+        assertEquals(TestUtil.MAPPER.valueToTree(map), TestUtil.readSampleJson("demosample-expected.json"));
+    }
+
+    private static void assertSameAsTreeCopy(final String sample, final List<Node> spec) throws IOException {
+        final JsonNode tree = TestUtil.readSampleJson(sample);
+        final JsonNode copy = FilteredTreeCopier.copyTree(tree, spec);
+        final JsonNode view = FilteredJsonNode.view(tree, CompiledFilter.compile(spec));
+        assertEquals(copy, view.deepCopy());
+        assertEquals(copy, TestUtil.MAPPER.readTree(view.toString()));
+    }
+
+    private static <T> List<T> toList(final Iterator<T> iterator) {
+        final List<T> list = new java.util.ArrayList<>();
+        while (iterator.hasNext()) {
+            list.add(iterator.next());
+        }
+        return list;
+    }
+
+}
@@ -0,0 +1,61 @@
+package tv.xrm.jfilter;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+
+public class WriteTest {
+
+    @Test
+    public void sameAsWritingACopy() throws IOException {
+        final JsonNode tree = TestUtil.readSampleJson("bigsample.json");
+        for (final Spec spec : new Spec[] { Spec.spec("glossary.*.title"),
+                Spec.spec("glossary.GlossDiv4.GlossList", "glossary.title"), Spec.spec("!glossary.*.GlossList"),
+                Spec.spec("**.GlossTerm"), Spec.spec("*") }) {
+            final CompiledFilter filter = spec.compile();
+            final byte[] expected = TestUtil.MAPPER.writeValueAsBytes(FilteredTreeCopier.copyTree(tree, filter));
+
+            assertArrayEquals(spec.normalised().toString(), expected,
+                    FilteredTreeCopier.writeFilteredAsBytes(tree, filter));
+
+            final StringWriter out = new StringWriter();
+            try (JsonGenerator generator = TestUtil.MAPPER.getFactory().createGenerator(out)) {
+                FilteredTreeCopier.writeFiltered(tree, spec.toNodes(), generator);
+            }
+            assertEquals(new String(expected, "UTF-8"), out.toString());
+        }
+    }
+
+    @Test
+    public void keepsStreamOpenForReuse() throws IOException {
+        final JsonNode tree = TestUtil.MAPPER.readTree(TestUtil.q("{'a':[1,null,{'b':2,'c':3}],'x':'ä'}"));
+        final CompiledFilter filter = Spec.spec("a.b", "x").compile();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream() {
+            @Override
+            public void close() {
+                throw new AssertionError("closed");
+            }
+        };
+
+        for (int i = 0; i < 2; i++) {
+            out.reset();
+            FilteredTreeCopier.writeFiltered(tree, filter, out);
+            assertEquals(TestUtil.q("{'a':[{'b':2}],'x':'ä'}"), out.toString("UTF-8"));
+        }
+    }
+
+    @Test
+    public void writesScalarRoot() {
+        assertArrayEquals("42".getBytes(), FilteredTreeCopier.writeFilteredAsBytes(TestUtil.MAPPER.getNodeFactory()
+                .numberNode(42), Spec.spec("a").compile()));
+    }
+
+}